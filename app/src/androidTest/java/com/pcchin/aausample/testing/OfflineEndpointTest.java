@@ -0,0 +1,557 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.aausample.testing;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.work.BackoffPolicy;
+import androidx.work.Data;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import com.pcchin.auto_app_updater.AutoAppUpdater;
+import com.pcchin.auto_app_updater.endpoint.Endpoint;
+import com.pcchin.auto_app_updater.endpoint.UpdateCheckMetrics;
+import com.pcchin.auto_app_updater.endpoint.UpdateCheckResult;
+import com.pcchin.auto_app_updater.endpoint.repo.GitHubEndpoint;
+import com.pcchin.auto_app_updater.endpoint.repo.GitLabEndpoint;
+import com.pcchin.auto_app_updater.endpoint.repo.GiteaEndpoint;
+import com.pcchin.auto_app_updater.http.HttpCall;
+import com.pcchin.auto_app_updater.http.HttpRequest;
+import com.pcchin.auto_app_updater.http.HttpStatusException;
+import com.pcchin.auto_app_updater.http.HttpTransport;
+import com.pcchin.auto_app_updater.utils.APKDownloadWorker;
+import com.pcchin.auto_app_updater.utils.UpdaterFunctions;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/** Tests the endpoints and the APK download worker against a StandInServer that replays recorded responses,
+ * so that no network access is needed and the results do not depend on the live APIs.
+ * Latency, bandwidth caps, truncated responses, server errors, rate limits and redirects are injected by the server
+ * to check the fallback, timeout, retry and resume behaviour of the updater. **/
+@RunWith(AndroidJUnit4.class)
+public class OfflineEndpointTest {
+    private static final String TAG = "OfflineEndpointTest";
+    private static final String GITHUB_LATEST = "/github/repos/aau-test/public-stable-only/releases/latest";
+    private static final String GITHUB_RELEASES = "/github/repos/aau-test/public-prerelease-only/releases";
+    private static final String GITHUB_MIRROR = "/github-mirror/repos/aau-test/public-stable-only/releases/latest";
+    private static final String GITLAB_RELEASES = "/gitlab/api/v4/projects/19360565/releases";
+    private static final String GITEA_RELEASES = "/gitea/api/v1/repos/aau-test/public-stable-only/releases";
+    private static final String GITHUB_APK = "https://github.com/aau-test/public-stable-only/releases/download/1.1.0/success-1.1.0.apk";
+    private static final String GITLAB_APK = "https://gitlab.com/aau-test/public-stable-only/-/releases/1.1.0/downloads/success-1.1.0.apk";
+    private static final long CHECK_TIMEOUT_MILLIS = 30000;
+    private static final long DOWNLOAD_TIMEOUT_MILLIS = 120000;
+    private static final int CONCURRENT_CHECKS = 4;
+    // The APK download worker commits the part file in chunks of this size
+    private static final int DOWNLOAD_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private Context context;
+    private StandInServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        server = new StandInServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    //****** Start of recorded release tests ******//
+
+    @Test
+    public void gitHubLatest_parsesRecordedRelease() throws IOException, InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.json(readRecorded("github_latest.json")));
+        CheckProbe probe = checkGitHub(false);
+        assertResult(probe, "1.1.0", GITHUB_APK);
+        assertEquals(2456832, probe.result.getDownloadSize());
+    }
+
+    @Test
+    public void gitHubPrerelease_parsesRecordedRelease() throws IOException, InterruptedException {
+        server.setReplies(GITHUB_RELEASES, StandInServer.Reply.json(readRecorded("github_releases.json")));
+        assertResult(checkGitHub(true), "1.1.0",
+                "https://github.com/aau-test/public-prerelease-only/releases/download/1.1.0/success-1.1.0.apk");
+    }
+
+    @Test
+    public void gitLab_parsesRecordedRelease() throws IOException, InterruptedException {
+        server.setReplies(GITLAB_RELEASES, StandInServer.Reply.json(readRecorded("gitlab_releases.json")));
+        assertResult(checkGitLab(), "1.1.0", GITLAB_APK);
+    }
+
+    @Test
+    public void gitea_parsesRecordedRelease() throws IOException, InterruptedException {
+        server.setReplies(GITEA_RELEASES, StandInServer.Reply.json(readRecorded("gitea_releases.json")));
+        assertResult(checkGitea(), "1.1.0", "https://git.pcchin.com/attachments/7d1b2f7e-4a56-4b4e-8d07-0f3c9a1f6c21");
+    }
+
+    //****** Start of injected fault tests ******//
+
+    @Test
+    public void latency_isReportedAsTimeToFirstByte() throws IOException, InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.json(readRecorded("github_latest.json")).setLatency(500));
+        CheckProbe probe = checkGitHub(false);
+        assertResult(probe, "1.1.0", GITHUB_APK);
+        long firstByteMillis = probe.getLastMetrics().getFirstByteMillis();
+        assertTrue(String.format("Got %s ms to first byte, expected at least 500 ms", firstByteMillis), firstByteMillis >= 500);
+    }
+
+    @Test
+    public void bandwidthCap_isReportedAsTransferTime() throws IOException, InterruptedException {
+        String response = readRecorded("github_latest.json");
+        // The body is sent in about 2 seconds
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.json(response).setBytesPerSecond(response.length() / 2));
+        CheckProbe probe = checkGitHub(false);
+        assertResult(probe, "1.1.0", GITHUB_APK);
+        long transferMillis = probe.getLastMetrics().getTransferMillis();
+        assertTrue(String.format("Got %s ms to transfer, expected at least 1500 ms", transferMillis), transferMillis >= 1500);
+    }
+
+    @Test
+    public void truncatedResponse_failsCheck() throws IOException, InterruptedException {
+        String response = readRecorded("github_latest.json");
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.json(response).setTruncateAfter(response.length() / 2));
+        CheckProbe probe = checkGitHub(false);
+        // HttpURLConnection may either report the early end of the body or pass on the truncated JSON
+        assertTrue(String.format("Expected an IOException or JSONException, got %s", probe.error),
+                probe.error instanceof IOException || probe.error instanceof JSONException);
+    }
+
+    @Test
+    public void serverError_failsWithStatusCode() throws InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.status(503));
+        assertEquals(503, getStatusCode(checkGitHub(false).error));
+    }
+
+    @Test
+    public void rateLimit_passesRetryAfter() throws InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.status(429).setHeader("Retry-After", "120"));
+        CheckProbe probe = checkGitHub(false);
+        assertEquals(429, getStatusCode(probe.error));
+        assertEquals(120000, ((HttpStatusException) probe.error).getRetryAfterMillis());
+    }
+
+    @Test
+    public void redirect_isFollowed() throws IOException, InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.redirect(302, server.getUrl() + GITHUB_MIRROR));
+        server.setReplies(GITHUB_MIRROR, StandInServer.Reply.json(readRecorded("github_latest.json")));
+        assertResult(checkGitHub(false), "1.1.0", GITHUB_APK);
+        assertEquals(1, server.getRequests(GITHUB_LATEST).size());
+        assertEquals(1, server.getRequests(GITHUB_MIRROR).size());
+    }
+
+    @Test
+    public void failingEndpoint_fallsBackToBackup() throws IOException, InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.status(500));
+        server.setReplies(GITLAB_RELEASES, StandInServer.Reply.json(readRecorded("gitlab_releases.json")));
+        CheckProbe probe = new CheckProbe();
+        GitHubEndpoint gitHubEndpoint = newGitHubEndpoint(false, probe);
+        gitHubEndpoint.setBackupEndpoint(newGitLabEndpoint(probe));
+        check(gitHubEndpoint, probe);
+        assertResult(probe, "1.1.0", GITLAB_APK);
+        assertEquals(2, probe.metricsList.size());
+        assertFalse(probe.metricsList.get(0).isSuccessful());
+        assertTrue(probe.metricsList.get(1).isFallback());
+    }
+
+    @Test
+    public void slowServer_timesOut() throws IOException, InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.json(readRecorded("github_latest.json")).setLatency(3000));
+        CheckProbe probe = new CheckProbe();
+        GitHubEndpoint endpoint = newGitHubEndpoint(false, probe);
+        // The endpoints use a 30 second read timeout, which is shortened so that the test does not take as long
+        endpoint.setTransport(new HttpTransport() {
+            @NonNull
+            @Override
+            public HttpCall newCall(@NonNull HttpRequest request) {
+                return HttpTransport.getDefault().newCall(new HttpRequest.Builder(request).setReadTimeout(1000).build());
+            }
+        });
+        check(endpoint, probe);
+        assertTrue(String.format("Expected a SocketTimeoutException, got %s", probe.error), probe.error instanceof SocketTimeoutException);
+    }
+
+    /** Several headless checks through the same endpoints should run at the same time,
+     * each falling back to the backup endpoint and returning its own result without showing the dialog. **/
+    @Test
+    public void concurrentHeadlessChecks_returnOwnResults() throws IOException, InterruptedException {
+        server.setReplies(GITHUB_LATEST, StandInServer.Reply.status(500));
+        server.setReplies(GITLAB_RELEASES, StandInServer.Reply.json(readRecorded("gitlab_releases.json")).setLatency(500));
+        // The endpoints are not given a FragmentManager, so the check would fail if the dialog is shown
+        GitHubEndpoint gitHubEndpoint = new GitHubEndpoint("aau-test/public-stable-only", false, null, server.getUrl() + "/github");
+        GitLabEndpoint gitLabEndpoint = new GitLabEndpoint(19360565, server.getUrl() + "/gitlab");
+        gitHubEndpoint.setCurrentVersion("1.0.0", true);
+        gitLabEndpoint.setCurrentVersion("1.0.0", true);
+        List<Endpoint> endpoints = Arrays.<Endpoint>asList(gitHubEndpoint, gitLabEndpoint);
+
+        HeadlessProbe[] probes = new HeadlessProbe[CONCURRENT_CHECKS];
+        for (int i = 0; i < CONCURRENT_CHECKS; i++) {
+            probes[i] = new HeadlessProbe();
+            Endpoint.check(endpoints, probes[i]);
+        }
+        for (HeadlessProbe probe: probes) {
+            UpdateCheckResult result = probe.await();
+            assertTrue(result.isUpdateAvailable());
+            assertEquals("1.1.0", result.getNewVersion());
+            assertEquals(GitLabEndpoint.class.getName(), result.getSourceEndpoint());
+        }
+        assertTrue(server.getRequests(GITLAB_RELEASES).size() >= CONCURRENT_CHECKS);
+    }
+
+    //****** Start of download tests ******//
+
+    @Test
+    public void downloadServerError_isRetried() throws ExecutionException, InterruptedException {
+        // The worker fails immediately if the device is offline, even though the server is local
+        assumeTrue(UpdaterFunctions.isConnected(context));
+        String path = String.format("/download/retry-%s.apk", System.currentTimeMillis());
+        byte[] apk = generateApk(256 * 1024);
+        server.setReplies(path, StandInServer.Reply.status(503), StandInServer.Reply.bytes(apk));
+        WorkInfo workInfo = runDownloadWorker(server.getUrl() + path);
+        assertEquals(WorkInfo.State.SUCCEEDED, workInfo.getState());
+        assertEquals(1, workInfo.getOutputData().getInt(APKDownloadWorker.METRIC_RUN_ATTEMPT, -1));
+        assertEquals(apk.length, workInfo.getOutputData().getLong(APKDownloadWorker.METRIC_FINAL_SIZE, -1));
+    }
+
+    /** The first retry by WorkManager is run 10 seconds later, before the time asked by the server,
+     * so it should be skipped without a request and not be counted as a retry. **/
+    @Test
+    public void downloadRetryAfter_waitsInWorker() throws ExecutionException, InterruptedException {
+        assumeTrue(UpdaterFunctions.isConnected(context));
+        String path = String.format("/download/retry-after-%s.apk", System.currentTimeMillis());
+        byte[] apk = generateApk(256 * 1024);
+        server.setReplies(path, StandInServer.Reply.status(429).setHeader("Retry-After", "15"), StandInServer.Reply.bytes(apk));
+        WorkInfo workInfo = runDownloadWorker(server.getUrl() + path);
+        assertEquals(WorkInfo.State.SUCCEEDED, workInfo.getState());
+        assertEquals(2, server.getRequests(path).size());
+        assertEquals(1, workInfo.getOutputData().getInt(APKDownloadWorker.METRIC_RUN_ATTEMPT, -1));
+        assertEquals(apk.length, workInfo.getOutputData().getLong(APKDownloadWorker.METRIC_FINAL_SIZE, -1));
+    }
+
+    /** The server error after the wait is retried 40 seconds later, which is the third retry by WorkManager.
+     * The skipped run should still not be counted then, so the download should not reach the max retry count of 2. **/
+    @Test
+    public void downloadRetryAfterThenServerError_keepsSkippedRuns() throws ExecutionException, InterruptedException {
+        assumeTrue(UpdaterFunctions.isConnected(context));
+        String path = String.format("/download/retry-after-error-%s.apk", System.currentTimeMillis());
+        byte[] apk = generateApk(256 * 1024);
+        server.setReplies(path, StandInServer.Reply.status(429).setHeader("Retry-After", "15"),
+                StandInServer.Reply.status(503), StandInServer.Reply.bytes(apk));
+        WorkInfo workInfo = runDownloadWorker(server.getUrl() + path, 2);
+        assertEquals(WorkInfo.State.SUCCEEDED, workInfo.getState());
+        assertEquals(3, server.getRequests(path).size());
+        assertEquals(2, workInfo.getOutputData().getInt(APKDownloadWorker.METRIC_RUN_ATTEMPT, -1));
+        assertEquals(apk.length, workInfo.getOutputData().getLong(APKDownloadWorker.METRIC_FINAL_SIZE, -1));
+    }
+
+    /** The worker commits the bytes that are received before the body ends early,
+     * so the download should resume from at least the last chunk and at most the truncated length. **/
+    @Test
+    public void truncatedDownload_resumesFromReceivedBytes() throws ExecutionException, InterruptedException {
+        assumeTrue(UpdaterFunctions.isConnected(context));
+        String path = String.format("/download/resume-%s.apk", System.currentTimeMillis());
+        byte[] apk = generateApk(DOWNLOAD_CHUNK_SIZE + DOWNLOAD_CHUNK_SIZE / 2);
+        String eTag = String.format("\"%s\"", path.hashCode());
+        int truncateAfter = DOWNLOAD_CHUNK_SIZE + 1024;
+        server.setReplies(path, StandInServer.Reply.bytes(apk).setRanges(eTag).setTruncateAfter(truncateAfter),
+                StandInServer.Reply.bytes(apk).setRanges(eTag));
+        WorkInfo workInfo = runDownloadWorker(server.getUrl() + path);
+        List<StandInServer.RecordedRequest> requests = server.getRequests(path);
+        assertEquals(WorkInfo.State.SUCCEEDED, workInfo.getState());
+        long resumedBytes = workInfo.getOutputData().getLong(APKDownloadWorker.METRIC_RESUMED_BYTES, -1);
+        assertTrue(String.format("Resumed from %s bytes", resumedBytes),
+                resumedBytes >= DOWNLOAD_CHUNK_SIZE && resumedBytes <= truncateAfter);
+        assertEquals(2, requests.size());
+        assertEquals(String.format("bytes=%s-", resumedBytes), requests.get(1).getHeader("Range"));
+        assertEquals(apk.length, workInfo.getOutputData().getLong(APKDownloadWorker.METRIC_FINAL_SIZE, -1));
+    }
+
+    //****** Start of helper functions ******//
+
+    /** Runs the update check of a GitHub endpoint that points to the server.
+     * @param isPrerelease Whether to include pre releases in the version check. **/
+    @NonNull
+    private CheckProbe checkGitHub(boolean isPrerelease) throws InterruptedException {
+        CheckProbe probe = new CheckProbe();
+        return check(newGitHubEndpoint(isPrerelease, probe), probe);
+    }
+
+    /** Runs the update check of a GitLab endpoint that points to the server. **/
+    @NonNull
+    private CheckProbe checkGitLab() throws InterruptedException {
+        CheckProbe probe = new CheckProbe();
+        return check(newGitLabEndpoint(probe), probe);
+    }
+
+    /** Runs the update check of a Gitea endpoint that points to the server. **/
+    @NonNull
+    private CheckProbe checkGitea() throws InterruptedException {
+        CheckProbe probe = new CheckProbe();
+        return check(newGiteaEndpoint(probe), probe);
+    }
+
+    /** Creates a GitHub endpoint that points to the server and reports to the probe.
+     * @param isPrerelease Whether to include pre releases in the version check.
+     * @param probe The probe that receives the result of the check. **/
+    @NonNull
+    private GitHubEndpoint newGitHubEndpoint(boolean isPrerelease, @NonNull final CheckProbe probe) {
+        GitHubEndpoint endpoint = new GitHubEndpoint(isPrerelease ? "aau-test/public-prerelease-only" : "aau-test/public-stable-only",
+                isPrerelease, null, server.getUrl() + "/github") {
+            @Override
+            protected void onResult(@NonNull UpdateCheckResult result) {
+                probe.onResult(result);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception error) {
+                if (backupEndpoint == null) probe.onFailure(error);
+                else super.onFailure(error);
+            }
+        };
+        return probe.attach(endpoint);
+    }
+
+    /** Creates a GitLab endpoint that points to the server and reports to the probe.
+     * @param probe The probe that receives the result of the check. **/
+    @NonNull
+    private GitLabEndpoint newGitLabEndpoint(@NonNull final CheckProbe probe) {
+        GitLabEndpoint endpoint = new GitLabEndpoint(19360565, server.getUrl() + "/gitlab") {
+            @Override
+            protected void onResult(@NonNull UpdateCheckResult result) {
+                probe.onResult(result);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception error) {
+                if (backupEndpoint == null) probe.onFailure(error);
+                else super.onFailure(error);
+            }
+        };
+        return probe.attach(endpoint);
+    }
+
+    /** Creates a Gitea endpoint that points to the server and reports to the probe.
+     * @param probe The probe that receives the result of the check. **/
+    @NonNull
+    private GiteaEndpoint newGiteaEndpoint(@NonNull final CheckProbe probe) {
+        GiteaEndpoint endpoint = new GiteaEndpoint("aau-test/public-stable-only", false, server.getUrl() + "/gitea") {
+            @Override
+            protected void onResult(@NonNull UpdateCheckResult result) {
+                probe.onResult(result);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception error) {
+                if (backupEndpoint == null) probe.onFailure(error);
+                else super.onFailure(error);
+            }
+        };
+        return probe.attach(endpoint);
+    }
+
+    /** Runs the update check of the endpoint and waits for it to complete.
+     * @param endpoint The endpoint that is checked.
+     * @param probe The probe that receives the result of the check. **/
+    @NonNull
+    private static CheckProbe check(@NonNull Endpoint endpoint, @NonNull CheckProbe probe) throws InterruptedException {
+        endpoint.update();
+        assertTrue(String.format("Update check of %s did not complete in time", endpoint.getClass().getName()),
+                probe.latch.await(CHECK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        return probe;
+    }
+
+    /** Checks that the update check succeeded with the expected version and download URL.
+     * @param probe The probe that received the result of the check.
+     * @param version The expected version.
+     * @param downloadUrl The expected download URL. **/
+    private static void assertResult(@NonNull CheckProbe probe, @NonNull String version, @NonNull String downloadUrl) {
+        if (probe.result == null) throw new AssertionError("Update check failed", probe.error);
+        assertTrue(probe.result.isUpdateAvailable());
+        assertEquals(version, probe.result.getNewVersion());
+        assertEquals(downloadUrl, probe.result.getDownloadUrl());
+    }
+
+    /** Gets the status code of the error, or -1 if it is not a HttpStatusException. **/
+    private static int getStatusCode(Exception error) {
+        return error instanceof HttpStatusException ? ((HttpStatusException) error).getStatusCode() : -1;
+    }
+
+    /** Reads a recorded response from the assets of the test APK,
+     * which are taken from the test resources of auto-app-updater-core.
+     * @param fileName The name of the file in recorded. **/
+    @NonNull
+    private static String readRecorded(@NonNull String fileName) throws IOException {
+        InputStream input = InstrumentationRegistry.getInstrumentation().getContext().getAssets().open("recorded/" + fileName);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) output.write(buffer, 0, count);
+            return output.toString("UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Generates the bytes of a fake APK, which is not installed as the downloads are run as prefetches.
+     * @param size The size of the APK in bytes. **/
+    @NonNull
+    private static byte[] generateApk(int size) {
+        byte[] apk = new byte[size];
+        new Random(size).nextBytes(apk);
+        return apk;
+    }
+
+    /** Runs the APK download worker with the default max retry count and waits for it to finish.
+     * @param downloadUrl The URL of the APK on the server. **/
+    @NonNull
+    private WorkInfo runDownloadWorker(@NonNull String downloadUrl) throws ExecutionException, InterruptedException {
+        return runDownloadWorker(downloadUrl, 5);
+    }
+
+    /** Runs the APK download worker as a prefetch so that the APK is not installed, and waits for it to finish.
+     * The worker is retried with the minimum exponential backoff of WorkManager.
+     * @param downloadUrl The URL of the APK on the server.
+     * @param maxRetryCount The number of retries before the worker fails. **/
+    @NonNull
+    private WorkInfo runDownloadWorker(@NonNull String downloadUrl, int maxRetryCount) throws ExecutionException, InterruptedException {
+        File downloadDir = new File(context.getCacheDir(), "offline-test");
+        Data inputData = new Data.Builder()
+                .putString(APKDownloadWorker.CONTENT_PROVIDER, context.getPackageName() + ".ContentProvider")
+                .putString(APKDownloadWorker.DOWNLOAD_URL, downloadUrl)
+                .putInt(APKDownloadWorker.MAX_RETRY, maxRetryCount)
+                .putString(APKDownloadWorker.DOWNLOAD_DIR, downloadDir.getAbsolutePath())
+                .putStringArray(APKDownloadWorker.HEADER_KEYS, new String[0])
+                .putStringArray(APKDownloadWorker.HEADER_VALUES, new String[0])
+                .putString(APKDownloadWorker.NOTIF_TITLE, TAG)
+                .putString(APKDownloadWorker.NOTIF_MSG, TAG)
+                .putString(APKDownloadWorker.NOTIF_CHANNEL, TAG)
+                .putBoolean(APKDownloadWorker.PREFETCH, true).build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(APKDownloadWorker.class).setInputData(inputData)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, OneTimeWorkRequest.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS).build();
+        WorkManager workManager = WorkManager.getInstance(context);
+        workManager.enqueue(request).getResult().get();
+        long deadline = SystemClock.elapsedRealtime() + DOWNLOAD_TIMEOUT_MILLIS;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            WorkInfo workInfo = workManager.getWorkInfoById(request.getId()).get();
+            if (workInfo != null && workInfo.getState().isFinished()) return workInfo;
+            Thread.sleep(500);
+        }
+        workManager.cancelWorkById(request.getId());
+        throw new AssertionError(String.format("APKDownloadWorker for %s did not finish in time", downloadUrl));
+    }
+
+    /** Receives the result or the error of a headless update check,
+     * which are passed from the main thread to the thread of the test. **/
+    private static class HeadlessProbe extends AutoAppUpdater.ResultListener {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile UpdateCheckResult result;
+        private volatile Exception error;
+
+        @Override
+        public void onResult(@NonNull UpdateCheckResult result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            this.error = e;
+            latch.countDown();
+        }
+
+        /** Waits for the check to complete and returns its result. **/
+        @NonNull
+        UpdateCheckResult await() throws InterruptedException {
+            assertTrue("Headless check did not complete in time", latch.await(CHECK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            if (result == null) throw new AssertionError("Headless check failed", error);
+            return result;
+        }
+    }
+
+    /** Receives the result, the error and the metrics of an update check,
+     * which are passed from the main thread to the thread of the test. **/
+    private static class CheckProbe extends AutoAppUpdater.MetricsListener {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final List<UpdateCheckMetrics> metricsList = new ArrayList<>();
+        private volatile UpdateCheckResult result;
+        private volatile Exception error;
+
+        /** Sets the current version of the endpoint and attaches the probe to it.
+         * @param endpoint The endpoint that is checked. **/
+        @NonNull
+        <T extends Endpoint> T attach(@NonNull T endpoint) {
+            endpoint.setCurrentVersion("1.0.0", true);
+            endpoint.setMetricsListener(this);
+            return endpoint;
+        }
+
+        void onResult(@NonNull UpdateCheckResult result) {
+            this.result = result;
+        }
+
+        void onFailure(@NonNull Exception error) {
+            this.error = error;
+            latch.countDown();
+        }
+
+        /** The metrics of a successful check are reported after onResult, so the check is complete once they are received. **/
+        @Override
+        public void onMetrics(@NonNull UpdateCheckMetrics metrics) {
+            synchronized (metricsList) {
+                metricsList.add(metrics);
+            }
+            if (metrics.isSuccessful()) latch.countDown();
+        }
+
+        /** Gets the metrics of the last endpoint that is tried. **/
+        @NonNull
+        UpdateCheckMetrics getLastMetrics() {
+            synchronized (metricsList) {
+                return metricsList.get(metricsList.size() - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.aausample.testing;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** A local HTTP server that stands in for the APIs and download hosts during the offline tests.
+ * Each path is given a list of replies which are served in order, and the last reply is repeated once the list runs out.
+ * Replies can be delayed, throttled, truncated or turned into errors and redirects,
+ * so that the behaviour of the updater on a slow or unreliable network could be reproduced without any network access.
+ * Every connection is closed after its reply, and the server only listens on the loopback address. **/
+public class StandInServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int THROTTLE_INTERVAL_MILLIS = 100;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, List<Reply>> replies = new HashMap<>();
+    private final Map<String, List<RecordedRequest>> requests = new HashMap<>();
+
+    /** Starts the server on a free port of the loopback address. **/
+    public StandInServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /** Gets the base URL of the server, without / at the end. **/
+    @NonNull
+    public String getUrl() {
+        return String.format(Locale.ENGLISH, "http://127.0.0.1:%d", serverSocket.getLocalPort());
+    }
+
+    /** Sets the replies that are served for the given path, replacing any existing replies.
+     * @param path The path of the request, without the query.
+     * @param pathReplies The replies that are served in order, where the last reply is repeated. **/
+    public synchronized void setReplies(@NonNull String path, @NonNull Reply... pathReplies) {
+        List<Reply> replyList = new ArrayList<>();
+        Collections.addAll(replyList, pathReplies);
+        replies.put(path, replyList);
+        requests.remove(path);
+    }
+
+    /** Gets the requests that are received for the given path, in the order that they are received.
+     * @param path The path of the request, without the query. **/
+    @NonNull
+    public synchronized List<RecordedRequest> getRequests(@NonNull String path) {
+        List<RecordedRequest> pathRequests = requests.get(path);
+        return pathRequests == null ? new ArrayList<RecordedRequest>() : new ArrayList<>(pathRequests);
+    }
+
+    /** Stops the server and closes all the connections that are still open. **/
+    public void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            Log.w("StandInServer", String.format("Unable to close server with error %s", e.getMessage()));
+        }
+        executor.shutdownNow();
+    }
+
+    /** Accepts the connections until the server is shut down. **/
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // Thrown once the server socket is closed
+                if (!serverSocket.isClosed()) Log.w("StandInServer", String.format("Unable to accept connection with error %s", e.getMessage()));
+            }
+        }
+    }
+
+    /** Reads the request from the connection and writes the reply for its path.
+     * @param socket The socket of the connection. **/
+    private void handleConnection(@NonNull Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            String requestLine = reader.readLine();
+            if (requestLine == null) return;
+            String[] requestParts = requestLine.split(" ");
+            if (requestParts.length < 2) return;
+            Map<String, String> headers = new LinkedHashMap<>();
+            String headerLine;
+            while ((headerLine = reader.readLine()) != null && !headerLine.isEmpty()) {
+                int separator = headerLine.indexOf(':');
+                if (separator > 0) headers.put(headerLine.substring(0, separator).trim().toLowerCase(Locale.ENGLISH),
+                        headerLine.substring(separator + 1).trim());
+            }
+            String path = requestParts[1].contains("?") ? requestParts[1].substring(0, requestParts[1].indexOf('?')) : requestParts[1];
+            writeReply(socket.getOutputStream(), requestParts[0], nextReply(new RecordedRequest(requestParts[0], path, headers)), headers);
+        } catch (IOException e) {
+            // The client may close the connection before the reply is complete, e.g. when it times out
+            Log.d("StandInServer", String.format("Connection closed with error %s", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.w("StandInServer", String.format("Unable to close connection with error %s", e.getMessage()));
+            }
+        }
+    }
+
+    /** Records the request and gets the reply that should be served for it.
+     * @param request The request that is received. **/
+    @NonNull
+    private synchronized Reply nextReply(@NonNull RecordedRequest request) {
+        List<RecordedRequest> pathRequests = requests.get(request.getPath());
+        if (pathRequests == null) {
+            pathRequests = new ArrayList<>();
+            requests.put(request.getPath(), pathRequests);
+        }
+        pathRequests.add(request);
+        List<Reply> pathReplies = replies.get(request.getPath());
+        if (pathReplies == null || pathReplies.isEmpty()) return Reply.status(404);
+        return pathReplies.get(Math.min(pathRequests.size(), pathReplies.size()) - 1);
+    }
+
+    /** Writes the reply to the connection, applying its latency, bandwidth cap and truncation.
+     * If the reply supports ranges, a range request with a matching If-Range would be answered with 206.
+     * @param output The output stream of the connection.
+     * @param method The method of the request.
+     * @param reply The reply that is served.
+     * @param requestHeaders The headers of the request, with lowercase names. **/
+    private static void writeReply(@NonNull OutputStream output, @NonNull String method, @NonNull Reply reply,
+                                   @NonNull Map<String, String> requestHeaders) throws IOException, InterruptedException {
+        if (reply.latencyMillis > 0) Thread.sleep(reply.latencyMillis);
+        int statusCode = reply.statusCode;
+        byte[] body = reply.body;
+        Map<String, String> headers = new LinkedHashMap<>(reply.headers);
+        long rangeStart = getRangeStart(reply, requestHeaders);
+        if (rangeStart >= 0) {
+            statusCode = 206;
+            headers.put("Content-Range", String.format(Locale.ENGLISH, "bytes %d-%d/%d", rangeStart, body.length - 1, body.length));
+            byte[] rangeBody = new byte[(int) (body.length - rangeStart)];
+            System.arraycopy(body, (int) rangeStart, rangeBody, 0, rangeBody.length);
+            body = rangeBody;
+        }
+        StringBuilder head = new StringBuilder();
+        head.append(String.format(Locale.ENGLISH, "HTTP/1.1 %d %s\r\n", statusCode, getReasonPhrase(statusCode)));
+        for (Map.Entry<String, String> header: headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        // The full length is always sent, so that a truncated reply is seen as an incomplete response
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+        output.write(head.toString().getBytes(UTF_8));
+        output.flush();
+        if ("HEAD".equals(method)) return;
+        int end = reply.truncateAfter >= 0 ? (int) Math.min(reply.truncateAfter, body.length) : body.length;
+        int chunkSize = reply.bytesPerSecond > 0 ? (int) Math.max(1, reply.bytesPerSecond * THROTTLE_INTERVAL_MILLIS / 1000) : 8192;
+        long nextWriteTime = SystemClock.elapsedRealtime();
+        for (int offset = 0; offset < end; offset += chunkSize) {
+            if (reply.bytesPerSecond > 0) {
+                long waitMillis = nextWriteTime - SystemClock.elapsedRealtime();
+                if (waitMillis > 0) Thread.sleep(waitMillis);
+                nextWriteTime += THROTTLE_INTERVAL_MILLIS;
+            }
+            output.write(body, offset, Math.min(chunkSize, end - offset));
+            output.flush();
+        }
+    }
+
+    /** Gets the first byte of the range that is requested, or -1 if the whole body should be served.
+     * @param reply The reply that is served.
+     * @param requestHeaders The headers of the request, with lowercase names. **/
+    private static long getRangeStart(@NonNull Reply reply, @NonNull Map<String, String> requestHeaders) {
+        String range = requestHeaders.get("range");
+        if (!reply.supportsRanges || reply.statusCode != 200 || range == null || !range.startsWith("bytes=") || !range.endsWith("-")) return -1;
+        String ifRange = requestHeaders.get("if-range");
+        if (ifRange != null && !ifRange.equals(reply.headers.get("ETag"))) return -1;
+        try {
+            long rangeStart = Long.parseLong(range.substring(6, range.length() - 1));
+            return rangeStart < reply.body.length ? rangeStart : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Gets the reason phrase of the status code that is sent in the status line.
+     * @param statusCode The status code of the reply. **/
+    @NonNull
+    private static String getReasonPhrase(int statusCode) {
+        switch (statusCode) {
+            case 200: return "OK";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 404: return "Not Found";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Status";
+        }
+    }
+
+    /** A reply that is served by the server, which is created through the static functions and configured through the setters. **/
+    public static class Reply {
+        private final int statusCode;
+        private final byte[] body;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private long latencyMillis;
+        private long bytesPerSecond;
+        private long truncateAfter = -1;
+        private boolean supportsRanges;
+
+        private Reply(int statusCode, @NonNull byte[] body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        /** Creates a 200 reply with a JSON body.
+         * @param body The body of the reply. **/
+        @NonNull
+        public static Reply json(@NonNull String body) {
+            return new Reply(200, body.getBytes(UTF_8)).setHeader("Content-Type", "application/json; charset=utf-8");
+        }
+
+        /** Creates a 200 reply with a binary body.
+         * @param body The body of the reply. **/
+        @NonNull
+        public static Reply bytes(@NonNull byte[] body) {
+            return new Reply(200, body).setHeader("Content-Type", "application/vnd.android.package-archive");
+        }
+
+        /** Creates a reply with the status code and an empty body, e.g. for 5xx and 429 errors.
+         * @param statusCode The status code of the reply. **/
+        @NonNull
+        public static Reply status(int statusCode) {
+            return new Reply(statusCode, new byte[0]);
+        }
+
+        /** Creates a redirect to another URL.
+         * @param statusCode The status code of the redirect, e.g. 301 or 302.
+         * @param location The URL that the client is redirected to. **/
+        @NonNull
+        public static Reply redirect(int statusCode, @NonNull String location) {
+            return status(statusCode).setHeader("Location", location);
+        }
+
+        /** Sets a header of the reply. **/
+        @NonNull
+        public Reply setHeader(@NonNull String name, @NonNull String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /** Sets the time that the server waits before sending the status line. **/
+        @NonNull
+        public Reply setLatency(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /** Caps the rate that the body is sent at, or 0 for no cap. **/
+        @NonNull
+        public Reply setBytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /** Closes the connection after the given number of bytes of the body, or -1 to send the whole body. **/
+        @NonNull
+        public Reply setTruncateAfter(long truncateAfter) {
+            this.truncateAfter = truncateAfter;
+            return this;
+        }
+
+        /** Allows the body to be continued with a range request.
+         * A strong ETag is set so that the range request could be validated with If-Range.
+         * @param eTag The ETag of the body, including the quotes. **/
+        @NonNull
+        public Reply setRanges(@NonNull String eTag) {
+            this.supportsRanges = true;
+            return setHeader("ETag", eTag).setHeader("Accept-Ranges", "bytes");
+        }
+    }
+
+    /** A request that is received by the server. **/
+    public static class RecordedRequest {
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+
+        RecordedRequest(@NonNull String method, @NonNull String path, @NonNull Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        /** Gets the method of the request. **/
+        @NonNull
+        public String getMethod() {
+            return method;
+        }
+
+        /** Gets the path of the request, without the query. **/
+        @NonNull
+        public String getPath() {
+            return path;
+        }
+
+        /** Gets a header of the request, or null if it is not sent.
+         * @param name The name of the header, which is not case sensitive. **/
+        public String getHeader(@NonNull String name) {
+            return headers.get(name.toLowerCase(Locale.ENGLISH));
+        }
+    }
+}
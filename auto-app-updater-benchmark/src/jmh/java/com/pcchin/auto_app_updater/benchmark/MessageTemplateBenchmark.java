@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.benchmark;
+
+import com.pcchin.auto_app_updater.core.MessageTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/** Benchmarks rendering the message of the update dialog with the release notes,
+ * comparing the compiled MessageTemplate with the chained replaceAll calls that were used before. **/
+@State(Scope.Benchmark)
+public class MessageTemplateBenchmark {
+    private static final String MESSAGE = "A new update is available!\nNew version: ${newVersion}\nCurrent version: " +
+            "${currentVersion}\n\n${releaseInfo}\n\nIf the installation fails, you can download and install the APK " +
+            "manually at ${downloadUrl}, or learn more at ${learnMoreUrl}";
+
+    /** The length of the release notes in characters. **/
+    @Param({"1024", "65536", "1048576"})
+    public int releaseInfoLength;
+
+    private String releaseInfo;
+    private String downloadUrl = "https://github.com/user/repo/releases/download/v2.10.3/app-release.apk";
+    private String learnMoreUrl = "https://github.com/user/repo/releases/tag/v2.10.3";
+    private String currentVersion = "2.10.2";
+    private String newVersion = "2.10.3";
+    private MessageTemplate template;
+
+    @Setup
+    public void setUp() {
+        // The notes do not contain $ or \, as the replaceAll calls would otherwise fail or change them
+        Random random = new Random(releaseInfoLength);
+        StringBuilder builder = new StringBuilder(releaseInfoLength);
+        while (builder.length() < releaseInfoLength) {
+            builder.append("- Fixed issue #").append(random.nextInt(10000)).append(" in the settings screen\n");
+        }
+        builder.setLength(releaseInfoLength);
+        releaseInfo = builder.toString();
+        template = MessageTemplate.compile(MESSAGE);
+    }
+
+    /** The message rendered by the previous implementation of UpdaterDialog.createDialog. **/
+    @Benchmark
+    public String replaceAll() {
+        return MESSAGE.replaceAll("\\$\\{releaseInfo\\}", releaseInfo)
+                .replaceAll("\\$\\{downloadUrl\\}", downloadUrl)
+                .replaceAll("\\$\\{learnMoreUrl\\}", learnMoreUrl)
+                .replaceAll("\\$\\{currentVersion\\}", currentVersion)
+                .replaceAll("\\$\\{newVersion\\}", newVersion);
+    }
+
+    /** The message rendered from the template that is compiled once by setUpdateMessage. **/
+    @Benchmark
+    public String render() {
+        return template.render(releaseInfo, downloadUrl, learnMoreUrl, currentVersion, newVersion);
+    }
+
+    /** The message rendered from a template that is compiled every time, for a dialog that is only shown once. **/
+    @Benchmark
+    public String compileAndRender() {
+        return MessageTemplate.compile(MESSAGE).render(releaseInfo, downloadUrl, learnMoreUrl, currentVersion, newVersion);
+    }
+}
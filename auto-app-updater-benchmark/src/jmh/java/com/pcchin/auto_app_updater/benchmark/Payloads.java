@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.benchmark;
+
+import java.util.Random;
+
+/** Generates the synthetic responses that are used in the benchmarks.
+ * The releases have release notes of 1 to 4 KB and a few assets each, similar to the releases of a typical app.
+ * The responses are generated from a fixed seed, so that every run parses the same payloads. **/
+class Payloads {
+    private static final String[] NOTE_LINES = {
+            "- Fixed a crash when the app is resumed from the background",
+            "- Improved the performance of the main list on older devices",
+            "- Updated the translations for German, French and Japanese",
+            "- The settings page now follows the system theme",
+            "- Reduced the size of the APK by removing unused resources",
+            "- Fixed the notification not being dismissed after the download",
+            "### Known issues",
+            "Some devices running Android 5 may show the old icon until they are restarted."
+    };
+
+    private Payloads() {
+        throw new IllegalStateException("Utility class!");
+    }
+
+    /** Generates the release notes of a single release, in markdown.
+     * @param random The random generator of the payload. **/
+    private static String releaseNotes(Random random) {
+        StringBuilder notes = new StringBuilder("## What's new\\n");
+        int targetLength = 1024 + random.nextInt(3072);
+        while (notes.length() < targetLength) {
+            notes.append(NOTE_LINES[random.nextInt(NOTE_LINES.length)]).append("\\n");
+        }
+        return notes.toString();
+    }
+
+    /** Gets the tag of the release at the given index, where index 0 is the latest release. **/
+    private static String tag(int count, int index) {
+        int version = count - index;
+        return String.format("%s.%s.%s", version / 100, (version / 10) % 10, version % 10);
+    }
+
+    /** Generates the assets of a GitHub or Gitea release, with a gzip compressed APK in every other release.
+     * @param tag The tag of the release.
+     * @param withContentType Whether the content types of the assets are included, which are only returned by GitHub.
+     * @param withCompressedApk Whether a gzip compressed APK is included. **/
+    private static String assets(String tag, boolean withContentType, boolean withCompressedApk) {
+        StringBuilder assets = new StringBuilder("[");
+        String[][] files = {{"checksums.txt", "text/plain"}, {"app-release.apk", "application/vnd.android.package-archive"},
+                {withCompressedApk ? "app-release.apk.gz" : "mapping.txt", withCompressedApk ? "application/gzip" : "text/plain"}};
+        for (int i = 0; i < files.length; i++) {
+            if (i > 0) assets.append(',');
+            assets.append("{\"id\":").append(i).append(",\"name\":\"").append(files[i][0]).append('"');
+            if (withContentType) assets.append(",\"content_type\":\"").append(files[i][1]).append('"');
+            assets.append(",\"size\":").append(4200000 + i * 1000)
+                    .append(",\"download_count\":1234,\"created_at\":\"2020-07-15T10:00:00Z\"")
+                    .append(",\"browser_download_url\":\"https://github.com/user/repo/releases/download/")
+                    .append(tag).append('/').append(files[i][0]).append("\"}");
+        }
+        return assets.append(']').toString();
+    }
+
+    /** Generates a GitHub or Gitea release.
+     * @param isPrerelease Whether the release is marked as a pre-release. **/
+    private static String release(Random random, int count, int index, boolean isPrerelease, boolean isGitHub) {
+        String tag = tag(count, index);
+        return "{\"id\":" + index + ",\"tag_name\":\"" + tag + "\",\"name\":\"Version " + tag + "\",\"draft\":false," +
+                "\"prerelease\":" + isPrerelease + ",\"created_at\":\"2020-07-15T10:00:00Z\"," +
+                "\"published_at\":\"2020-07-15T10:00:00Z\",\"html_url\":\"https://github.com/user/repo/releases/tag/" + tag +
+                "\",\"author\":{\"login\":\"user\",\"id\":1,\"type\":\"User\"},\"body\":\"" + releaseNotes(random) +
+                "\",\"assets\":" + assets(tag, isGitHub, index % 2 == 0) + "}";
+    }
+
+    /** Generates a single GitHub release, as returned by /repos/.../releases/latest. **/
+    static String gitHubRelease() {
+        return release(new Random(42), 1, 0, false, true);
+    }
+
+    /** Generates a list of GitHub releases, where only the oldest release is a pre-release,
+     * so that the whole list is searched when pre-releases are included.
+     * @param count The number of releases in the list. **/
+    static String gitHubReleaseList(int count) {
+        Random random = new Random(42);
+        StringBuilder releases = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) releases.append(',');
+            releases.append(release(random, count, i, i == count - 1, true));
+        }
+        return releases.append(']').toString();
+    }
+
+    /** Generates a list of Gitea releases, where only the oldest release is stable,
+     * so that the whole list is searched for a stable release.
+     * @param count The number of releases in the list. **/
+    static String giteaReleaseList(int count) {
+        Random random = new Random(42);
+        StringBuilder releases = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) releases.append(',');
+            releases.append(release(random, count, i, i != count - 1, false));
+        }
+        return releases.append(']').toString();
+    }
+
+    /** Generates a list of GitLab releases, where the APKs are added as links.
+     * @param count The number of releases in the list. **/
+    static String gitLabReleaseList(int count) {
+        Random random = new Random(42);
+        StringBuilder releases = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            String tag = tag(count, i);
+            if (i > 0) releases.append(',');
+            releases.append("{\"name\":\"Version ").append(tag).append("\",\"tag_name\":\"").append(tag)
+                    .append("\",\"description\":\"").append(releaseNotes(random))
+                    .append("\",\"created_at\":\"2020-07-15T10:00:00Z\",\"released_at\":\"2020-07-15T10:00:00Z\"")
+                    .append(",\"author\":{\"id\":1,\"username\":\"user\"},\"assets\":{\"count\":2,\"sources\":[],\"links\":[")
+                    .append("{\"id\":1,\"name\":\"checksums.txt\",\"url\":\"https://gitlab.com/user/repo/-/releases/")
+                    .append(tag).append("/downloads/checksums.txt\",\"direct_asset_url\":\"https://gitlab.com/user/repo/-/releases/")
+                    .append(tag).append("/downloads/checksums.txt\",\"external\":true},")
+                    .append("{\"id\":2,\"name\":\"app-release.apk\",\"url\":\"https://gitlab.com/user/repo/-/releases/")
+                    .append(tag).append("/downloads/app-release.apk\",\"direct_asset_url\":\"https://gitlab.com/user/repo/-/releases/")
+                    .append(tag).append("/downloads/app-release.apk\",\"external\":true}]},")
+                    .append("\"_links\":{\"self\":\"https://gitlab.com/user/repo/-/releases/").append(tag).append("\"}}");
+        }
+        return releases.append(']').toString();
+    }
+
+    /** Generates the response of a custom JSON endpoint, with the attributes used by JSONObjectEndpoint. **/
+    static String customObject() {
+        return customObject(new Random(42), 1, 0);
+    }
+
+    /** Generates a single object of a custom JSON endpoint. **/
+    private static String customObject(Random random, int count, int index) {
+        String tag = tag(count, index);
+        return "{\"version\":\"" + tag + "\",\"versionCode\":" + (count - index) +
+                ",\"url\":\"https://example.com/app/" + tag + "/app-release.apk\",\"releaseInfo\":\"" + releaseNotes(random) +
+                "\",\"learnMore\":\"https://example.com/app/" + tag + "\"}";
+    }
+
+    /** Generates the response of a custom JSON endpoint as an array, as used by JSONArrayEndpoint.
+     * @param count The number of objects in the array. **/
+    static String customArray(int count) {
+        Random random = new Random(42);
+        StringBuilder objects = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) objects.append(',');
+            objects.append(customObject(random, count, i));
+        }
+        return objects.append(']').toString();
+    }
+}
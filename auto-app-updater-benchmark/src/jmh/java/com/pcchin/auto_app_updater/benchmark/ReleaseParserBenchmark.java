@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.benchmark;
+
+import com.pcchin.auto_app_updater.core.Release;
+import com.pcchin.auto_app_updater.core.ReleaseParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks the parsing of the responses of the endpoints, from the response string to the release.
+ * The JSON parsing is included, as it is done by onResponse of every endpoint. **/
+@State(Scope.Benchmark)
+public class ReleaseParserBenchmark {
+    @Param({"1", "10", "100", "1000", "5000"})
+    public int releaseCount;
+
+    private String gitHubRelease;
+    private String gitHubReleaseList;
+    private String gitLabReleaseList;
+    private String giteaReleaseList;
+    private String customObject;
+    private String customArray;
+
+    @Setup
+    public void setUp() {
+        gitHubRelease = Payloads.gitHubRelease();
+        gitHubReleaseList = Payloads.gitHubReleaseList(releaseCount);
+        gitLabReleaseList = Payloads.gitLabReleaseList(releaseCount);
+        giteaReleaseList = Payloads.giteaReleaseList(releaseCount);
+        customObject = Payloads.customObject();
+        customArray = Payloads.customArray(releaseCount);
+    }
+
+    /** GitHubEndpoint without pre-releases, which only receives the latest release. **/
+    @Benchmark
+    public Release gitHubRelease() throws JSONException {
+        return ReleaseParser.parseGitHubRelease(new JSONObject(gitHubRelease));
+    }
+
+    /** GitHubEndpoint with pre-releases, where the only pre-release is the last release of the list. **/
+    @Benchmark
+    public Release gitHubReleaseList() throws JSONException {
+        return ReleaseParser.parseGitHubRelease(ReleaseParser.selectGitHubPrerelease(new JSONArray(gitHubReleaseList)));
+    }
+
+    /** GitLabEndpoint, which uses the first release of the list. **/
+    @Benchmark
+    public Release gitLabReleaseList() throws JSONException {
+        return ReleaseParser.parseGitLabReleaseList(new JSONArray(gitLabReleaseList));
+    }
+
+    /** GiteaEndpoint, where the only stable release is the last release of the list. **/
+    @Benchmark
+    public Release giteaReleaseList() throws JSONException {
+        return ReleaseParser.parseGiteaRelease(ReleaseParser.selectGiteaRelease(new JSONArray(giteaReleaseList), false),
+                "https://gitea.com/user/repo/releases");
+    }
+
+    /** The attributes that are read by JSONObjectEndpoint.parseResponse, which does not depend on the size of the list. **/
+    @Benchmark
+    public String customObject() throws JSONException {
+        return readCustomAttributes(new JSONObject(customObject));
+    }
+
+    /** The attributes that are read by JSONArrayEndpoint.parseResponse, which uses the first object of the array. **/
+    @Benchmark
+    public String customArray() throws JSONException {
+        return readCustomAttributes(new JSONArray(customArray).getJSONObject(0));
+    }
+
+    /** Reads the same attributes as the custom JSON endpoints, which are part of the Android module.
+     * @param response The object with the attributes of the release. **/
+    private static String readCustomAttributes(JSONObject response) throws JSONException {
+        String downloadUrl = response.getString("url");
+        String learnMoreUrl = response.getString("learnMore");
+        String releaseInfo = response.getString("releaseInfo");
+        String version = response.getString("version");
+        return version + downloadUrl.length() + learnMoreUrl.length() + releaseInfo.length();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.benchmark;
+
+import com.pcchin.auto_app_updater.core.VersionComparator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks the version comparisons that are done by Endpoint.onSuccess for each update type. **/
+@State(Scope.Benchmark)
+public class VersionComparatorBenchmark {
+    // The fields are not final so that the comparisons are not constant folded
+    private String latestSemantic = "2.10.3-beta.2+build.1542";
+    private String currentSemantic = "2.10.3-beta.1+build.1539";
+    private String latestVersion = "v2.10.3";
+    private String currentVersion = "v2.10.2";
+    private int latestInt = 1542;
+    private int currentInt = 1539;
+    private float latestFloat = 2.103f;
+    private float currentFloat = 2.102f;
+
+    /** UpdateType.SEMANTIC, which parses the latest version with semver4j. **/
+    @Benchmark
+    public boolean semantic() {
+        return VersionComparator.isNewer(latestSemantic, currentSemantic, true);
+    }
+
+    /** UpdateType.DIFFERENCE. **/
+    @Benchmark
+    public boolean difference() {
+        return VersionComparator.isNewer(latestVersion, currentVersion, false);
+    }
+
+    /** UpdateType.INCREMENTAL. **/
+    @Benchmark
+    public boolean incremental() {
+        return VersionComparator.isNewer(latestInt, currentInt);
+    }
+
+    /** UpdateType.DECIMAL_INCREMENTAL. **/
+    @Benchmark
+    public boolean decimalIncremental() {
+        return VersionComparator.isNewer(latestFloat, currentFloat);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.core;
+
+/** Selects the APK from the assets of a release.
+ * A gzip compressed APK (.apk.gz) is preferred as it is smaller, and would be decompressed while it is downloaded.
+ * Otherwise, the first APK in the assets is selected. **/
+public class AssetSelector {
+    private static final String APK_CONTENT_TYPE = "application/vnd.android.package-archive";
+
+    private String downloadUrl;
+    private long downloadSize = -1;
+    private boolean isCompressed;
+
+    /** Offers an asset of the release to the selector.
+     * @param name The file name of the asset, can be null.
+     * @param contentType The content type of the asset, can be null.
+     * @param downloadUrl The download link for the asset.
+     * @param downloadSize The size of the asset in bytes, or -1 if it is unknown.
+     * @return true if no further assets need to be offered, as a compressed APK is found. **/
+    public boolean offer(String name, String contentType, String downloadUrl, long downloadSize) {
+        if (isCompressed) return true;
+        if (name != null && name.endsWith(".apk.gz")) {
+            this.downloadUrl = downloadUrl;
+            this.downloadSize = downloadSize;
+            this.isCompressed = true;
+        } else if (this.downloadUrl == null && isApk(name, contentType)) {
+            this.downloadUrl = downloadUrl;
+            this.downloadSize = downloadSize;
+        }
+        return isCompressed;
+    }
+
+    /** Checks whether the asset is an APK, either from its content type or its name.
+     * @param name The file name of the asset, can be null.
+     * @param contentType The content type of the asset, can be null. **/
+    public static boolean isApk(String name, String contentType) {
+        return APK_CONTENT_TYPE.equals(contentType) || (name != null && name.endsWith(".apk"));
+    }
+
+    /** Gets the download link of the selected asset, or null if no APK is found. **/
+    public String getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    /** Gets the size of the selected asset in bytes, or -1 if it is unknown. **/
+    public long getDownloadSize() {
+        return downloadSize;
+    }
+}
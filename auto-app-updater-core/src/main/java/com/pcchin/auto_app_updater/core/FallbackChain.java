@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Tries a list of sources in order, falling back to the next source whenever the current one fails,
+ * until one of them succeeds or all of them have failed.
+ * Each call to start() creates a separate run that keeps its own position in the chain,
+ * so the same chain could be used by several runs at the same time.
+ * A single run is not thread safe, and its functions should only be called by one thread at a time.
+ * @param <T> The type of the sources, e.g. the endpoints of the updater. **/
+public abstract class FallbackChain<T> {
+    private final List<T> sources;
+
+    /** Creates the chain with the sources in the order that they are tried.
+     * @param sources The sources, which should not be empty. **/
+    public FallbackChain(@NonNull List<T> sources) {
+        if (sources.isEmpty()) throw new IllegalArgumentException("FallbackChain needs at least one source!");
+        this.sources = new ArrayList<>(sources);
+    }
+
+    /** Starts a new run of the chain from the first source. **/
+    @NonNull
+    public Run start() {
+        Run run = new Run();
+        onAttempt(sources.get(0), run);
+        return run;
+    }
+
+    /** Called when a source should be tried.
+     * @param source The source that should be tried.
+     * @param run The run that the source is tried in, which should be told if the source fails. **/
+    protected abstract void onAttempt(@NonNull T source, @NonNull Run run);
+
+    /** Called when all the sources of a run have failed.
+     * @param error The error from the last source. **/
+    protected abstract void onExhausted(@NonNull Exception error);
+
+    /** A single run through the sources of the chain. **/
+    public final class Run {
+        private int current;
+        private boolean exhausted;
+
+        /** Runs are only created by start(). **/
+        private Run() {
+            // Starts from the first source
+        }
+
+        /** Falls back to the next source as the current source failed,
+         * or calls onExhausted if it is the last source.
+         * @param error The error from the current source. **/
+        public void onFailure(@NonNull Exception error) {
+            if (exhausted) throw new IllegalStateException("FallbackChain run is already exhausted!");
+            if (current + 1 < sources.size()) {
+                current++;
+                onAttempt(sources.get(current), this);
+            } else {
+                exhausted = true;
+                onExhausted(error);
+            }
+        }
+
+        /** Gets the source that is being tried, or null if all the sources have failed. **/
+        public T getCurrent() {
+            return exhausted ? null : sources.get(current);
+        }
+
+        /** Returns whether the current source is tried because the previous source failed. **/
+        public boolean isFallback() {
+            return current > 0;
+        }
+    }
+}
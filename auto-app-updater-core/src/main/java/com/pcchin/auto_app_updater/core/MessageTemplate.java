@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A message with placeholders such as ${newVersion}, which is compiled once into literal and placeholder segments
+ * so that it could be rendered in a single pass without any regex.
+ * The values are inserted as they are, so values containing $ or \ are not changed,
+ * and a placeholder that appears in a value is not replaced. Null values are rendered as empty strings.
+ * Text that looks like a placeholder but is not one of the placeholders below is kept as it is. **/
+public final class MessageTemplate {
+    /** The index of the value for ${releaseInfo}. **/
+    public static final int RELEASE_INFO = 0;
+    /** The index of the value for ${downloadUrl}. **/
+    public static final int DOWNLOAD_URL = 1;
+    /** The index of the value for ${learnMoreUrl}. **/
+    public static final int LEARN_MORE_URL = 2;
+    /** The index of the value for ${currentVersion}. **/
+    public static final int CURRENT_VERSION = 3;
+    /** The index of the value for ${newVersion}. **/
+    public static final int NEW_VERSION = 4;
+
+    private static final String[] PLACEHOLDERS = {"${releaseInfo}", "${downloadUrl}", "${learnMoreUrl}",
+            "${currentVersion}", "${newVersion}"};
+
+    private final String template;
+    // The literal at i is followed by the placeholder at i, and the last literal ends the message
+    private final String[] literals;
+    private final int[] placeholders;
+    private final int literalLength;
+
+    /** The constructor for the template, only used by compile(). **/
+    private MessageTemplate(@NonNull String template, @NonNull String[] literals, @NonNull int[] placeholders) {
+        this.template = template;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        int length = 0;
+        for (String literal: literals) length += literal.length();
+        this.literalLength = length;
+    }
+
+    /** Splits the template into its literal and placeholder segments.
+     * @param template The message with placeholders. **/
+    @NonNull
+    public static MessageTemplate compile(@NonNull String template) {
+        List<String> literalList = new ArrayList<>();
+        List<Integer> placeholderList = new ArrayList<>();
+        int literalStart = 0;
+        int index = template.indexOf("${");
+        while (index != -1) {
+            int placeholder = matchPlaceholder(template, index);
+            if (placeholder < 0) {
+                index = template.indexOf("${", index + 2);
+                continue;
+            }
+            literalList.add(template.substring(literalStart, index));
+            placeholderList.add(placeholder);
+            literalStart = index + PLACEHOLDERS[placeholder].length();
+            index = template.indexOf("${", literalStart);
+        }
+        literalList.add(template.substring(literalStart));
+        int[] placeholders = new int[placeholderList.size()];
+        for (int i = 0; i < placeholders.length; i++) placeholders[i] = placeholderList.get(i);
+        return new MessageTemplate(template, literalList.toArray(new String[0]), placeholders);
+    }
+
+    /** Gets the placeholder that starts at the index of the template, or -1 if there is none.
+     * @param template The message with placeholders.
+     * @param index The index of the ${ that starts the placeholder. **/
+    private static int matchPlaceholder(@NonNull String template, int index) {
+        for (int i = 0; i < PLACEHOLDERS.length; i++) {
+            if (template.startsWith(PLACEHOLDERS[i], index)) return i;
+        }
+        return -1;
+    }
+
+    /** Renders the message with the given values.
+     * @param values The values of the placeholders, in the order of their indexes (RELEASE_INFO to NEW_VERSION).
+     *               Missing and null values are rendered as empty strings. **/
+    @NonNull
+    public String render(@NonNull String... values) {
+        int length = literalLength;
+        for (int placeholder: placeholders) length += getValue(values, placeholder).length();
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(literals[i]).append(getValue(values, placeholders[i]));
+        }
+        return builder.append(literals[placeholders.length]).toString();
+    }
+
+    /** Gets the value of the placeholder, or an empty string if it is missing or null. **/
+    @NonNull
+    private static String getValue(@NonNull String[] values, int placeholder) {
+        String value = placeholder < values.length ? values[placeholder] : null;
+        return value == null ? "" : value;
+    }
+
+    /** Gets the message that the template is compiled from. **/
+    @NonNull
+    public String getTemplate() {
+        return template;
+    }
+}
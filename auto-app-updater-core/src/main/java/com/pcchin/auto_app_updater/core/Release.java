@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.core;
+
+import androidx.annotation.NonNull;
+
+/** The details of a release that are parsed from the response of an endpoint.
+ * The version is kept as the string that is returned, and is converted based on the update type by the endpoint. **/
+public final class Release {
+    private final String version;
+    private final String downloadUrl;
+    private final long downloadSize;
+    private final String releaseInfo;
+    private final String learnMoreUrl;
+
+    /** Creates the release from the builder.
+     * @param builder The builder containing the values of the release. **/
+    private Release(@NonNull Builder builder) {
+        this.version = builder.version;
+        this.downloadUrl = builder.downloadUrl;
+        this.downloadSize = builder.downloadSize;
+        this.releaseInfo = builder.releaseInfo;
+        this.learnMoreUrl = builder.learnMoreUrl;
+    }
+
+    //****** Start of getters ******//
+
+    /** Gets the version of the release, e.g. the tag name. **/
+    @NonNull
+    public String getVersion() {
+        return version;
+    }
+
+    /** Gets the download link for the APK of the release. **/
+    @NonNull
+    public String getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    /** Gets the size of the APK in bytes, or -1 if it is unknown. **/
+    public long getDownloadSize() {
+        return downloadSize;
+    }
+
+    /** Gets the release info, or null if it is not provided. **/
+    public String getReleaseInfo() {
+        return releaseInfo;
+    }
+
+    /** Gets the link to learn more about the release, or null if it is not provided. **/
+    public String getLearnMoreUrl() {
+        return learnMoreUrl;
+    }
+
+    /** The builder used to collect the values of the release while it is being parsed. **/
+    public static class Builder {
+        private String version;
+        private String downloadUrl;
+        private long downloadSize = -1;
+        private String releaseInfo;
+        private String learnMoreUrl;
+
+        /** Sets the version of the release.
+         * @param version The version of the release. **/
+        public Builder setVersion(String version) {
+            this.version = version;
+            return this;
+        }
+
+        /** Sets the download link and the size of the APK.
+         * @param downloadUrl The download link for the APK.
+         * @param downloadSize The size of the APK in bytes, or -1 if it is unknown. **/
+        public Builder setDownload(String downloadUrl, long downloadSize) {
+            this.downloadUrl = downloadUrl;
+            this.downloadSize = downloadSize;
+            return this;
+        }
+
+        /** Sets the release info.
+         * @param releaseInfo The release info. **/
+        public Builder setReleaseInfo(String releaseInfo) {
+            this.releaseInfo = releaseInfo;
+            return this;
+        }
+
+        /** Sets the link to learn more about the release.
+         * @param learnMoreUrl The link to learn more about the release. **/
+        public Builder setLearnMoreUrl(String learnMoreUrl) {
+            this.learnMoreUrl = learnMoreUrl;
+            return this;
+        }
+
+        /** Creates the release from the values that are set.
+         * An IllegalStateException would be thrown if the version or the download link is not set. **/
+        @NonNull
+        public Release build() {
+            if (version == null) throw new IllegalStateException("Version not found in release!");
+            if (downloadUrl == null) throw new IllegalStateException("Asset download link not found in release!");
+            return new Release(this);
+        }
+    }
+}
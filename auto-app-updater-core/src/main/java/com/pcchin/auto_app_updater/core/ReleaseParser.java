@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.core;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Parses the releases that are returned by the APIs of the repository hosts.
+ * An IllegalStateException is thrown if no suitable release or APK is found,
+ * and a JSONException if the response does not match the format of the API. **/
+public class ReleaseParser {
+    private ReleaseParser() {
+        throw new IllegalStateException("Utility class!");
+    }
+
+    //****** Start of GitHub ******//
+
+    /** Gets the latest pre-release that is not a draft from the list of GitHub releases.
+     * @param releaseList The response from /repos/.../releases. **/
+    @NonNull
+    public static JSONObject selectGitHubPrerelease(@NonNull JSONArray releaseList) throws JSONException {
+        for (int i = 0; i < releaseList.length(); i++) {
+            JSONObject currentRelease = releaseList.getJSONObject(i);
+            if (!currentRelease.getBoolean("draft") && currentRelease.getBoolean("prerelease")) return currentRelease;
+        }
+        throw new IllegalStateException("No pre-releases found in GitHub release list!");
+    }
+
+    /** Parses a GitHub release, where the APK is selected from its assets.
+     * @param release The JSON object for a specific GitHub release. **/
+    @NonNull
+    public static Release parseGitHubRelease(@NonNull JSONObject release) throws JSONException {
+        AssetSelector selector = new AssetSelector();
+        JSONArray assetsList = release.getJSONArray("assets");
+        for (int i = 0; i < assetsList.length(); i++) {
+            JSONObject currentObject = assetsList.getJSONObject(i);
+            if (selector.offer(currentObject.optString("name", null), currentObject.optString("content_type", null),
+                    currentObject.getString("browser_download_url"), currentObject.optLong("size", -1))) break;
+        }
+        return new Release.Builder().setVersion(release.getString("tag_name"))
+                .setDownload(selector.getDownloadUrl(), selector.getDownloadSize())
+                .setReleaseInfo(release.getString("body"))
+                .setLearnMoreUrl(release.getString("html_url")).build();
+    }
+
+    //****** Start of GitLab ******//
+
+    /** Parses the latest release from the list of GitLab releases, where the APK is selected from its links.
+     * GitLab release links do not include their size, so the size of the APK is unknown.
+     * @param releaseList The response from /api/v4/projects/.../releases. **/
+    @NonNull
+    public static Release parseGitLabReleaseList(@NonNull JSONArray releaseList) throws JSONException {
+        if (releaseList.length() == 0) throw new IllegalStateException("No releases found in GitLab release list!");
+        JSONObject release = releaseList.getJSONObject(0);
+        AssetSelector selector = new AssetSelector();
+        JSONArray linksList = release.getJSONObject("assets").getJSONArray("links");
+        for (int i = 0; i < linksList.length(); i++) {
+            JSONObject currentObject = linksList.getJSONObject(i);
+            if (selector.offer(currentObject.getString("name"), null,
+                    currentObject.getString("direct_asset_url"), -1)) break;
+        }
+        return new Release.Builder().setVersion(release.getString("tag_name"))
+                .setDownload(selector.getDownloadUrl(), selector.getDownloadSize())
+                .setReleaseInfo(release.getString("description"))
+                .setLearnMoreUrl(release.getJSONObject("_links").getString("self")).build();
+    }
+
+    //****** Start of Gitea ******//
+
+    /** Gets the latest release that is not a draft from the list of Gitea releases.
+     * @param releaseList The response from /api/v1/repos/.../releases.
+     * @param isPrerelease Whether a pre-release is selected instead of a stable release. **/
+    @NonNull
+    public static JSONObject selectGiteaRelease(@NonNull JSONArray releaseList, boolean isPrerelease) throws JSONException {
+        for (int i = 0; i < releaseList.length(); i++) {
+            JSONObject currentRelease = releaseList.getJSONObject(i);
+            if (!currentRelease.getBoolean("draft") && currentRelease.getBoolean("prerelease") == isPrerelease) {
+                return currentRelease;
+            }
+        }
+        throw new IllegalStateException(String.format("No %s releases found in Gitea release list!",
+                isPrerelease ? "pre-release" : "stable"));
+    }
+
+    /** Parses a Gitea release, where the APK is selected from its assets.
+     * @param release The JSON object for a specific Gitea release.
+     * @param learnMoreUrl The link to the releases of the repository, as it is not included in the release. **/
+    @NonNull
+    public static Release parseGiteaRelease(@NonNull JSONObject release, String learnMoreUrl) throws JSONException {
+        AssetSelector selector = new AssetSelector();
+        JSONArray assetsList = release.getJSONArray("assets");
+        for (int i = 0; i < assetsList.length(); i++) {
+            JSONObject currentObject = assetsList.getJSONObject(i);
+            if (selector.offer(currentObject.getString("name"), null,
+                    currentObject.getString("browser_download_url"), currentObject.optLong("size", -1))) break;
+        }
+        return new Release.Builder().setVersion(release.getString("tag_name"))
+                .setDownload(selector.getDownloadUrl(), selector.getDownloadSize())
+                .setReleaseInfo(release.getString("body"))
+                .setLearnMoreUrl(learnMoreUrl).build();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.core;
+
+import androidx.annotation.NonNull;
+
+import com.vdurmont.semver4j.Semver;
+import com.vdurmont.semver4j.SemverException;
+
+/** Compares the latest version from an endpoint with the current version of the app. **/
+public class VersionComparator {
+    private VersionComparator() {
+        throw new IllegalStateException("Utility class!");
+    }
+
+    /** Checks whether the latest version is newer than the current version.
+     * For semantic versions, a SemverException is thrown if either version is not valid.
+     * Otherwise, any version that is different from the current version is treated as newer.
+     * @param latestVersion The latest version from the endpoint.
+     * @param currentVersion The current version of the app.
+     * @param isSemantic Whether the versions follow semantic versioning. **/
+    public static boolean isNewer(@NonNull String latestVersion, @NonNull String currentVersion,
+                                  boolean isSemantic) throws SemverException {
+        return isSemantic ? new Semver(latestVersion).isGreaterThan(currentVersion) : !latestVersion.equals(currentVersion);
+    }
+
+    /** Checks whether the latest incremental version is newer than the current version.
+     * @param latestVersion The latest version from the endpoint.
+     * @param currentVersion The current version of the app. **/
+    public static boolean isNewer(int latestVersion, int currentVersion) {
+        return latestVersion > currentVersion;
+    }
+
+    /** Checks whether the latest decimal version is newer than the current version.
+     * @param latestVersion The latest version from the endpoint.
+     * @param currentVersion The current version of the app. **/
+    public static boolean isNewer(float latestVersion, float currentVersion) {
+        return latestVersion > currentVersion;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pcchin.auto_app_updater.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Tests the selection of the APK from the assets of a release. **/
+public class AssetSelectorTest {
+    private static final String APK_TYPE = "application/vnd.android.package-archive";
+
+    @Test
+    public void noAssets_hasNoDownload() {
+        AssetSelector selector = new AssetSelector();
+        assertNull(selector.getDownloadUrl());
+        assertEquals(-1, selector.getDownloadSize());
+    }
+
+    @Test
+    public void selectsFirstApk() {
+        AssetSelector selector = new AssetSelector();
+        assertFalse(selector.offer("notes.txt", "text/plain", "https://example.com/notes.txt", 10));
+        assertFalse(selector.offer("app-1.apk", null, "https://example.com/app-1.apk", 100));
+        assertFalse(selector.offer("app-2.apk", APK_TYPE, "https://example.com/app-2.apk", 200));
+        assertEquals("https://example.com/app-1.apk", selector.getDownloadUrl());
+        assertEquals(100, selector.getDownloadSize());
+    }
+
+    @Test
+    public void matchesContentTypeWithoutName() {
+        AssetSelector selector = new AssetSelector();
+        selector.offer(null, APK_TYPE, "https://example.com/download/1", 100);
+        assertEquals("https://example.com/download/1", selector.getDownloadUrl());
+    }
+
+    @Test
+    public void prefersCompressedApk() {
+        AssetSelector selector = new AssetSelector();
+        assertFalse(selector.offer("app.apk", APK_TYPE, "https://example.com/app.apk", 200));
+        assertTrue(selector.offer("app.apk.gz", "application/gzip", "https://example.com/app.apk.gz", 150));
+        assertEquals("https://example.com/app.apk.gz", selector.getDownloadUrl());
+        assertEquals(150, selector.getDownloadSize());
+    }
+
+    @Test
+    public void keepsFirstCompressedApk() {
+        AssetSelector selector = new AssetSelector();
+        assertTrue(selector.offer("app.apk.gz", null, "https://example.com/app.apk.gz", 150));
+        assertTrue(selector.offer("app.apk", APK_TYPE, "https://example.com/app.apk", 200));
+        assertTrue(selector.offer("other.apk.gz", null, "https://example.com/other.apk.gz", 120));
+        assertEquals("https://example.com/app.apk.gz", selector.getDownloadUrl());
+    }
+
+    @Test
+    public void isApk() {
+        assertTrue(AssetSelector.isApk("app.apk", null));
+        assertTrue(AssetSelector.isApk(null, APK_TYPE));
+        assertFalse(AssetSelector.isApk("app.zip", "application/zip"));
+        assertFalse(AssetSelector.isApk(null, null));
+    }
+}
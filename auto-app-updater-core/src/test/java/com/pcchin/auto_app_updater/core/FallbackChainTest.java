@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pcchin.auto_app_updater.core;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests how a run of the chain falls back through its sources. **/
+public class FallbackChainTest {
+    private List<String> attempts;
+    private List<Exception> exhausted;
+
+    @Before
+    public void setUp() {
+        attempts = new ArrayList<>();
+        exhausted = new ArrayList<>();
+    }
+
+    /** Creates a chain that records its attempts and exhaustion. **/
+    @NonNull
+    private FallbackChain<String> createChain(@NonNull List<String> sources) {
+        return new FallbackChain<String>(sources) {
+            @Override
+            protected void onAttempt(@NonNull String source, @NonNull Run run) {
+                attempts.add(source);
+            }
+
+            @Override
+            protected void onExhausted(@NonNull Exception error) {
+                exhausted.add(error);
+            }
+        };
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySources_throws() {
+        createChain(Collections.<String>emptyList());
+    }
+
+    @Test
+    public void start_attemptsFirstSource() {
+        FallbackChain<String>.Run run = createChain(Arrays.asList("a", "b")).start();
+        assertEquals(Collections.singletonList("a"), attempts);
+        assertEquals("a", run.getCurrent());
+        assertFalse(run.isFallback());
+    }
+
+    @Test
+    public void onFailure_advancesToNextSource() {
+        FallbackChain<String>.Run run = createChain(Arrays.asList("a", "b", "c")).start();
+        run.onFailure(new Exception("a failed"));
+        assertEquals(Arrays.asList("a", "b"), attempts);
+        assertEquals("b", run.getCurrent());
+        assertTrue(run.isFallback());
+        run.onFailure(new Exception("b failed"));
+        assertEquals(Arrays.asList("a", "b", "c"), attempts);
+        assertEquals("c", run.getCurrent());
+        assertTrue(exhausted.isEmpty());
+    }
+
+    @Test
+    public void onFailure_lastSource_exhausts() {
+        FallbackChain<String>.Run run = createChain(Arrays.asList("a", "b")).start();
+        run.onFailure(new Exception("a failed"));
+        Exception lastError = new Exception("b failed");
+        run.onFailure(lastError);
+        assertEquals(Arrays.asList("a", "b"), attempts);
+        assertEquals(1, exhausted.size());
+        assertSame(lastError, exhausted.get(0));
+        assertNull(run.getCurrent());
+    }
+
+    @Test
+    public void onFailure_afterExhausted_throws() {
+        FallbackChain<String>.Run run = createChain(Collections.singletonList("a")).start();
+        run.onFailure(new Exception("a failed"));
+        try {
+            run.onFailure(new Exception("a failed again"));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(1, exhausted.size());
+        }
+    }
+
+    @Test
+    public void runs_areIndependent() {
+        FallbackChain<String> chain = createChain(Arrays.asList("a", "b"));
+        FallbackChain<String>.Run first = chain.start();
+        first.onFailure(new Exception("a failed"));
+        FallbackChain<String>.Run second = chain.start();
+        assertEquals("b", first.getCurrent());
+        assertEquals("a", second.getCurrent());
+        assertFalse(second.isFallback());
+    }
+
+    @Test
+    public void sources_areCopied() {
+        List<String> sources = new ArrayList<>(Arrays.asList("a", "b"));
+        FallbackChain<String> chain = createChain(sources);
+        sources.clear();
+        FallbackChain<String>.Run run = chain.start();
+        run.onFailure(new Exception("a failed"));
+        assertEquals("b", run.getCurrent());
+    }
+}
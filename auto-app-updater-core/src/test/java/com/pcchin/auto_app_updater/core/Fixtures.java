@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pcchin.auto_app_updater.core;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Reads the recorded API responses from the test resources. **/
+final class Fixtures {
+    private Fixtures() {
+        throw new IllegalStateException("Utility class!");
+    }
+
+    /** Reads a recorded response that is a JSON object.
+     * @param name The file name of the response in /recorded. **/
+    @NonNull
+    static JSONObject readObject(@NonNull String name) throws IOException, JSONException {
+        return new JSONObject(read(name));
+    }
+
+    /** Reads a recorded response that is a JSON array.
+     * @param name The file name of the response in /recorded. **/
+    @NonNull
+    static JSONArray readArray(@NonNull String name) throws IOException, JSONException {
+        return new JSONArray(read(name));
+    }
+
+    /** Reads a recorded response as a string.
+     * @param name The file name of the response in /recorded. **/
+    @NonNull
+    private static String read(@NonNull String name) throws IOException {
+        InputStream input = Fixtures.class.getResourceAsStream("/recorded/" + name);
+        if (input == null) throw new IOException("Missing fixture " + name);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) output.write(buffer, 0, count);
+            return output.toString("UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pcchin.auto_app_updater.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Tests the compiling and rendering of message templates. **/
+public class MessageTemplateTest {
+    @Test
+    public void render_replacesAllPlaceholders() {
+        MessageTemplate template = MessageTemplate.compile("${currentVersion} -> ${newVersion}: ${releaseInfo} "
+                + "(${downloadUrl}, ${learnMoreUrl})");
+        assertEquals("1.0.0 -> 1.1.0: Fixes (https://example.com/app.apk, https://example.com)",
+                template.render("Fixes", "https://example.com/app.apk", "https://example.com", "1.0.0", "1.1.0"));
+    }
+
+    @Test
+    public void render_repeatedPlaceholder() {
+        MessageTemplate template = MessageTemplate.compile("${newVersion}${newVersion}");
+        assertEquals("1.1.01.1.0", template.render(null, null, null, null, "1.1.0"));
+    }
+
+    @Test
+    public void render_withoutPlaceholders() {
+        assertEquals("A new version is available", MessageTemplate.compile("A new version is available").render());
+        assertEquals("", MessageTemplate.compile("").render());
+    }
+
+    @Test
+    public void render_keepsUnknownPlaceholders() {
+        MessageTemplate template = MessageTemplate.compile("${unknown} ${ ${newVersion} $");
+        assertEquals("${unknown} ${ 1.1.0 $", template.render(null, null, null, null, "1.1.0"));
+    }
+
+    @Test
+    public void render_missingValues_areEmpty() {
+        MessageTemplate template = MessageTemplate.compile("[${releaseInfo}][${newVersion}]");
+        assertEquals("[][]", template.render());
+        assertEquals("[info][]", template.render("info"));
+        assertEquals("[][]", template.render(null, null, null, null, null));
+    }
+
+    @Test
+    public void render_doesNotExpandValues() {
+        MessageTemplate template = MessageTemplate.compile("${releaseInfo}");
+        assertEquals("${newVersion}", template.render("${newVersion}", null, null, null, "1.1.0"));
+    }
+
+    @Test
+    public void getTemplate() {
+        assertEquals("Update to ${newVersion}", MessageTemplate.compile("Update to ${newVersion}").getTemplate());
+    }
+}
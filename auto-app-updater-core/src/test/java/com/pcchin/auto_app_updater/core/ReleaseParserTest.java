@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pcchin.auto_app_updater.core;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Tests the parsing of the recorded responses from GitHub, GitLab and Gitea. **/
+public class ReleaseParserTest {
+    //****** Start of GitHub ******//
+
+    @Test
+    public void parseGitHubRelease_selectsApkAsset() throws Exception {
+        Release release = ReleaseParser.parseGitHubRelease(Fixtures.readObject("github_latest.json"));
+        assertEquals("1.1.0", release.getVersion());
+        assertEquals("https://github.com/aau-test/public-stable-only/releases/download/1.1.0/success-1.1.0.apk",
+                release.getDownloadUrl());
+        assertEquals(2456832, release.getDownloadSize());
+        assertEquals("Stable release 1.1.0\r\n\r\n- Fixes the crash when opening the settings", release.getReleaseInfo());
+        assertEquals("https://github.com/aau-test/public-stable-only/releases/tag/1.1.0", release.getLearnMoreUrl());
+    }
+
+    @Test
+    public void selectGitHubPrerelease_skipsDrafts() throws Exception {
+        JSONObject selected = ReleaseParser.selectGitHubPrerelease(Fixtures.readArray("github_releases.json"));
+        Release release = ReleaseParser.parseGitHubRelease(selected);
+        assertEquals("1.1.0", release.getVersion());
+        assertEquals("https://github.com/aau-test/public-prerelease-only/releases/download/1.1.0/success-1.1.0.apk",
+                release.getDownloadUrl());
+        assertEquals("Pre-release 1.1.0", release.getReleaseInfo());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void selectGitHubPrerelease_withoutPrerelease_throws() throws Exception {
+        JSONArray releaseList = new JSONArray("[{\"draft\": false, \"prerelease\": false},"
+                + "{\"draft\": true, \"prerelease\": true}]");
+        ReleaseParser.selectGitHubPrerelease(releaseList);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parseGitHubRelease_withoutApk_throws() throws Exception {
+        JSONObject release = new JSONObject("{\"tag_name\": \"1.0.0\", \"body\": \"\", \"html_url\": \"https://example.com\","
+                + "\"assets\": [{\"name\": \"notes.txt\", \"content_type\": \"text/plain\", \"size\": 10,"
+                + "\"browser_download_url\": \"https://example.com/notes.txt\"}]}");
+        ReleaseParser.parseGitHubRelease(release);
+    }
+
+    //****** Start of GitLab ******//
+
+    @Test
+    public void parseGitLabReleaseList_usesLatestRelease() throws Exception {
+        Release release = ReleaseParser.parseGitLabReleaseList(Fixtures.readArray("gitlab_releases.json"));
+        assertEquals("1.1.0", release.getVersion());
+        assertEquals("https://gitlab.com/aau-test/public-stable-only/-/releases/1.1.0/downloads/success-1.1.0.apk",
+                release.getDownloadUrl());
+        // GitLab links do not include their size
+        assertEquals(-1, release.getDownloadSize());
+        assertEquals("Stable release 1.1.0", release.getReleaseInfo());
+        assertEquals("https://gitlab.com/aau-test/public-stable-only/-/releases/1.1.0", release.getLearnMoreUrl());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parseGitLabReleaseList_empty_throws() throws Exception {
+        ReleaseParser.parseGitLabReleaseList(new JSONArray("[]"));
+    }
+
+    //****** Start of Gitea ******//
+
+    @Test
+    public void selectGiteaRelease_stable_skipsPrerelease() throws Exception {
+        JSONObject selected = ReleaseParser.selectGiteaRelease(Fixtures.readArray("gitea_releases.json"), false);
+        Release release = ReleaseParser.parseGiteaRelease(selected, "https://git.pcchin.com/aau-test/releases");
+        assertEquals("1.1.0", release.getVersion());
+        assertEquals("https://git.pcchin.com/attachments/7d1b2f7e-4a56-4b4e-8d07-0f3c9a1f6c21", release.getDownloadUrl());
+        assertEquals(2456832, release.getDownloadSize());
+        assertEquals("Stable release 1.1.0", release.getReleaseInfo());
+        assertEquals("https://git.pcchin.com/aau-test/releases", release.getLearnMoreUrl());
+    }
+
+    @Test
+    public void selectGiteaRelease_prerelease() throws Exception {
+        JSONObject selected = ReleaseParser.selectGiteaRelease(Fixtures.readArray("gitea_releases.json"), true);
+        assertEquals("1.2.0-beta.1", selected.getString("tag_name"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parseGiteaRelease_withoutApk_throws() throws Exception {
+        JSONObject selected = ReleaseParser.selectGiteaRelease(Fixtures.readArray("gitea_releases.json"), true);
+        ReleaseParser.parseGiteaRelease(selected, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void selectGiteaRelease_withoutMatch_throws() throws Exception {
+        ReleaseParser.selectGiteaRelease(new JSONArray("[{\"draft\": true, \"prerelease\": false}]"), false);
+    }
+}
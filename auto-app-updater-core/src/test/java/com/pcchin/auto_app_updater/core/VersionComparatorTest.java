@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.pcchin.auto_app_updater.core;
+
+import com.vdurmont.semver4j.SemverException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Tests the version comparisons that are used by each UpdateType. **/
+public class VersionComparatorTest {
+    //****** Start of SEMANTIC ******//
+
+    @Test
+    public void semantic_newerVersion() {
+        assertTrue(VersionComparator.isNewer("1.1.0", "1.0.0", true));
+        assertTrue(VersionComparator.isNewer("1.10.0", "1.9.0", true));
+        assertTrue(VersionComparator.isNewer("1.0.0", "1.0.0-beta.1", true));
+    }
+
+    @Test
+    public void semantic_sameOrOlderVersion() {
+        assertFalse(VersionComparator.isNewer("1.0.0", "1.0.0", true));
+        assertFalse(VersionComparator.isNewer("1.0.0", "1.1.0", true));
+        assertFalse(VersionComparator.isNewer("1.0.0-beta.1", "1.0.0", true));
+    }
+
+    @Test(expected = SemverException.class)
+    public void semantic_invalidVersion_throws() {
+        VersionComparator.isNewer("v1", "1.0.0", true);
+    }
+
+    //****** Start of DIFFERENCE ******//
+
+    @Test
+    public void difference_anyOtherVersion() {
+        assertTrue(VersionComparator.isNewer("1.0.0", "1.1.0", false));
+        assertTrue(VersionComparator.isNewer("release-b", "release-a", false));
+        assertFalse(VersionComparator.isNewer("release-a", "release-a", false));
+    }
+
+    //****** Start of INCREMENTAL ******//
+
+    @Test
+    public void incremental() {
+        assertTrue(VersionComparator.isNewer(11, 10));
+        assertFalse(VersionComparator.isNewer(10, 10));
+        assertFalse(VersionComparator.isNewer(9, 10));
+    }
+
+    //****** Start of DECIMAL_INCREMENTAL ******//
+
+    @Test
+    public void decimalIncremental() {
+        assertTrue(VersionComparator.isNewer(1.25f, 1.2f));
+        assertFalse(VersionComparator.isNewer(1.2f, 1.2f));
+        assertFalse(VersionComparator.isNewer(1.1f, 1.2f));
+    }
+}
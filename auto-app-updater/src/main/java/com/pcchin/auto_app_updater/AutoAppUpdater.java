@@ -14,7 +14,6 @@
 package com.pcchin.auto_app_updater;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -23,26 +22,54 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 import androidx.fragment.app.FragmentManager;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
 
 import com.android.volley.RequestQueue;
 import com.android.volley.toolbox.Volley;
 import com.pcchin.auto_app_updater.endpoint.Endpoint;
+import com.pcchin.auto_app_updater.endpoint.UpdateCheckMetrics;
+import com.pcchin.auto_app_updater.endpoint.UpdateCheckResult;
+import com.pcchin.auto_app_updater.http.HttpTransport;
 import com.pcchin.auto_app_updater.utils.APKDownloader;
+import com.pcchin.auto_app_updater.utils.ConnectivityWatcher;
+import com.pcchin.auto_app_updater.utils.DownloadCheckpoint;
 import com.pcchin.auto_app_updater.utils.UpdaterDialog;
+import com.pcchin.auto_app_updater.utils.UpdaterEventLog;
 import com.pcchin.auto_app_updater.utils.UpdaterFunctions;
+import com.pcchin.auto_app_updater.utils.UpdaterStateStore;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
 
 /** An updater that checks for updates to the app. **/
 public class AutoAppUpdater {
+    // Guards the last run time, so that concurrent calls to run() would not both start a check
+    private static final Object RUN_LOCK = new Object();
+
     private Context context;
     private ErrorListener listener;
+    private String checkKey; // The configuration of the endpoints, used to coalesce concurrent update checks.
+    private final UpdateCheckRegistry.Listener checkListener = new UpdateCheckRegistry.Listener() {
+        @Override
+        public void onResult(@NonNull UpdateCheckResult result) {
+            // The update dialog is only shown by the endpoint that ran the check
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            notifyListener(e);
+        }
+    };
 
     private int updateInterval; // The update interval for the app (In seconds).
+    private boolean deferWhenOffline; // Whether the update check would run once the device is back online.
+    private ConnectivityWatcher connectivityWatcher; // Only created when the check needs to be deferred.
+    private Lifecycle lifecycle; // The lifecycle of the host of the update dialog, can be null.
+    private LifecycleEventObserver startObserver; // Only set while the deferred check waits for the host to be started.
     private List<Endpoint> endpointList; // All the possible endpoints for updating the app.
 
     /** The type of update checks that will be performed. **/
@@ -67,15 +94,19 @@ public class AutoAppUpdater {
     public static class Builder {
         private Context bContext;
         private ErrorListener bListener;
+        private MetricsListener bMetricsListener;
         private FragmentManager bFragmentManager;
         private String bFragmentTag; // The tag of the fragment that would be shown, defaults, to "AutoAppUpdater".
 
         private String bContentProvider; // The content provider that will open the APK file needed to install it.
         private UpdateType bUpdateType; // The update type of the app, defaults to UpdateType.DIFFERENCE.
         private int bUpdateInterval; // The interval between updating the app (In seconds), defaults to 86400 (One day).
+        private boolean bDeferWhenOffline; // Whether to defer the check until the device is online, defaults to false.
+        private LifecycleOwner bLifecycleOwner; // Defaults to the context if it is a LifecycleOwner.
         private List<Endpoint> bEndpointList = new ArrayList<>();
         private UpdaterDialog bUpdateDialog; // Defaults to UpdaterDialog without any additional arguments.
-        private RequestQueue bQueue;
+        private RequestQueue bQueue; // Only used by endpoints that send Volley requests.
+        private HttpTransport bTransport; // Defaults to HttpTransport.getDefault().
 
         // Current version
         private String bCurrentVersionStr;
@@ -138,6 +169,28 @@ public class AutoAppUpdater {
             }
         }
 
+        /** Sets whether the update check would be deferred if the device is offline when run() is called.
+         * If this is set, the check would run once when the device is connected to the internet again,
+         * and multiple calls to run() while offline would only result in one check.
+         * Otherwise, the check would be skipped until run() is called again. Defaults to false.
+         * @param deferWhenOffline Whether to defer the update check until the device is online. **/
+        public Builder setDeferWhenOffline(boolean deferWhenOffline) {
+            this.bDeferWhenOffline = deferWhenOffline;
+            return this;
+        }
+
+        /** Sets the lifecycle of the host that shows the update dialog, such as the fragment that the FragmentManager belongs to.
+         * A check that is deferred with setDeferWhenOffline would be dropped once the lifecycle is destroyed,
+         * so that the host would not be leaked and the dialog would not be shown on a destroyed FragmentManager.
+         * If the device is back online while the host is in the background, the check waits until the lifecycle is started.
+         * Defaults to the context of the builder if it is a LifecycleOwner, e.g. a FragmentActivity.
+         * If neither is a LifecycleOwner, cancelPendingCheck() should be called when the host is destroyed.
+         * @param owner The owner of the lifecycle of the host. **/
+        public Builder setLifecycleOwner(LifecycleOwner owner) {
+            this.bLifecycleOwner = owner;
+            return this;
+        }
+
         /** Sets the current version of the app.
          * This should be used in conjunction with UpdateType.DIFFERENCE / UpdateType.
          * and should be used after setUpdateType is called.
@@ -235,6 +288,15 @@ public class AutoAppUpdater {
             return this;
         }
 
+        /** Sets the transport that is used by the endpoints to send their requests.
+         * If this is not set, HttpTransport.getDefault() would be used.
+         * This should be called before addEndpoint or addEndpoints.
+         * @param transport The transport that would be used by the endpoints. **/
+        public Builder setTransport(@NonNull HttpTransport transport) {
+            this.bTransport = transport;
+            return this;
+        }
+
         /** Sets the error listener which deals with the error thrown by the endpoint.
          * @param errorListener The error listener that handles the error. **/
         public Builder setErrorListener(ErrorListener errorListener) {
@@ -242,6 +304,14 @@ public class AutoAppUpdater {
             return this;
         }
 
+        /** Sets the listener which receives the timings of each stage of the update check.
+         * A report is passed to the listener on the main thread for every endpoint that is tried.
+         * @param metricsListener The listener that receives the metrics. **/
+        public Builder setMetricsListener(MetricsListener metricsListener) {
+            this.bMetricsListener = metricsListener;
+            return this;
+        }
+
         /** Sets the properties of the endpoint before passing them on to the app updater.
          * @param endpoint The endpoint that will be added to the app updater. **/
         private void setEndpointProperties(@NonNull Endpoint endpoint) {
@@ -257,6 +327,7 @@ public class AutoAppUpdater {
                 endpoint.setCurrentVersion(bCurrentVersionDecimal);
             }
             endpoint.setRequestQueue(bQueue);
+            if (bTransport != null) endpoint.setTransport(bTransport);
         }
 
         /** Check whether the requirements are met for the endpoint. **/
@@ -274,10 +345,19 @@ public class AutoAppUpdater {
         public AutoAppUpdater build() {
             AutoAppUpdater updater = new AutoAppUpdater(bContext);
             updater.endpointList = this.bEndpointList;
-            for (int i = updater.endpointList.size() - 1; i > 0; i--) {
-                updater.endpointList.get(i - 1).setBackupEndpoint(updater.endpointList.get(i));
+            StringBuilder checkKey = new StringBuilder();
+            Endpoint.linkEndpoints(updater.endpointList, updater);
+            for (Endpoint endpoint: updater.endpointList) {
+                endpoint.setUpdater(updater);
+                endpoint.setMetricsListener(bMetricsListener);
+                checkKey.append(endpoint.getCheckKey()).append('\n');
             }
+            updater.checkKey = checkKey.toString();
             updater.updateInterval = this.bUpdateInterval;
+            updater.deferWhenOffline = this.bDeferWhenOffline;
+            LifecycleOwner lifecycleOwner = bLifecycleOwner;
+            if (lifecycleOwner == null && bContext instanceof LifecycleOwner) lifecycleOwner = (LifecycleOwner) bContext;
+            if (bDeferWhenOffline && lifecycleOwner != null) updater.observeLifecycle(lifecycleOwner.getLifecycle());
             updater.listener = bListener;
             return updater;
         }
@@ -290,50 +370,181 @@ public class AutoAppUpdater {
         public abstract void onFailure(Exception e);
     }
 
+    /** The class that receives the timings of each stage of the update check from the endpoints. **/
+    public abstract static class MetricsListener {
+        /** The function that is called on the main thread once an endpoint succeeds or fails.
+         * @param metrics The timings of the endpoint. **/
+        public abstract void onMetrics(@NonNull UpdateCheckMetrics metrics);
+    }
+
+    /** The class that receives the result of a headless update check, which does not show the update dialog. **/
+    public abstract static class ResultListener {
+        /** The function that is called on the main thread once one of the endpoints completes the check.
+         * @param result The result of the update check, including the endpoint that completed it. **/
+        public abstract void onResult(@NonNull UpdateCheckResult result);
+
+        /** The function that is called on the main thread if all of the endpoints fail.
+         * @param e The error from the last endpoint. **/
+        public abstract void onFailure(@NonNull Exception e);
+    }
+
     /** The constructor for the class, only used by the builder.
      * @param context The context used by the app. **/
     private AutoAppUpdater(Context context) {
-        this.context = context;
+        // The updater could outlive the activity while a check is deferred
+        Context appContext = context.getApplicationContext();
+        this.context = appContext == null ? context : appContext;
         deletePreviousAPKs();
     }
 
-    /** Delete the previous APKs that are downloaded from the app. **/
+    /** Delete the previous APKs that are downloaded from the app,
+     * together with the partial downloads that have been abandoned. **/
     private void deletePreviousAPKs() {
-        SharedPreferences sharedPref = context.getSharedPreferences("com.pcchin.auto_app_updater", Context.MODE_PRIVATE);
-        Set<String> previousApkList = UpdaterFunctions.getApkStringSet(sharedPref);
-        for (String previousApk: previousApkList) {
-            if (new File(previousApk).delete()) {
-                previousApkList.remove(previousApk);
+        DownloadCheckpoint.deleteStale(context);
+        UpdaterStateStore stateStore = UpdaterStateStore.getInstance(context);
+        for (String previousApk: stateStore.getAll(UpdaterStateStore.PREVIOUS_APK_PREFIX).keySet()) {
+            File previousApkFile = new File(previousApk);
+            // Temporary files would not exist if the download had completed
+            if (previousApkFile.exists() && !previousApkFile.delete()) {
+                Log.w("AutoAppUpdater", String.format("Unable to delete previous APK %s", previousApk));
+            } else {
+                stateStore.remove(UpdaterStateStore.PREVIOUS_APK_PREFIX + previousApk);
             }
         }
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putStringSet("previousApkList", null);
-        editor.apply();
     }
 
-    /** Starts the update checking process. **/
+    /** Starts the update checking process.
+     * If an update check with the same endpoints is already in flight, from this or any other updater,
+     * this call would be attached to it instead of starting a new one.
+     * If the device is offline, the check would either be skipped or deferred
+     * depending on Builder.setDeferWhenOffline. **/
     public void run() {
         if (UpdaterFunctions.isConnected(context)) {
-            SharedPreferences sharedPref = context.getSharedPreferences("com.pcchin.auto_app_updater", Context.MODE_PRIVATE);
-            long lastRunTime = sharedPref.getLong("lastRunTime", 0);
-            long currentTime = new Date().getTime();
-            if (((currentTime - lastRunTime) / 1000) >= updateInterval) {
-                // Update the shared preferences
-                SharedPreferences.Editor editor = sharedPref.edit();
-                editor.putLong("lastRunTime", currentTime);
-                editor.apply();
-
-                if (endpointList.size() > 0) {
-                    endpointList.get(0).update();
+            if (endpointList.isEmpty()) return;
+            synchronized (RUN_LOCK) {
+                if (UpdateCheckRegistry.attach(checkKey, checkListener)) {
+                    UpdaterEventLog.record(UpdaterEventLog.CHECK_ATTACHED);
+                    return;
                 }
+                UpdaterStateStore stateStore = UpdaterStateStore.getInstance(context);
+                long lastRunTime = stateStore.getLong(UpdaterStateStore.LAST_RUN_TIME, 0);
+                long currentTime = new Date().getTime();
+                if (((currentTime - lastRunTime) / 1000) < updateInterval) return;
+                stateStore.putLong(UpdaterStateStore.LAST_RUN_TIME, currentTime);
+                UpdateCheckRegistry.start(checkKey, checkListener);
             }
+            UpdaterEventLog.record(UpdaterEventLog.CHECK_STARTED, endpointList.get(0).getClass().getName(), -1);
+            try {
+                endpointList.get(0).update();
+            } catch (RuntimeException e) {
+                // Ends the check in the registry, as the endpoint would not report back
+                Log.w("AutoAppUpdater", "Unable to start the update check, stack trace is");
+                e.printStackTrace();
+                onFailure(e);
+            }
+        } else if (deferWhenOffline) {
+            if (isHostDestroyed()) return;
+            // Repeated calls while offline are coalesced into a single pending check
+            UpdaterEventLog.record(UpdaterEventLog.CHECK_DEFERRED);
+            if (connectivityWatcher == null) connectivityWatcher = new ConnectivityWatcher(context);
+            connectivityWatcher.runWhenConnected(new Runnable() {
+                @Override
+                public void run() {
+                    // The host may have been destroyed without the lifecycle being observed
+                    if (isHostDestroyed()) return;
+                    // The dialog could not be shown while the host is in the background, and the run time would be used up
+                    if (isHostStarted()) AutoAppUpdater.this.run();
+                    else runWhenStarted();
+                }
+            });
         }
     }
 
+    /** Drops the deferred check once the lifecycle of the host is destroyed.
+     * @param hostLifecycle The lifecycle of the host of the update dialog. **/
+    private void observeLifecycle(@NonNull Lifecycle hostLifecycle) {
+        this.lifecycle = hostLifecycle;
+        hostLifecycle.addObserver(new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+                if (event == Lifecycle.Event.ON_DESTROY) {
+                    source.getLifecycle().removeObserver(this);
+                    cancelPendingCheck();
+                }
+            }
+        });
+    }
+
+    /** Runs the deferred check once the host is started. This should be called on the main thread. **/
+    private void runWhenStarted() {
+        if (startObserver != null) return;
+        startObserver = new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+                if (event == Lifecycle.Event.ON_START) {
+                    removeStartObserver();
+                    AutoAppUpdater.this.run();
+                }
+            }
+        };
+        lifecycle.addObserver(startObserver);
+    }
+
+    /** Stops waiting for the host to be started, if the deferred check is waiting for it. **/
+    private void removeStartObserver() {
+        if (startObserver == null) return;
+        lifecycle.removeObserver(startObserver);
+        startObserver = null;
+    }
+
+    /** Returns whether the lifecycle of the host is at least started, which is true if it is not known. **/
+    private boolean isHostStarted() {
+        return lifecycle == null || lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED);
+    }
+
+    /** Returns whether the lifecycle of the host is destroyed, which is false if it is not known. **/
+    private boolean isHostDestroyed() {
+        return lifecycle != null && lifecycle.getCurrentState() == Lifecycle.State.DESTROYED;
+    }
+
+    /** Checks for updates through the endpoints of the updater without showing the update dialog.
+     * Unlike run(), this ignores the update interval and the connection of the device,
+     * and is not coalesced with other update checks, so that it could be used by background work such as prefetching.
+     * This could be called from any thread.
+     * @param resultListener The listener that receives the result of the check, or the error of the last endpoint. **/
+    public void check(@NonNull ResultListener resultListener) {
+        if (endpointList.isEmpty()) throw new IllegalStateException("AutoAppUpdater has no endpoints to check!");
+        UpdaterEventLog.record(UpdaterEventLog.CHECK_STARTED, endpointList.get(0).getClass().getName(), -1);
+        Endpoint.check(endpointList, resultListener);
+    }
+
+    /** Cancels the update check that is waiting for the device to be online or for the host to be started, if any.
+     * This only has an effect if the updater is built with setDeferWhenOffline(true).
+     * This is called automatically when the lifecycle of the host is destroyed,
+     * and should be called in onDestroy of the host otherwise (See Builder.setLifecycleOwner). **/
+    public void cancelPendingCheck() {
+        if (connectivityWatcher != null) connectivityWatcher.cancel();
+        removeStartObserver();
+    }
+
+    /** Function that is called when one of the endpoints completes the update check.
+     * The result is passed to all the updaters that are attached to the check. **/
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void onResult(@NonNull UpdateCheckResult result) {
+        UpdateCheckRegistry.complete(checkKey, result);
+    }
+
     /** Function that is called when all of the endpoints fail.
+     * The error is passed to all the updaters that are attached to the check.
      * Use an AutoAppUpdater.ErrorListener to handle the error. **/
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public void onFailure(final Exception e) {
+        if (!UpdateCheckRegistry.fail(checkKey, e)) notifyListener(e);
+    }
+
+    /** Passes the error to the error listener on the main thread.
+     * @param e The error from the last endpoint. **/
+    private void notifyListener(final Exception e) {
         if (this.listener == null) {
             throw new IllegalStateException("AutoAppUpdater.ErrorListener cannot be null!");
         } else {
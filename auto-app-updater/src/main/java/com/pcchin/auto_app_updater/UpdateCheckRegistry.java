@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.pcchin.auto_app_updater.endpoint.UpdateCheckResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/** The process-wide registry of the update checks that are in flight, keyed by the configuration of the endpoints.
+ * The first caller for a key starts the check, and callers that arrive while it is in flight
+ * are attached to it instead of sending their own requests.
+ * All the attached callers receive the result of the check once it completes,
+ * and the check is removed from the registry once it completes or fails. **/
+class UpdateCheckRegistry {
+    // The endpoints report every check that they start, except for Volley requests whose listeners are not wrapped
+    // or that are canceled, which would otherwise block the key for the rest of the process
+    private static final long FLIGHT_TIMEOUT_MILLIS = 2 * 60 * 1000;
+    private static final Map<String, Flight> flights = new HashMap<>();
+
+    private UpdateCheckRegistry() {
+        throw new IllegalStateException("Utility class!");
+    }
+
+    /** The listener that receives the result of an update check. **/
+    interface Listener {
+        /** Called once the update check completes.
+         * @param result The result of the update check. **/
+        void onResult(@NonNull UpdateCheckResult result);
+
+        /** Called if all the endpoints of the update check fail.
+         * @param e The error from the last endpoint. **/
+        void onFailure(@NonNull Exception e);
+    }
+
+    /** An update check that is in flight, together with the listeners attached to it. **/
+    private static class Flight {
+        private final long startTime = SystemClock.elapsedRealtime();
+        private final List<Listener> listeners = new ArrayList<>();
+
+        /** Returns whether the check has been in flight for longer than FLIGHT_TIMEOUT_MILLIS. **/
+        boolean isExpired() {
+            return SystemClock.elapsedRealtime() - startTime > FLIGHT_TIMEOUT_MILLIS;
+        }
+    }
+
+    /** Attaches the listener to the update check that is in flight for the key, if any.
+     * @param key The configuration of the endpoints.
+     * @param listener The listener that would receive the result.
+     * @return true if the listener is attached, and false if no check is in flight. **/
+    static synchronized boolean attach(@NonNull String key, @NonNull Listener listener) {
+        Flight flight = flights.get(key);
+        if (flight == null) return false;
+        if (flight.isExpired()) {
+            flights.remove(key);
+            return false;
+        }
+        if (!flight.listeners.contains(listener)) flight.listeners.add(listener);
+        return true;
+    }
+
+    /** Registers a new update check for the key. The caller is responsible for starting the check.
+     * @param key The configuration of the endpoints.
+     * @param listener The listener that would receive the result. **/
+    static synchronized void start(@NonNull String key, @NonNull Listener listener) {
+        // Drops the expired checks of the other keys as well, so that the registry does not keep growing
+        Iterator<Flight> iterator = flights.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired()) iterator.remove();
+        }
+        Flight flight = new Flight();
+        flight.listeners.add(listener);
+        flights.put(key, flight);
+    }
+
+    /** Completes the update check for the key and passes the result to all the attached listeners.
+     * @param key The configuration of the endpoints.
+     * @param result The result of the update check. **/
+    static void complete(@NonNull String key, @NonNull UpdateCheckResult result) {
+        for (Listener listener: remove(key)) {
+            listener.onResult(result);
+        }
+    }
+
+    /** Fails the update check for the key and passes the error to all the attached listeners.
+     * @param key The configuration of the endpoints.
+     * @param e The error from the last endpoint.
+     * @return false if no check is in flight for the key, in which case the error is not passed to any listener. **/
+    static boolean fail(@NonNull String key, @NonNull Exception e) {
+        List<Listener> listeners = remove(key);
+        for (Listener listener: listeners) {
+            listener.onFailure(e);
+        }
+        return !listeners.isEmpty();
+    }
+
+    /** Removes the update check for the key, and returns the listeners that were attached to it.
+     * The listeners are called outside of the lock so that they could start another check.
+     * @param key The configuration of the endpoints. **/
+    @NonNull
+    private static synchronized List<Listener> remove(@NonNull String key) {
+        Flight flight = flights.remove(key);
+        return flight == null ? new ArrayList<Listener>() : flight.listeners;
+    }
+}
@@ -14,20 +14,48 @@
 package com.pcchin.auto_app_updater.endpoint;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
 import androidx.fragment.app.FragmentManager;
 
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
 import com.pcchin.auto_app_updater.AutoAppUpdater;
+import com.pcchin.auto_app_updater.core.FallbackChain;
+import com.pcchin.auto_app_updater.core.Release;
+import com.pcchin.auto_app_updater.core.VersionComparator;
+import com.pcchin.auto_app_updater.http.HttpRequest;
+import com.pcchin.auto_app_updater.http.HttpResponse;
+import com.pcchin.auto_app_updater.http.HttpStatusException;
+import com.pcchin.auto_app_updater.http.HttpTransport;
+import com.pcchin.auto_app_updater.utils.Tracer;
 import com.pcchin.auto_app_updater.utils.UpdaterDialog;
-import com.vdurmont.semver4j.Semver;
+import com.pcchin.auto_app_updater.utils.UpdaterEventLog;
+import com.pcchin.auto_app_updater.utils.UpdaterExecutors;
 import com.vdurmont.semver4j.SemverException;
 
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /** The endpoint used to get the updater service.
- * Extend this class to build your own endpoints. **/
+ * Extend this class to build your own endpoints, either by overriding getHttpRequest and onResponse,
+ * which sends the request through the HttpTransport of the endpoint,
+ * or by overriding getRequest, which sends a Volley request through the request queue.
+ * The configuration of the endpoint is copied when each update check starts, and the state of the check
+ * is kept separately from the endpoint, so an endpoint that uses getHttpRequest could run several checks
+ * at the same time and be shared by several updaters. Changes to the configuration only apply to the checks
+ * that start afterwards. Endpoints that use getRequest can only run one check at a time,
+ * as the callbacks of their Volley requests could not be matched to their checks. **/
 public abstract class Endpoint {
     /* Example user agent: "AutoAppUpdater/1.0.0 (...)" */
     // Version needs to be changed manually here
@@ -35,14 +63,26 @@ public abstract class Endpoint {
     public static final String USER_AGENT = System.getProperty("http.agent","")
             .replaceAll("^.+?/\\S+", "AutoAppUpdater/1.0.3");
 
+    // The async section that covers the update check from update() until the result is shown
+    private static final String CHECK_SECTION = "AutoAppUpdater.check";
+    // The update check that is being parsed or reported on the current thread
+    private static final ThreadLocal<Check> currentCheck = new ThreadLocal<>();
+
     // The endpoint that will be called if this endpoint fails.
     protected Endpoint backupEndpoint;
+    // The chain of the endpoints of the AutoAppUpdater, which decides the endpoint that is tried next.
+    private FallbackChain<Endpoint> fallbackChain;
     protected AutoAppUpdater updater;
     protected AutoAppUpdater.UpdateType updateType;
+    // The configured dialog, which is copied for each update check that finds a newer version
     protected UpdaterDialog updateDialog;
     protected FragmentManager manager;
     protected String tag;
     protected RequestQueue queue;
+    protected HttpTransport transport;
+    protected AutoAppUpdater.MetricsListener metricsListener;
+    // The checks with a Volley request that has not been reported, in the order that they are sent
+    private final Queue<Check> volleyChecks = new ConcurrentLinkedQueue<>();
 
     // Current version
     protected String currentVersionStr;
@@ -63,6 +103,54 @@ public abstract class Endpoint {
         this.backupEndpoint = backupEndpoint;
     }
 
+    /** Links the endpoints of an AutoAppUpdater, so that each endpoint falls back to the next one if it fails,
+     * and the error of the last endpoint is passed to the updater.
+     * @param endpoints The endpoints in the order that they are tried.
+     * @param updater The updater that handles the error if all the endpoints fail. **/
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public static void linkEndpoints(@NonNull List<Endpoint> endpoints, final AutoAppUpdater updater) {
+        if (endpoints.isEmpty()) return;
+        FallbackChain<Endpoint> chain = new FallbackChain<Endpoint>(endpoints) {
+            @Override
+            protected void onAttempt(@NonNull Endpoint endpoint, @NonNull FallbackChain<Endpoint>.Run run) {
+                if (run.isFallback()) UpdaterEventLog.record(UpdaterEventLog.FALLBACK, endpoint.getClass().getName(), -1);
+                endpoint.start(run, run.isFallback(), null);
+            }
+
+            @Override
+            protected void onExhausted(@NonNull Exception error) {
+                if (updater == null) throw new IllegalStateException(error);
+                updater.onFailure(error);
+            }
+        };
+        for (int i = 0; i < endpoints.size(); i++) {
+            endpoints.get(i).setBackupEndpoint(i + 1 < endpoints.size() ? endpoints.get(i + 1) : null);
+            endpoints.get(i).fallbackChain = chain;
+        }
+    }
+
+    /** Checks for updates through the endpoints without showing the update dialog,
+     * falling back to the next endpoint whenever one of them fails.
+     * The endpoints should have their current version set, and onResult and the updaters of the endpoints are not called.
+     * This could be called from any thread, e.g. from a Worker or a service, and the same endpoints could be checked
+     * by several calls at the same time, where each call sends its own requests.
+     * @param endpoints The endpoints in the order that they are tried, which should not be empty.
+     * @param listener The listener that receives the result of the check, or the error of the last endpoint. **/
+    public static void check(@NonNull List<Endpoint> endpoints, @NonNull final AutoAppUpdater.ResultListener listener) {
+        new FallbackChain<Endpoint>(endpoints) {
+            @Override
+            protected void onAttempt(@NonNull Endpoint endpoint, @NonNull FallbackChain<Endpoint>.Run run) {
+                if (run.isFallback()) UpdaterEventLog.record(UpdaterEventLog.FALLBACK, endpoint.getClass().getName(), -1);
+                endpoint.start(run, run.isFallback(), listener);
+            }
+
+            @Override
+            protected void onExhausted(@NonNull Exception error) {
+                listener.onFailure(error);
+            }
+        }.start();
+    }
+
     /** Sets the update dialog that will be shown for the endpoint.
      * This function does not need to be called manually as it is called within AutoAppUpdater.
      * @param dialog The dialog that will be shown if a newer version of the app is found.
@@ -126,35 +214,296 @@ public abstract class Endpoint {
         this.queue = queue;
     }
 
+    /** Sets the transport that is used to send the request from getHttpRequest.
+     * This function does not need to be called manually as it is called within AutoAppUpdater.
+     * If this is not set, HttpTransport.getDefault() would be used.
+     * @param transport The transport that will be used to send the request. **/
+    public void setTransport(HttpTransport transport) {
+        this.transport = transport;
+    }
+
     /** Fetches the endpoint requested.
      * onSuccess would be called if the new version info can be successfully retrieved
      * and onFailure if it fails.
-     * This will not run if there is no internet connection available. **/
+     * This will not run if there is no internet connection available.
+     * If the endpoint is linked to the other endpoints of an AutoAppUpdater, the check starts from the first endpoint. **/
     public void update() {
-        queue.add(getRequest());
+        if (fallbackChain == null) start(null, false, null);
+        else fallbackChain.start();
+    }
+
+    /** Starts a new update check with a copy of the current configuration, recording the metrics of each stage.
+     * @param run The run of the fallback chain that the endpoint is tried in, or null if the endpoint is not linked.
+     * @param isFallback Whether the endpoint is run because the previous endpoint failed.
+     * @param resultListener The listener of a headless check, or null if the update dialog should be shown. **/
+    private void start(FallbackChain<Endpoint>.Run run, boolean isFallback, AutoAppUpdater.ResultListener resultListener) {
+        Tracer tracer = Tracer.getDefault();
+        tracer.beginSection("Endpoint.update");
+        try {
+            final Check check = new Check(this, run, isFallback, resultListener);
+            tracer.beginAsyncSection(CHECK_SECTION, check.traceCookie);
+            final HttpRequest httpRequest = getHttpRequest();
+            if (httpRequest == null) {
+                volleyChecks.add(check);
+                runInCheck(check, new Runnable() {
+                    @Override
+                    public void run() {
+                        queue.add(getRequest());
+                    }
+                });
+            } else {
+                check.metrics.setRequestUrl(httpRequest.getUrl());
+                UpdaterExecutors.background().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fetch(check, httpRequest);
+                    }
+                });
+            }
+        } finally {
+            tracer.endSection();
+        }
+    }
+
+    /** Gets the update check of this endpoint that is being parsed or reported on the current thread.
+     * If the Volley listeners are not wrapped, the oldest check whose Volley request has not been reported is used instead.
+     * Returns null if no check is found. **/
+    private Check findCheck() {
+        Check check = currentCheck.get();
+        return check != null && check.endpoint == this ? check : volleyChecks.peek();
+    }
+
+    /** Gets the update check of this endpoint that is being parsed or reported on the current thread.
+     * @throws IllegalStateException If no check is found, e.g. if this is called outside of onResponse. **/
+    @NonNull
+    private Check requireCheck() {
+        Check check = findCheck();
+        if (check == null) throw new IllegalStateException("No update check of the endpoint is running on this thread.");
+        return check;
+    }
+
+    /** Runs the task with the update check set as the current check of the thread.
+     * @param check The update check.
+     * @param task The task that is run. **/
+    private static void runInCheck(@NonNull Check check, @NonNull Runnable task) {
+        Check previousCheck = currentCheck.get();
+        currentCheck.set(check);
+        try {
+            task.run();
+        } finally {
+            if (previousCheck == null) currentCheck.remove();
+            else currentCheck.set(previousCheck);
+        }
+    }
+
+    /** Gets the update type of the check that is being parsed, or of the endpoint if no check is running.
+     * This should be used instead of updateType while parsing, as the endpoint may be configured again in the meantime. **/
+    protected AutoAppUpdater.UpdateType getUpdateType() {
+        Check check = findCheck();
+        return check == null ? updateType : check.updateType;
+    }
+
+    /** Gets the key which identifies the update check of this endpoint,
+     * so that concurrent checks with the same configuration could be coalesced into one.
+     * This is based on the request from getHttpRequest and the current version of the app.
+     * Endpoints that only use getRequest are identified by the instance itself. **/
+    @NonNull
+    public String getCheckKey() {
+        HttpRequest request = getHttpRequest();
+        String target = request == null ? String.format("%s@%s", getClass().getName(), System.identityHashCode(this))
+                : String.format("%s %s", request.getMethod(), request.getUrl());
+        String currentVersion = updateType == AutoAppUpdater.UpdateType.INCREMENTAL ? String.valueOf(currentVersionInt)
+                : (updateType == AutoAppUpdater.UpdateType.DECIMAL_INCREMENTAL ? String.valueOf(currentVersionDecimal) : currentVersionStr);
+        return String.format("%s %s %s", target, updateType, currentVersion);
     }
 
     /** Gets the Volley request for the current endpoint.
-     * onFailure can be thrown from here if the request fails. **/
-    public abstract Request<?> getRequest();
+     * This is only used if getHttpRequest returns null, and returns null by default.
+     * onFailure can be thrown from here if the request fails.
+     * The listeners of the request should be wrapped with wrapListener and wrapErrorListener,
+     * so that the update check that sent the request is reported even if several checks are running at the same time,
+     * and so that the check fails if the listener returns without calling onSuccess or onFailure. **/
+    public Request<?> getRequest() {
+        return null;
+    }
+
+    /** Wraps the listener of the Volley request, so that it is run within the update check that sent the request.
+     * This should only be called from getRequest.
+     * @param listener The listener that parses the response and calls onSuccess.
+     * @throws IllegalStateException If this is called outside of getRequest. **/
+    @NonNull
+    protected <T> Response.Listener<T> wrapListener(@NonNull final Response.Listener<T> listener) {
+        final Check check = requireCheck();
+        return new Response.Listener<T>() {
+            @Override
+            public void onResponse(final T response) {
+                runVolleyCallback(check, new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onResponse(response);
+                    }
+                }, new IllegalStateException("The Volley listener did not report the result of the update check."));
+            }
+        };
+    }
+
+    /** Wraps the error listener of the Volley request, so that it is run within the update check that sent the request.
+     * This should only be called from getRequest.
+     * @param listener The listener that calls onFailure.
+     * @throws IllegalStateException If this is called outside of getRequest. **/
+    @NonNull
+    protected Response.ErrorListener wrapErrorListener(@NonNull final Response.ErrorListener listener) {
+        final Check check = requireCheck();
+        return new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(final VolleyError error) {
+                runVolleyCallback(check, new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onErrorResponse(error);
+                    }
+                }, error);
+            }
+        };
+    }
+
+    /** Runs the callback of a Volley request within the update check, and fails the check if the callback
+     * returns without calling onSuccess or onFailure, as the check would otherwise never end.
+     * @param check The update check that sent the request.
+     * @param callback The listener of the request.
+     * @param error The error that the check fails with if the callback does not report the result. **/
+    private void runVolleyCallback(@NonNull Check check, @NonNull Runnable callback, @NonNull final Exception error) {
+        runInCheck(check, callback);
+        if (check.isFinished()) return;
+        runInCheck(check, new Runnable() {
+            @Override
+            public void run() {
+                onFailure(error);
+            }
+        });
+    }
+
+    /** Gets the request that would be sent through the HttpTransport of the endpoint.
+     * If this returns null (the default), the Volley request from getRequest would be used instead.
+     * The response would be passed to onResponse. **/
+    protected HttpRequest getHttpRequest() {
+        return null;
+    }
+
+    /** Parses the response of the request from getHttpRequest. This is called on a background thread,
+     * so the update dialog should not be modified here. The details of the release should be set in getRelease() instead.
+     * This needs to be overridden if getHttpRequest is used, and should call onSuccess with the parsed values.
+     * JSONExceptions, NumberFormatExceptions and IllegalStateExceptions thrown from here would be passed to onFailure.
+     * @param response The body of the response. **/
+    protected void onResponse(@NonNull String response) throws JSONException {
+        throw new IllegalStateException("onResponse needs to be overridden if getHttpRequest is used.");
+    }
+
+    /** Sends the request through the transport, then reads and parses the response.
+     * This is run on a background thread, and only the result of the update check is passed to the main thread.
+     * @param check The update check that the request is sent for.
+     * @param request The request from getHttpRequest. **/
+    private void fetch(@NonNull Check check, @NonNull HttpRequest request) {
+        UpdateCheckMetrics.Builder checkMetrics = check.metrics;
+        checkMetrics.setQueueWaitMillis(SystemClock.elapsedRealtime() - checkMetrics.getStartTime());
+        HttpResponse response = null;
+        String responseBody;
+        Tracer tracer = Tracer.getDefault();
+        tracer.beginSection("Endpoint.request");
+        try {
+            response = check.transport.newCall(request).execute();
+            checkMetrics.setConnectMillis(response.getConnectMillis()).setFirstByteMillis(response.getFirstByteMillis());
+            if (!response.isSuccessful()) throw new HttpStatusException(response);
+            long transferStartTime = SystemClock.elapsedRealtime();
+            responseBody = response.readBodyAsString();
+            checkMetrics.setTransferMillis(SystemClock.elapsedRealtime() - transferStartTime);
+        } catch (IOException e) {
+            postFailure(check, e);
+            return;
+        } finally {
+            if (response != null) response.close();
+            tracer.endSection();
+        }
+        tracer.beginSection("Endpoint.parse");
+        currentCheck.set(check);
+        try {
+            check.parseStartTime = SystemClock.elapsedRealtime();
+            onResponse(responseBody);
+            // The check would otherwise never end, e.g. if onResponse returns without calling onSuccess
+            if (!check.isFinished()) postFailure(check, new IllegalStateException("onResponse did not report the result of the update check."));
+        } catch (JSONException e) {
+            Log.w("AutoAppUpdater", "Unable to get attributes from JSON response, stack trace is");
+            e.printStackTrace();
+            postFailure(check, e);
+        } catch (NumberFormatException e) {
+            Log.w("AutoAppUpdater", "Unable to parse version tag to either an int or a float, stack trace is");
+            e.printStackTrace();
+            postFailure(check, e);
+        } catch (IllegalStateException e) {
+            Log.w("AutoAppUpdater", String.format("%s", e.getMessage()));
+            e.printStackTrace();
+            postFailure(check, e);
+        } catch (RuntimeException e) {
+            Log.w("AutoAppUpdater", "Unable to parse the response, stack trace is");
+            e.printStackTrace();
+            postFailure(check, e);
+        } finally {
+            currentCheck.remove();
+            tracer.endSection();
+        }
+    }
+
+    /** Passes the error to onFailure on the main thread.
+     * @param check The update check that failed.
+     * @param error The error that caused the endpoint to fail. **/
+    private void postFailure(@NonNull final Check check, @NonNull final Exception error) {
+        UpdaterExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                runInCheck(check, new Runnable() {
+                    @Override
+                    public void run() {
+                        onFailure(error);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Gets the transport of the endpoint, or the default transport if it is not set. **/
+    @NonNull
+    protected HttpTransport getTransport() {
+        return transport == null ? HttpTransport.getDefault() : transport;
+    }
+
+    /** Gets the details of the release that is being parsed, such as the release info and the download size.
+     * These would be passed to the update dialog together with the version once onSuccess is called.
+     * Each update check has its own details, so this should only be called while the response is being parsed.
+     * @throws IllegalStateException If no update check of the endpoint is running on this thread. **/
+    @NonNull
+    protected UpdateCheckResult.Builder getRelease() {
+        return requireCheck().getRelease();
+    }
 
     /** The function that is called if the latest version is able to be successfully retrieved.
      * This function would only be called if the update type is UpdateType.DIFFERENCE or UpdateType.SEMANTIC.
      * @param version The latest version of the app.
      * @param downloadLink The download link for the APK. **/
     public void onSuccess(@NonNull String version, @NonNull String downloadLink) {
-        boolean isSemanticUpdate = false;
+        Check check = requireCheck();
+        long comparisonStartTime = SystemClock.elapsedRealtime();
+        boolean isUpdateAvailable;
         try {
-            isSemanticUpdate = updateType == AutoAppUpdater.UpdateType.SEMANTIC &&
-                    new Semver(version).isGreaterThan(currentVersionStr);
+            isUpdateAvailable = VersionComparator.isNewer(version, check.currentVersionStr,
+                    check.updateType == AutoAppUpdater.UpdateType.SEMANTIC);
         } catch (SemverException | IllegalArgumentException e) {
-            onFailure(e);
-        }
-        if (isSemanticUpdate || (updateType == AutoAppUpdater.UpdateType.DIFFERENCE && !version.equals(currentVersionStr))) {
-            updateDialog.setCurrentVersion(currentVersionStr);
-            updateDialog.setNewVersion(version);
-            updateApp(downloadLink);
+            postFailure(check, e);
+            return;
+        } finally {
+            recordComparison(check, comparisonStartTime);
         }
+        deliverRelease(check, check.getRelease().setCurrentVersion(check.currentVersionStr).setNewVersion(version)
+                .setDownloadUrl(downloadLink).setUpdateAvailable(isUpdateAvailable));
     }
 
     /** The function that is called if the latest version is able to be successfully retrieved.
@@ -164,7 +513,7 @@ public abstract class Endpoint {
      * @param downloadLink The download link for the APK.
      * @param learnMoreLink The link accessed by the user to learn more about the latest update. **/
     public void onSuccess(@NonNull String version, @NonNull String downloadLink, String learnMoreLink) {
-        setUpdateDialogLearnMore(learnMoreLink);
+        getRelease().setShowLearnMore(true).setLearnMoreUrl(learnMoreLink);
         onSuccess(version, downloadLink);
     }
 
@@ -173,11 +522,11 @@ public abstract class Endpoint {
      * @param version The latest version of the app.
      * @param downloadLink The download link for the APK.**/
     public void onSuccess(int version, @NonNull String downloadLink) {
-        if (version > currentVersionInt) {
-            updateDialog.setCurrentVersion(String.valueOf(version));
-            updateDialog.setNewVersion(String.valueOf(version));
-            updateApp(downloadLink);
-        }
+        Check check = requireCheck();
+        recordComparison(check, SystemClock.elapsedRealtime());
+        deliverRelease(check, check.getRelease().setCurrentVersion(String.valueOf(check.currentVersionInt))
+                .setNewVersion(String.valueOf(version)).setDownloadUrl(downloadLink)
+                .setUpdateAvailable(VersionComparator.isNewer(version, check.currentVersionInt)));
     }
 
     /** The function that is called if the latest version is able to be successfully retrieved.
@@ -187,7 +536,7 @@ public abstract class Endpoint {
      * @param downloadLink The download link for the APK.
      * @param learnMoreLink The link accessed by the user to learn more about the latest update.**/
     public void onSuccess(int version, @NonNull String downloadLink, String learnMoreLink) {
-        setUpdateDialogLearnMore(learnMoreLink);
+        getRelease().setShowLearnMore(true).setLearnMoreUrl(learnMoreLink);
         onSuccess(version, downloadLink);
     }
 
@@ -196,11 +545,11 @@ public abstract class Endpoint {
      * @param version The latest version of the app.
      * @param downloadLink The download link for the APK.**/
     public void onSuccess(float version, @NonNull String downloadLink) {
-        if (version > currentVersionDecimal) {
-            updateDialog.setCurrentVersion(String.valueOf(version));
-            updateDialog.setNewVersion(String.valueOf(version));
-            updateApp(downloadLink);
-        }
+        Check check = requireCheck();
+        recordComparison(check, SystemClock.elapsedRealtime());
+        deliverRelease(check, check.getRelease().setCurrentVersion(String.valueOf(check.currentVersionDecimal))
+                .setNewVersion(String.valueOf(version)).setDownloadUrl(downloadLink)
+                .setUpdateAvailable(VersionComparator.isNewer(version, check.currentVersionDecimal)));
     }
 
     /** The function that is called if the latest version is able to be successfully retrieved.
@@ -210,22 +559,106 @@ public abstract class Endpoint {
      * @param downloadLink The download link for the APK.
      * @param learnMoreLink The link accessed by the user to learn more about the latest update.**/
     public void onSuccess(float version, @NonNull String downloadLink, String learnMoreLink) {
-        setUpdateDialogLearnMore(learnMoreLink);
+        getRelease().setShowLearnMore(true).setLearnMoreUrl(learnMoreLink);
         onSuccess(version, downloadLink);
     }
 
-    /** Sets the 'Learn More' URL for the update dialog.
-     * @param learnMoreLink The link accessed by the user to learn more about the latest update. **/
-    private void setUpdateDialogLearnMore(String learnMoreLink) {
-        updateDialog.setShowLearnMore(true);
-        updateDialog.setLearnMoreUrl(learnMoreLink);
+    /** The function that is called with the release that is parsed by the endpoint.
+     * The details of the release are added to the result, and the version is converted based on the update type
+     * before it is passed to the corresponding onSuccess.
+     * @param release The latest release of the app. **/
+    protected void onRelease(@NonNull Release release) throws NumberFormatException {
+        getRelease().setReleaseInfo(release.getReleaseInfo()).setDownloadSize(release.getDownloadSize())
+                .setLearnMoreUrl(release.getLearnMoreUrl());
+        AutoAppUpdater.UpdateType checkUpdateType = getUpdateType();
+        if (checkUpdateType == AutoAppUpdater.UpdateType.DECIMAL_INCREMENTAL) onSuccess(Float.parseFloat(release.getVersion()), release.getDownloadUrl());
+        else if (checkUpdateType == AutoAppUpdater.UpdateType.INCREMENTAL) onSuccess(Integer.parseInt(release.getVersion()), release.getDownloadUrl());
+        else onSuccess(release.getVersion(), release.getDownloadUrl());
+    }
+
+    /** Builds the result of the update check and passes it to onResult on the main thread,
+     * or to the listener if it is a headless check. Only the first result or error of a check is passed on.
+     * @param check The update check that is completed.
+     * @param release The details of the release. **/
+    private void deliverRelease(@NonNull final Check check, @NonNull UpdateCheckResult.Builder release) {
+        if (!check.finish()) return;
+        final UpdateCheckResult result = release.setSourceEndpoint(getClass().getName()).build();
+        final UpdateCheckMetrics.Builder checkMetrics = check.metrics;
+        if (check.parseStartTime >= 0) {
+            checkMetrics.setParseMillis(SystemClock.elapsedRealtime() - check.parseStartTime
+                    - Math.max(checkMetrics.getComparisonMillis(), 0));
+        }
+        final long postTime = SystemClock.elapsedRealtime();
+        UpdaterExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                UpdaterEventLog.record(UpdaterEventLog.CHECK_COMPLETED, Endpoint.this.getClass().getName(),
+                        result.isUpdateAvailable() ? 1 : 0);
+                if (check.resultListener != null) {
+                    endCheckSection(check);
+                    reportMetrics(check, checkMetrics.setSuccessful(result.isUpdateAvailable()));
+                    check.resultListener.onResult(result);
+                    return;
+                }
+                try {
+                    runInCheck(check, new Runnable() {
+                        @Override
+                        public void run() {
+                            onResult(result);
+                        }
+                    });
+                } finally {
+                    // The updater is always told that the check has ended, even if onResult throws
+                    endCheckSection(check);
+                    if (result.isUpdateAvailable()) checkMetrics.setDialogMillis(SystemClock.elapsedRealtime() - postTime);
+                    reportMetrics(check, checkMetrics.setSuccessful(result.isUpdateAvailable()));
+                    if (check.updater != null) check.updater.onResult(result);
+                }
+            }
+        });
+    }
+
+    /** Adds the time taken to compare the versions to the metrics of the update check.
+     * @param check The update check.
+     * @param comparisonStartTime The time that the comparison is started, from SystemClock.elapsedRealtime(). **/
+    private static void recordComparison(@NonNull Check check, long comparisonStartTime) {
+        check.metrics.addComparisonMillis(SystemClock.elapsedRealtime() - comparisonStartTime);
+    }
+
+    /** Passes the metrics of the update check to its metrics listener, if any.
+     * @param check The update check.
+     * @param checkMetrics The metrics of the update check. **/
+    private static void reportMetrics(@NonNull Check check, @NonNull UpdateCheckMetrics.Builder checkMetrics) {
+        if (check.metricsListener == null) return;
+        check.metricsListener.onMetrics(checkMetrics.setTotalMillis(SystemClock.elapsedRealtime() - checkMetrics.getStartTime()).build());
+    }
+
+    /** Ends the async section of the update check. **/
+    private static void endCheckSection(@NonNull Check check) {
+        Tracer.getDefault().endAsyncSection(CHECK_SECTION, check.traceCookie);
+    }
+
+    /** The function that is called on the main thread once the update check is completed.
+     * If a newer version is found, a new update dialog would be shown with the details of the release.
+     * @param result The result of the update check. **/
+    protected void onResult(@NonNull UpdateCheckResult result) {
+        if (result.isUpdateAvailable()) updateApp(result);
     }
 
     /** Displays the AlertDialog and push notification for updating the app.
-     * @param downloadLink The download link for the APK. **/
-    private void updateApp(String downloadLink) {
-        updateDialog.setDownloadUrl(downloadLink);
-        updateDialog.show(manager, tag);
+     * Each update check shows its own copy of the update dialog, so the configured dialog is not changed.
+     * The APK would be prefetched first if it is enabled in the downloader.
+     * @param result The result of the update check. **/
+    private void updateApp(@NonNull UpdateCheckResult result) {
+        // The host may have been stopped or destroyed while the check is running, e.g. after a deferred check
+        if (manager == null || manager.isDestroyed() || manager.isStateSaved()) {
+            Log.w("Endpoint", "Update dialog not shown as the FragmentManager is destroyed or its state is saved");
+            return;
+        }
+        UpdaterDialog dialog = updateDialog.newDialog(result);
+        dialog.startPrefetch();
+        dialog.show(manager, tag);
+        UpdaterEventLog.record(UpdaterEventLog.DIALOG_SHOWN);
     }
 
     /** The function that is called if the endpoint fails.
@@ -236,21 +669,117 @@ public abstract class Endpoint {
      * Otherwise, the error would be thrown as an IllegalStateException.
      * @param error The error that caused the endpoint to fail. **/
     public void onFailure(@NonNull Exception error) {
-        if (this.backupEndpoint == null && this.updater != null) {
-            this.updater.onFailure(error);
+        Check check = findCheck();
+        if (check != null) {
+            // Only the first result or error of a check is passed on, so a late error does not start another fallback
+            if (!check.finish()) return;
+            reportMetrics(check, check.metrics.setError(error));
+            endCheckSection(check);
+        }
+        UpdaterEventLog.record(UpdaterEventLog.ENDPOINT_FAILED, getClass().getName(), getStatusCode(error));
+        FallbackChain<Endpoint>.Run run = check == null ? null : check.run;
+        AutoAppUpdater checkUpdater = check == null ? this.updater : check.updater;
+        if (run != null && run.getCurrent() == this) {
+            if (this.backupEndpoint != null) {
+                Log.w("AutoAppUpdater", String.format("Endpoint failed with error %s, stack trace is", error.getMessage()));
+                error.printStackTrace();
+            }
+            run.onFailure(error);
+        } else if (this.backupEndpoint == null && checkUpdater != null) {
+            checkUpdater.onFailure(error);
         } else if (this.backupEndpoint == null) {
             throw new IllegalStateException(error);
         } else {
             Log.w("AutoAppUpdater", String.format("Endpoint failed with error %s, stack trace is", error.getMessage()));
             error.printStackTrace();
-            this.backupEndpoint.update();
+            UpdaterEventLog.record(UpdaterEventLog.FALLBACK, this.backupEndpoint.getClass().getName(), -1);
+            this.backupEndpoint.start(null, true, check == null ? null : check.resultListener);
         }
     }
 
+    /** Gets the HTTP status code of the error, or -1 if the error is not caused by a status code.
+     * @param error The error that caused the endpoint to fail. **/
+    private static int getStatusCode(@NonNull Exception error) {
+        if (error instanceof HttpStatusException) return ((HttpStatusException) error).getStatusCode();
+        if (error instanceof VolleyError && ((VolleyError) error).networkResponse != null) {
+            return ((VolleyError) error).networkResponse.statusCode;
+        }
+        return -1;
+    }
+
+    /** Sets the listener that receives the timings of each stage of the update check.
+     * This function does not need to be called manually as it is called within AutoAppUpdater.
+     * @param metricsListener The listener for the metrics, can be null. **/
+    public void setMetricsListener(AutoAppUpdater.MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     /** Sets the AutoAppUpdater which would handle the error.
      * If an updater is not found, an IllegalStateException would be thrown.
      * @param updater The updater which handles the error. **/
     public void setUpdater(AutoAppUpdater updater) {
         this.updater = updater;
     }
+
+    /** The state of a single update check of the endpoint.
+     * The configuration of the endpoint is copied when the check starts,
+     * so that the check is not affected if the endpoint is configured again while it is running. **/
+    private static final class Check {
+        private final Endpoint endpoint;
+        private final FallbackChain<Endpoint>.Run run; // Null if the endpoint is not linked.
+        private final AutoAppUpdater.UpdateType updateType;
+        private final String currentVersionStr;
+        private final int currentVersionInt;
+        private final float currentVersionDecimal;
+        private final HttpTransport transport;
+        private final AutoAppUpdater updater;
+        private final AutoAppUpdater.MetricsListener metricsListener;
+        private final AutoAppUpdater.ResultListener resultListener; // Null unless it is a headless check.
+        private final UpdateCheckMetrics.Builder metrics;
+        private final int traceCookie = Tracer.newCookie();
+        // Only accessed from the thread that parses the response
+        private UpdateCheckResult.Builder release;
+        private long parseStartTime = -1;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        /** Creates the check with the current configuration of the endpoint.
+         * @param endpoint The endpoint that runs the check.
+         * @param run The run of the fallback chain that the endpoint is tried in, can be null.
+         * @param isFallback Whether the endpoint is run because the previous endpoint failed.
+         * @param resultListener The listener of a headless check, can be null. **/
+        Check(@NonNull Endpoint endpoint, FallbackChain<Endpoint>.Run run, boolean isFallback,
+              AutoAppUpdater.ResultListener resultListener) {
+            this.endpoint = endpoint;
+            this.run = run;
+            this.updateType = endpoint.updateType;
+            this.currentVersionStr = endpoint.currentVersionStr;
+            this.currentVersionInt = endpoint.currentVersionInt;
+            this.currentVersionDecimal = endpoint.currentVersionDecimal;
+            this.transport = endpoint.getTransport();
+            // A headless check does not report to the updater, as the updater would show the dialog
+            this.updater = resultListener == null ? endpoint.updater : null;
+            this.metricsListener = endpoint.metricsListener;
+            this.resultListener = resultListener;
+            this.metrics = new UpdateCheckMetrics.Builder(endpoint.getClass().getName(), isFallback);
+        }
+
+        /** Gets the details of the release that is being parsed. **/
+        @NonNull
+        UpdateCheckResult.Builder getRelease() {
+            if (release == null) release = new UpdateCheckResult.Builder();
+            return release;
+        }
+
+        /** Marks the check as finished, returning false if it has already finished. **/
+        boolean finish() {
+            if (!finished.compareAndSet(false, true)) return false;
+            endpoint.volleyChecks.remove(this);
+            return true;
+        }
+
+        /** Returns whether the check has finished with a result or an error. **/
+        boolean isFinished() {
+            return finished.get();
+        }
+    }
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.endpoint;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/** The timings of each stage of an update check by a single endpoint, in milliseconds.
+ * A report is created for every endpoint that is tried, so a check that falls back to a backup endpoint
+ * would have one report for each endpoint, where the reports of the backup endpoints are marked as fallbacks.
+ * Stages that are not run or not measured (e.g. for Volley requests) are -1. **/
+public final class UpdateCheckMetrics {
+    private final String endpointName;
+    private final String requestUrl;
+    private final boolean fallback;
+    private final boolean successful;
+    private final boolean updateAvailable;
+    private final Exception error;
+    private final long queueWaitMillis;
+    private final long connectMillis;
+    private final long firstByteMillis;
+    private final long transferMillis;
+    private final long parseMillis;
+    private final long comparisonMillis;
+    private final long dialogMillis;
+    private final long totalMillis;
+
+    /** Creates the metrics from the builder.
+     * @param builder The builder containing the timings. **/
+    private UpdateCheckMetrics(@NonNull Builder builder) {
+        this.endpointName = builder.endpointName;
+        this.requestUrl = builder.requestUrl;
+        this.fallback = builder.fallback;
+        this.successful = builder.successful;
+        this.updateAvailable = builder.updateAvailable;
+        this.error = builder.error;
+        this.queueWaitMillis = builder.queueWaitMillis;
+        this.connectMillis = builder.connectMillis;
+        this.firstByteMillis = builder.firstByteMillis;
+        this.transferMillis = builder.transferMillis;
+        this.parseMillis = builder.parseMillis;
+        this.comparisonMillis = builder.comparisonMillis;
+        this.dialogMillis = builder.dialogMillis;
+        this.totalMillis = builder.totalMillis;
+    }
+
+    //****** Start of getters ******//
+
+    /** Gets the class name of the endpoint that handled the check. **/
+    @NonNull
+    public String getEndpointName() {
+        return endpointName;
+    }
+
+    /** Gets the URL of the request sent by the endpoint, or null if the endpoint uses a Volley request. **/
+    public String getRequestUrl() {
+        return requestUrl;
+    }
+
+    /** Returns whether the endpoint is run because the previous endpoint failed. **/
+    public boolean isFallback() {
+        return fallback;
+    }
+
+    /** Returns whether the endpoint is able to get the latest version. **/
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /** Returns whether a newer version is found by the endpoint. **/
+    public boolean isUpdateAvailable() {
+        return updateAvailable;
+    }
+
+    /** Gets the error that caused the endpoint to fail, or null if it is successful. **/
+    public Exception getError() {
+        return error;
+    }
+
+    /** Gets the time between update() being called and the request being sent on the background thread. **/
+    public long getQueueWaitMillis() {
+        return queueWaitMillis;
+    }
+
+    /** Gets the time taken to connect to the server, which includes DNS, TCP and TLS. **/
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /** Gets the time from the request being sent to the headers of the response being received. **/
+    public long getFirstByteMillis() {
+        return firstByteMillis;
+    }
+
+    /** Gets the time taken to read the body of the response. **/
+    public long getTransferMillis() {
+        return transferMillis;
+    }
+
+    /** Gets the time taken to parse the response, excluding the version comparison. **/
+    public long getParseMillis() {
+        return parseMillis;
+    }
+
+    /** Gets the time taken to compare the latest version with the current version. **/
+    public long getComparisonMillis() {
+        return comparisonMillis;
+    }
+
+    /** Gets the time between the result being posted to the main thread and the update dialog being shown. **/
+    public long getDialogMillis() {
+        return dialogMillis;
+    }
+
+    /** Gets the time between update() being called and the endpoint completing. **/
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /** The builder used to record the timings while the endpoint is running. **/
+    static class Builder {
+        private final long startTime = SystemClock.elapsedRealtime();
+        private String endpointName;
+        private String requestUrl;
+        private boolean fallback;
+        private boolean successful;
+        private boolean updateAvailable;
+        private Exception error;
+        private long queueWaitMillis = -1;
+        private long connectMillis = -1;
+        private long firstByteMillis = -1;
+        private long transferMillis = -1;
+        private long parseMillis = -1;
+        private long comparisonMillis = -1;
+        private long dialogMillis = -1;
+        private long totalMillis = -1;
+
+        /** Creates the builder for the given endpoint.
+         * @param endpointName The class name of the endpoint.
+         * @param fallback Whether the endpoint is run because the previous endpoint failed. **/
+        Builder(@NonNull String endpointName, boolean fallback) {
+            this.endpointName = endpointName;
+            this.fallback = fallback;
+        }
+
+        /** Sets the URL of the request sent by the endpoint. **/
+        Builder setRequestUrl(String requestUrl) {
+            this.requestUrl = requestUrl;
+            return this;
+        }
+
+        /** Sets the time between update() being called and the request being sent. **/
+        Builder setQueueWaitMillis(long queueWaitMillis) {
+            this.queueWaitMillis = queueWaitMillis;
+            return this;
+        }
+
+        /** Sets the time taken to connect to the server. **/
+        Builder setConnectMillis(long connectMillis) {
+            this.connectMillis = connectMillis;
+            return this;
+        }
+
+        /** Sets the time from the request being sent to the headers being received. **/
+        Builder setFirstByteMillis(long firstByteMillis) {
+            this.firstByteMillis = firstByteMillis;
+            return this;
+        }
+
+        /** Sets the time taken to read the body of the response. **/
+        Builder setTransferMillis(long transferMillis) {
+            this.transferMillis = transferMillis;
+            return this;
+        }
+
+        /** Sets the time taken to parse the response, excluding the version comparison. **/
+        Builder setParseMillis(long parseMillis) {
+            this.parseMillis = parseMillis;
+            return this;
+        }
+
+        /** Adds to the time taken to compare the versions, as an endpoint may compare more than once. **/
+        Builder addComparisonMillis(long comparisonMillis) {
+            this.comparisonMillis = Math.max(this.comparisonMillis, 0) + comparisonMillis;
+            return this;
+        }
+
+        /** Gets the time taken to compare the versions so far, or -1 if they are not compared yet. **/
+        long getComparisonMillis() {
+            return comparisonMillis;
+        }
+
+        /** Sets the time between the result being posted to the main thread and the dialog being shown. **/
+        Builder setDialogMillis(long dialogMillis) {
+            this.dialogMillis = dialogMillis;
+            return this;
+        }
+
+        /** Sets the time between update() being called and the endpoint completing. **/
+        Builder setTotalMillis(long totalMillis) {
+            this.totalMillis = totalMillis;
+            return this;
+        }
+
+        /** Marks the endpoint as successful.
+         * @param updateAvailable Whether a newer version is found. **/
+        Builder setSuccessful(boolean updateAvailable) {
+            this.successful = true;
+            this.updateAvailable = updateAvailable;
+            return this;
+        }
+
+        /** Marks the endpoint as failed.
+         * @param error The error that caused the endpoint to fail. **/
+        Builder setError(@NonNull Exception error) {
+            this.successful = false;
+            this.error = error;
+            return this;
+        }
+
+        /** Gets the time that the endpoint is started, from SystemClock.elapsedRealtime(). **/
+        long getStartTime() {
+            return startTime;
+        }
+
+        /** Creates the metrics from the timings that are recorded. **/
+        @NonNull
+        UpdateCheckMetrics build() {
+            return new UpdateCheckMetrics(this);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.endpoint;
+
+import androidx.annotation.NonNull;
+
+/** The result of an update check, which is parsed and compared on a background thread.
+ * This is immutable so that it could be passed to the main thread, or kept by the caller of a headless check,
+ * without any synchronization. **/
+public final class UpdateCheckResult {
+    private final boolean updateAvailable;
+    private final String currentVersion;
+    private final String newVersion;
+    private final String downloadUrl;
+    private final long downloadSize;
+    private final String releaseInfo;
+    private final String learnMoreUrl;
+    private final boolean showLearnMore;
+    private final String authParam;
+    private final String authString;
+    private final String hash;
+    private final String sourceEndpoint;
+
+    /** Creates the result from the builder.
+     * @param builder The builder containing the values of the result. **/
+    private UpdateCheckResult(@NonNull Builder builder) {
+        this.updateAvailable = builder.updateAvailable;
+        this.currentVersion = builder.currentVersion;
+        this.newVersion = builder.newVersion;
+        this.downloadUrl = builder.downloadUrl;
+        this.downloadSize = builder.downloadSize;
+        this.releaseInfo = builder.releaseInfo;
+        this.learnMoreUrl = builder.learnMoreUrl;
+        this.showLearnMore = builder.showLearnMore;
+        this.authParam = builder.authParam;
+        this.authString = builder.authString;
+        this.hash = builder.hash;
+        this.sourceEndpoint = builder.sourceEndpoint;
+    }
+
+    //****** Start of getters ******//
+
+    /** Returns whether the new version is newer than the current version of the app. **/
+    public boolean isUpdateAvailable() {
+        return updateAvailable;
+    }
+
+    /** Gets the current version of the app. **/
+    public String getCurrentVersion() {
+        return currentVersion;
+    }
+
+    /** Gets the latest version of the app. **/
+    public String getNewVersion() {
+        return newVersion;
+    }
+
+    /** Gets the download link for the APK. **/
+    public String getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    /** Gets the size of the APK in bytes, or -1 if it is unknown. **/
+    public long getDownloadSize() {
+        return downloadSize;
+    }
+
+    /** Gets the release info of the latest version, or null if it is not provided by the endpoint. **/
+    public String getReleaseInfo() {
+        return releaseInfo;
+    }
+
+    /** Gets the link to learn more about the latest version, or null if it is not provided by the endpoint. **/
+    public String getLearnMoreUrl() {
+        return learnMoreUrl;
+    }
+
+    /** Returns whether the 'Learn More' button should be enabled by the endpoint. **/
+    public boolean isShowLearnMore() {
+        return showLearnMore;
+    }
+
+    /** Gets the name of the header used to authenticate the download, or null if no authentication is needed. **/
+    public String getAuthParam() {
+        return authParam;
+    }
+
+    /** Gets the value of the header used to authenticate the download, or null if no authentication is needed. **/
+    public String getAuthString() {
+        return authString;
+    }
+
+    /** Gets the SHA-256 hash of the APK as a hex string, or null if it is not provided by the endpoint. **/
+    public String getHash() {
+        return hash;
+    }
+
+    /** Gets the class name of the endpoint that completed the update check. **/
+    public String getSourceEndpoint() {
+        return sourceEndpoint;
+    }
+
+    /** The builder used to collect the values of the result while the response is being parsed. **/
+    public static class Builder {
+        private boolean updateAvailable;
+        private String currentVersion;
+        private String newVersion;
+        private String downloadUrl;
+        private long downloadSize = -1;
+        private String releaseInfo;
+        private String learnMoreUrl;
+        private boolean showLearnMore;
+        private String authParam;
+        private String authString;
+        private String hash;
+        private String sourceEndpoint;
+
+        /** Sets whether the new version is newer than the current version of the app.
+         * @param updateAvailable Whether an update is available. **/
+        public Builder setUpdateAvailable(boolean updateAvailable) {
+            this.updateAvailable = updateAvailable;
+            return this;
+        }
+
+        /** Sets the current version of the app.
+         * @param currentVersion The current version of the app. **/
+        public Builder setCurrentVersion(String currentVersion) {
+            this.currentVersion = currentVersion;
+            return this;
+        }
+
+        /** Sets the latest version of the app.
+         * @param newVersion The latest version of the app. **/
+        public Builder setNewVersion(String newVersion) {
+            this.newVersion = newVersion;
+            return this;
+        }
+
+        /** Gets the latest version of the app that is set. **/
+        public String getNewVersion() {
+            return newVersion;
+        }
+
+        /** Sets the download link for the APK.
+         * @param downloadUrl The download link for the APK. **/
+        public Builder setDownloadUrl(String downloadUrl) {
+            this.downloadUrl = downloadUrl;
+            return this;
+        }
+
+        /** Sets the size of the APK, which defaults to -1 (unknown).
+         * @param downloadSize The size of the APK in bytes. **/
+        public Builder setDownloadSize(long downloadSize) {
+            this.downloadSize = downloadSize;
+            return this;
+        }
+
+        /** Sets the release info of the latest version.
+         * @param releaseInfo The release info of the latest version. **/
+        public Builder setReleaseInfo(String releaseInfo) {
+            this.releaseInfo = releaseInfo;
+            return this;
+        }
+
+        /** Sets the link to learn more about the latest version.
+         * @param learnMoreUrl The link accessed by the user to learn more about the latest update. **/
+        public Builder setLearnMoreUrl(String learnMoreUrl) {
+            this.learnMoreUrl = learnMoreUrl;
+            return this;
+        }
+
+        /** Sets whether the 'Learn More' button should be enabled.
+         * @param showLearnMore Whether the 'Learn More' button should be enabled. **/
+        public Builder setShowLearnMore(boolean showLearnMore) {
+            this.showLearnMore = showLearnMore;
+            return this;
+        }
+
+        /** Sets the header used to authenticate the download.
+         * @param authParam The name of the header.
+         * @param authString The value of the header. **/
+        public Builder setAuth(String authParam, String authString) {
+            this.authParam = authParam;
+            this.authString = authString;
+            return this;
+        }
+
+        /** Sets the SHA-256 hash of the APK, if it is provided by the endpoint.
+         * @param hash The SHA-256 hash of the APK as a hex string. **/
+        public Builder setHash(String hash) {
+            this.hash = hash;
+            return this;
+        }
+
+        /** Sets the endpoint that completed the update check.
+         * This does not need to be called manually as it is set by the endpoint once the check completes.
+         * @param sourceEndpoint The class name of the endpoint. **/
+        public Builder setSourceEndpoint(String sourceEndpoint) {
+            this.sourceEndpoint = sourceEndpoint;
+            return this;
+        }
+
+        /** Creates the result from the values that are set. **/
+        @NonNull
+        public UpdateCheckResult build() {
+            return new UpdateCheckResult(this);
+        }
+    }
+}
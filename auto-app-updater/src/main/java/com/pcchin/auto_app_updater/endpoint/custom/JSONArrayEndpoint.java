@@ -15,13 +15,11 @@ package com.pcchin.auto_app_updater.endpoint.custom;
 
 import androidx.annotation.NonNull;
 
-import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
 import com.pcchin.auto_app_updater.AutoAppUpdater;
 import com.pcchin.auto_app_updater.endpoint.Endpoint;
+import com.pcchin.auto_app_updater.http.HttpRequest;
+import com.pcchin.auto_app_updater.http.VolleyTransport;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -83,7 +81,7 @@ public class JSONArrayEndpoint extends Endpoint {
     /** Default constructor with the request type and headers specified.
      * The user agent should not be specified in the headers here and instead should be set in setUserAgent.
      * The 'Learn More' button would not be shown if learnMoreAttribute is null.
-     * @param method The REST method used to sent the request.
+     * @param method The REST method used to sent the request (e.g. Request.Method.GET).
      * @param requestUrl The request URL.
      * @param versionAttribute The attribute which points to the version.
      * @param downloadUrlAttribute The attribute which points to the download URL.
@@ -104,51 +102,33 @@ public class JSONArrayEndpoint extends Endpoint {
 
     //****** Start of overridden functions ******//
 
-    /** Gets the JsonArrayRequest required to run the app. **/
+    /** Gets the request required to run the app. **/
     @Override
-    public Request<?> getRequest() {
-        return new JsonArrayRequest(method, requestUrl, null, new Response.Listener<JSONArray>() {
-            @Override
-            public void onResponse(JSONArray response) {
-                try {
-                    parseResponse(response);
-                } catch (JSONException e) {
-                    onFailure(e);
-                }
-            }
-        }, new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                // Forwards the error on
-                onFailure(error);
-            }
-        }) {
-            @Override
-            public Map<String, String> getHeaders() {
-                headers.put("User-agent", userAgent);
-                return headers;
-            }
-
-            @Override
-            protected Response<JSONArray> parseNetworkResponse(@NonNull NetworkResponse response) {
-                return super.parseNetworkResponse(response);
-            }
-        };
+    protected HttpRequest getHttpRequest() {
+        return new HttpRequest.Builder(requestUrl).setMethod(VolleyTransport.getHttpMethod(method))
+                .setHeaders(headers).setHeader("User-agent", userAgent).build();
+    }
+
+    /** Parses the JSONArray that is returned.
+     * @param response The response received from the request. **/
+    @Override
+    protected void onResponse(@NonNull String response) throws JSONException {
+        parseResponse(new JSONArray(response));
     }
 
     /** Parses the JSON Array response.
-     * @param response The response received from the Volley request. **/
+     * @param response The response received from the request. **/
     private void parseResponse(@NonNull JSONArray response) throws JSONException {
         JSONObject firstObject = response.getJSONObject(0);
         String downloadUrl = firstObject.getString(downloadUrlAttribute);
         String learnMoreUrl = null;
         if (learnMoreAttribute != null) learnMoreUrl = firstObject.getString(learnMoreAttribute);
-        if (releaseInfoAttribute != null) updateDialog.setReleaseInfo(releaseInfoAttribute);
-        if (super.updateType == AutoAppUpdater.UpdateType.DIFFERENCE || super.updateType == AutoAppUpdater.UpdateType.SEMANTIC) {
+        if (releaseInfoAttribute != null) getRelease().setReleaseInfo(firstObject.getString(releaseInfoAttribute));
+        if (getUpdateType() == AutoAppUpdater.UpdateType.DIFFERENCE || getUpdateType() == AutoAppUpdater.UpdateType.SEMANTIC) {
             String version = firstObject.getString(versionAttribute);
             if (learnMoreUrl == null) onSuccess(version, downloadUrl);
             else onSuccess(version, downloadUrl, learnMoreUrl);
-        } else if (super.updateType == AutoAppUpdater.UpdateType.INCREMENTAL) {
+        } else if (getUpdateType() == AutoAppUpdater.UpdateType.INCREMENTAL) {
             int version = firstObject.getInt(versionAttribute);
             if (learnMoreUrl == null) onSuccess(version, downloadUrl);
             else onSuccess(version, downloadUrl, learnMoreUrl);
@@ -15,13 +15,9 @@ package com.pcchin.auto_app_updater.endpoint.custom;
 
 import androidx.annotation.NonNull;
 
-import com.android.volley.NetworkResponse;
-import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
 import com.pcchin.auto_app_updater.AutoAppUpdater;
 import com.pcchin.auto_app_updater.endpoint.Endpoint;
+import com.pcchin.auto_app_updater.http.HttpRequest;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -95,50 +91,32 @@ public class JSONObjectEndpoint extends Endpoint {
 
     //****** Start of overridden functions ******//
 
-    /** Gets the JsonObjectRequest required to run the app. **/
+    /** Gets the request required to run the app. **/
     @Override
-    public Request<?> getRequest() {
-        return new JsonObjectRequest(requestUrl, null, new Response.Listener<JSONObject>() {
-            @Override
-            public void onResponse(JSONObject response) {
-                try {
-                    parseResponse(response);
-                } catch (JSONException e) {
-                    onFailure(e);
-                }
-            }
-        }, new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                // Forwards the error on
-                onFailure(error);
-            }
-        }) {
-            @Override
-            public Map<String, String> getHeaders() {
-                headers.put("User-agent", userAgent);
-                return headers;
-            }
-
-            @Override
-            protected Response<JSONObject> parseNetworkResponse(@NonNull NetworkResponse response) {
-                return super.parseNetworkResponse(response);
-            }
-        };
+    protected HttpRequest getHttpRequest() {
+        return new HttpRequest.Builder(requestUrl).setHeaders(headers)
+                .setHeader("User-agent", userAgent).build();
+    }
+
+    /** Parses the JSONObject that is returned.
+     * @param response The response received from the request. **/
+    @Override
+    protected void onResponse(@NonNull String response) throws JSONException {
+        parseResponse(new JSONObject(response));
     }
 
     /** Parses the JSON Object response.
-     * @param response The response received from the Volley request. **/
+     * @param response The response received from the request. **/
     private void parseResponse(@NonNull JSONObject response) throws JSONException {
         String downloadUrl = response.getString(downloadUrlAttribute);
         String learnMoreUrl = null;
         if (learnMoreAttribute != null) learnMoreUrl = response.getString(learnMoreAttribute);
-        if (releaseInfoAttribute != null) updateDialog.setReleaseInfo(response.getString(releaseInfoAttribute));
-        if (super.updateType == AutoAppUpdater.UpdateType.DIFFERENCE || super.updateType == AutoAppUpdater.UpdateType.SEMANTIC) {
+        if (releaseInfoAttribute != null) getRelease().setReleaseInfo(response.getString(releaseInfoAttribute));
+        if (getUpdateType() == AutoAppUpdater.UpdateType.DIFFERENCE || getUpdateType() == AutoAppUpdater.UpdateType.SEMANTIC) {
             String version = response.getString(versionAttribute);
             if (learnMoreUrl == null) onSuccess(version, downloadUrl);
             else onSuccess(version, downloadUrl, learnMoreUrl);
-        } else if (super.updateType == AutoAppUpdater.UpdateType.INCREMENTAL) {
+        } else if (getUpdateType() == AutoAppUpdater.UpdateType.INCREMENTAL) {
             int version = response.getInt(versionAttribute);
             if (learnMoreUrl == null) onSuccess(version, downloadUrl);
             else onSuccess(version, downloadUrl, learnMoreUrl);
@@ -13,18 +13,11 @@
 
 package com.pcchin.auto_app_updater.endpoint.repo;
 
-import android.util.Log;
-
 import androidx.annotation.NonNull;
 
-import com.android.volley.NetworkResponse;
-import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.pcchin.auto_app_updater.AutoAppUpdater;
+import com.pcchin.auto_app_updater.core.ReleaseParser;
 import com.pcchin.auto_app_updater.endpoint.Endpoint;
+import com.pcchin.auto_app_updater.http.HttpRequest;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -36,6 +29,7 @@ import java.util.Map;
 /** Sets the GitHub endpoint for the app.
  * The tag_name of the release will be used as the newer version
  * and the first APK file in that release will be the assets.
+ * If the release contains a gzip compressed APK (.apk.gz), it would be downloaded instead.
  * If the update type is UpdateType.INCREMENTAL, tag_name must be an integer.
  * If the update type is UpdateType.DECIMAL_INCREMENTAL, tag_name must be a valid number.
  * The release info and learn more link would not be shown unless the boolean values
@@ -88,145 +82,35 @@ public class GitHubEndpoint extends Endpoint {
 
     //****** Start of overridden functions ******//
 
-    /** Get the request needed to get the latest APK. If the version list includes pre releases,
-     * a JsonArrayRequest would be returned. Otherwise, a JsonObjectRequest would be returned. **/
+    /** Gets the request needed to get the latest APK. If the version list includes pre releases,
+     * all the releases would be requested from /repos/.../releases.
+     * Otherwise, the latest stable release would be requested from /repos/.../releases/latest. **/
     @Override
-    public Request<?> getRequest() {
-        if (isPrerelease) {
-            return getPreReleaseRequest();
-        } else {
-            return getStableRequest();
-        }
-    }
-
-    //****** Start of custom functions ******//
-
-    /** Gets the pre releases from /repos/.../releases. **/
-    @NonNull
-    private JsonArrayRequest getPreReleaseRequest() {
-        return new JsonArrayRequest(Request.Method.GET, String.format("%s/repos/%s/releases",
-                apiPath, repoPath), null, new Response.Listener<JSONArray>() {
-            @Override
-            public void onResponse(JSONArray response) {
-                try {
-                    parseReleaseList(response);
-                } catch (JSONException e) {
-                    Log.w("GitHubEndpoint", "Unable to get attributes from JSON response, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (NumberFormatException e) {
-                    Log.w("GitHubEndpoint", "Unable to parse version tag to either an int or a float, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (IllegalStateException e) {
-                    Log.w("GitHubEndpoint", String.format("%s", e.getMessage()));
-                    e.printStackTrace();
-                    onFailure(e);
-                }
-            }
-        }, new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                // Forwards the error on
-                onFailure(error);
-            }
-        }) {
-            @Override
-            public Map<String, String> getHeaders() {
-                return getGitHubHeaders();
-            }
-
-            @Override
-            protected Response<JSONArray> parseNetworkResponse(@NonNull NetworkResponse response) {
-                return super.parseNetworkResponse(response);
-            }
-        };
+    protected HttpRequest getHttpRequest() {
+        String requestUrl = isPrerelease ? String.format("%s/repos/%s/releases", apiPath, repoPath)
+                : String.format("%s/repos/%s/releases/latest", apiPath, repoPath);
+        return new HttpRequest.Builder(requestUrl).setHeaders(getGitHubHeaders()).build();
     }
 
-    /** Parses the releases list to get the latest pre release.
-     * and if there are no releases, the function would throw an IllegalStateException.
+    /** Parses the response based on whether pre releases are included.
      * @param response The response received from the request. **/
-    private void parseReleaseList(@NonNull JSONArray response) throws JSONException, NumberFormatException, IllegalStateException {
-        JSONObject targetObject = null;
-        for (int i = 0; i < response.length(); i++) {
-            JSONObject currentRelease = response.getJSONObject(i);
-            boolean isPreRelease = currentRelease.getBoolean("prerelease"),
-                    isDraft = currentRelease.getBoolean("draft");
-            if (!isDraft && isPreRelease) {
-                targetObject = currentRelease;
-                break;
-            }
-        }
-        if (targetObject == null) {
-            throw new IllegalStateException("Asset download link not found in GitHub release!");
+    @Override
+    protected void onResponse(@NonNull String response) throws JSONException {
+        if (isPrerelease) {
+            parseRelease(ReleaseParser.selectGitHubPrerelease(new JSONArray(response)));
         } else {
-            parseRelease(targetObject);
+            parseRelease(new JSONObject(response));
         }
     }
 
-    /** Gets the latest stable release from /repos/.../releases/latest. **/
-    @NonNull
-    private JsonObjectRequest getStableRequest() {
-        return new JsonObjectRequest(String.format("%s/repos/%s/releases/latest", apiPath, repoPath),
-                null, new Response.Listener<JSONObject>() {
-            @Override
-            public void onResponse(JSONObject response) {
-                try {
-                    parseRelease(response);
-                } catch (JSONException e) {
-                    Log.w("GitHubEndpoint", "Unable to get attributes from JSON response, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (NumberFormatException e) {
-                    Log.w("GitHubEndpoint", "Unable to parse version tag to either an int or a float, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (IllegalStateException e) {
-                    Log.w("GitHubEndpoint", String.format("%s", e.getMessage()));
-                    e.printStackTrace();
-                    onFailure(e);
-                }
-            }
-        }, new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                // Forwards the error on
-                onFailure(error);
-            }
-        }) {
-            @Override
-            public Map<String, String> getHeaders() {
-                return getGitHubHeaders();
-            }
-
-            @Override
-            protected Response<JSONObject> parseNetworkResponse(@NonNull NetworkResponse response) {
-                return super.parseNetworkResponse(response);
-            }
-        };
-    }
+    //****** Start of custom functions ******//
 
     /** Parses a specific release to get the version and download info.
      * @param response The JSON object for a specific GitHub release. **/
     private void parseRelease(@NonNull JSONObject response) throws JSONException,
             NumberFormatException, IllegalStateException {
-        String versionTag = response.getString("tag_name"), downloadLink = null;
-        JSONArray assetsList = response.getJSONArray("assets");
-        for (int i = 0; i < assetsList.length(); i++) {
-            JSONObject currentObject = assetsList.getJSONObject(i);
-            String assetType = currentObject.getString("content_type");
-            if (assetType.equals("application/vnd.android.package-archive")) {
-                downloadLink = currentObject.getString("browser_download_url");
-                break;
-            }
-        }
-        if (oAuthToken != null)  updateDialog.setAuth("Authorization", String.format("token %s", oAuthToken));
-        updateDialog.setReleaseInfo(response.getString("body"));
-        updateDialog.setLearnMoreUrl(response.getString("html_url"));
-        if (downloadLink == null) throw new IllegalStateException("Asset download link not found in GitHub release!");
-        if (super.updateType == AutoAppUpdater.UpdateType.DECIMAL_INCREMENTAL) onSuccess(Float.parseFloat(versionTag), downloadLink);
-        else if (super.updateType == AutoAppUpdater.UpdateType.INCREMENTAL) onSuccess(Integer.parseInt(versionTag), downloadLink);
-        else onSuccess(versionTag, downloadLink);
+        if (oAuthToken != null)  getRelease().setAuth("Authorization", String.format("token %s", oAuthToken));
+        onRelease(ReleaseParser.parseGitHubRelease(response));
     }
 
     /** Gets the GitHub headers needed for the requests. **/
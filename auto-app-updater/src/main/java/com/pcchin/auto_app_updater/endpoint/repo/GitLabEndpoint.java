@@ -13,21 +13,14 @@
 
 package com.pcchin.auto_app_updater.endpoint.repo;
 
-import android.util.Log;
-
 import androidx.annotation.NonNull;
 
-import com.android.volley.NetworkResponse;
-import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
-import com.pcchin.auto_app_updater.AutoAppUpdater;
+import com.pcchin.auto_app_updater.core.ReleaseParser;
 import com.pcchin.auto_app_updater.endpoint.Endpoint;
+import com.pcchin.auto_app_updater.http.HttpRequest;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -35,6 +28,7 @@ import java.util.Map;
 /** Sets the GitLab endpoint for the app.
  * The tag_name of the release will be used as the newer version
  * and the first APK file in that release will be the assets.
+ * If the release contains a gzip compressed APK (.apk.gz), it would be downloaded instead.
  * If the update type is UpdateType.INCREMENTAL, tag_name must be an integer.
  * If the update type is UpdateType.DECIMAL_INCREMENTAL, tag_name must be a valid number.
  * Only the latest release will be taken into account.
@@ -101,74 +95,29 @@ public class GitLabEndpoint extends Endpoint {
 
     /** Gets all the releases from /api/v4/projects/.../releases. **/
     @Override
-    public Request<?> getRequest() {
-        return new JsonArrayRequest(Request.Method.GET, String.format("%s/api/v4/projects/%s/releases",
-                apiPath, projectId), null, new Response.Listener<JSONArray>() {
-            @Override
-            public void onResponse(JSONArray response) {
-                try {
-                    parseReleaseList(response);
-                } catch (JSONException e) {
-                    Log.w("GitLabEndpoint", "Unable to get attributes from JSON response, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (NumberFormatException e) {
-                    Log.w("GitLabEndpoint", "Unable to parse version tag to either an int or a float, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (IllegalStateException e) {
-                    Log.w("GitLabEndpoint", String.format("%s", e.getMessage()));
-                    e.printStackTrace();
-                    onFailure(e);
-                }
-            }
-        }, new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                // Forwards the error on
-                onFailure(error);
-            }
-        }) {
-            @Override
-            public Map<String, String> getHeaders() {
-                return getGitLabHeaders();
-            }
-
-            @Override
-            protected Response<JSONArray> parseNetworkResponse(@NonNull NetworkResponse response) {
-                return super.parseNetworkResponse(response);
-            }
-        };
+    protected HttpRequest getHttpRequest() {
+        return new HttpRequest.Builder(String.format("%s/api/v4/projects/%s/releases", apiPath, projectId))
+                .setHeaders(getGitLabHeaders()).build();
+    }
+
+    /** Parses the list of releases that is returned.
+     * @param response The response received from the request. **/
+    @Override
+    protected void onResponse(@NonNull String response) throws JSONException {
+        parseReleaseList(new JSONArray(response));
     }
 
     /** Parses the release list to get the latest non-draft release.
      * If a pre-release version is requested but there are no pre-releases,
      * the latest stable version would be used instead.
-     * @param response The response returned from the GitLab request. **/
+     * @param response The response returned from the GitLab request.
+     * @deprecated The response is parsed in onResponse, and this could only be called within an update check of the endpoint.
+     * Use ReleaseParser.parseGitLabReleaseList to parse a release list outside of an update check. **/
+    @Deprecated
     public void parseReleaseList(@NonNull JSONArray response) throws JSONException, NumberFormatException, IllegalStateException {
-        JSONObject targetObject = null;
-        if (response.length() > 0) targetObject = response.getJSONObject(0);
-        if (targetObject == null) throw new IllegalStateException("No releases found in GitLab release list!");
-        String versionTag = targetObject.getString("tag_name");
-        String downloadLink = null;
-        JSONObject assets = targetObject.getJSONObject("assets");
-        JSONArray linksList = assets.getJSONArray("links");
-        for (int i = 0; i < linksList.length(); i++) {
-            JSONObject currentObject = linksList.getJSONObject(i);
-            String linkName = currentObject.getString("name");
-            if (linkName.endsWith(".apk")) {
-                downloadLink = currentObject.getString("direct_asset_url");
-                break;
-            }
-        }
-        if (authMethod == GitLabAuth.PRIVATE_TOKEN) updateDialog.setAuth("Private-Token", String.format("%s", authString));
-        else if (authMethod == GitLabAuth.OAUTH2) updateDialog.setAuth("Authorization", String.format("Bearer %s", authString));
-        updateDialog.setReleaseInfo(targetObject.getString("description"));
-        updateDialog.setLearnMoreUrl(targetObject.getJSONObject("_links").getString("self"));
-        if (downloadLink == null) throw new IllegalStateException("Asset download link not found in GitHub release!");
-        if (super.updateType == AutoAppUpdater.UpdateType.DECIMAL_INCREMENTAL) onSuccess(Float.parseFloat(versionTag), downloadLink);
-        else if (super.updateType == AutoAppUpdater.UpdateType.INCREMENTAL) onSuccess(Integer.parseInt(versionTag), downloadLink);
-        else onSuccess(versionTag, downloadLink);
+        if (authMethod == GitLabAuth.PRIVATE_TOKEN) getRelease().setAuth("Private-Token", String.format("%s", authString));
+        else if (authMethod == GitLabAuth.OAUTH2) getRelease().setAuth("Authorization", String.format("Bearer %s", authString));
+        onRelease(ReleaseParser.parseGitLabReleaseList(response));
     }
 
     //****** Start of custom functions ******//
@@ -13,17 +13,11 @@
 
 package com.pcchin.auto_app_updater.endpoint.repo;
 
-import android.util.Log;
-
 import androidx.annotation.NonNull;
 
-import com.android.volley.NetworkResponse;
-import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
-import com.pcchin.auto_app_updater.AutoAppUpdater;
+import com.pcchin.auto_app_updater.core.ReleaseParser;
 import com.pcchin.auto_app_updater.endpoint.Endpoint;
+import com.pcchin.auto_app_updater.http.HttpRequest;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -35,6 +29,7 @@ import java.util.Map;
 /** Sets the Gitea endpoint for the app.
  * The tag_name of the release will be used as the newer version
  * and the first APK file in that release will be the assets.
+ * If the release contains a gzip compressed APK (.apk.gz), it would be downloaded instead.
  * If the update type is UpdateType.INCREMENTAL, tag_name must be an integer.
  * If the update type is UpdateType.DECIMAL_INCREMENTAL, tag_name must be a valid number.
  * The release info and learn more link would not be shown unless the boolean values
@@ -105,86 +100,38 @@ public class GiteaEndpoint extends Endpoint {
 
     /** Gets all the releases from /api/v1/repos/.../releases. **/
     @Override
-    public Request<?> getRequest() {
-        return new JsonArrayRequest(Request.Method.GET, String.format("%s/api/v1/repos/%s/releases",
-                apiPath, repoPath), null, new Response.Listener<JSONArray>() {
-            @Override
-            public void onResponse(JSONArray response) {
-                try {
-                    parseReleaseList(response);
-                } catch (JSONException e) {
-                    Log.w("GiteaEndpoint", "Unable to get attributes from JSON response, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (NumberFormatException e) {
-                    Log.w("GiteaEndpoint", "Unable to parse version tag to either an int or a float, stack trace is");
-                    e.printStackTrace();
-                    onFailure(e);
-                } catch (IllegalStateException e) {
-                    Log.w("GiteaEndpoint", String.format("%s", e.getMessage()));
-                    e.printStackTrace();
-                    onFailure(e);
-                }
-            }
-        }, new Response.ErrorListener() {
-            @Override
-            public void onErrorResponse(VolleyError error) {
-                // Forwards the error on
-                onFailure(error);
-            }
-        }) {
-            @Override
-            public Map<String, String> getHeaders() {
-                return getGiteaHeaders();
-            }
-
-            @Override
-            protected Response<JSONArray> parseNetworkResponse(@NonNull NetworkResponse response) {
-                return super.parseNetworkResponse(response);
-            }
-        };
+    protected HttpRequest getHttpRequest() {
+        return new HttpRequest.Builder(String.format("%s/api/v1/repos/%s/releases", apiPath, repoPath))
+                .setHeaders(getGiteaHeaders()).build();
+    }
+
+    /** Parses the list of releases that is returned.
+     * @param response The response received from the request. **/
+    @Override
+    protected void onResponse(@NonNull String response) throws JSONException {
+        parseReleaseList(new JSONArray(response));
     }
 
     /** Parses the release list to get the latest non-draft release.
      * If a pre-release version is requested but there are no pre-releases,
      * the latest stable version would be used instead.
-     * @param response The response of releases received from the request. **/
+     * @param response The response of releases received from the request.
+     * @deprecated The response is parsed in onResponse, and this could only be called within an update check of the endpoint.
+     * Use ReleaseParser.selectGiteaRelease to select a release outside of an update check. **/
+    @Deprecated
     public void parseReleaseList(@NonNull JSONArray response) throws JSONException {
-        JSONObject targetObject = null;
-        for (int i = 0; i < response.length(); i++) {
-            JSONObject currentRelease = response.getJSONObject(i);
-            boolean releaseIsPreRelease = currentRelease.getBoolean("prerelease"),
-                    isDraft = currentRelease.getBoolean("draft");
-            if (!isDraft && ((releaseIsPreRelease && isPreRelease) || (!releaseIsPreRelease && !isPreRelease))) {
-                targetObject = currentRelease;
-                break;
-            }
-        }
-        if (targetObject == null) throw new IllegalStateException("No stable releases found in Gitea release list!");
-        parseRelease(targetObject);
+        parseRelease(ReleaseParser.selectGiteaRelease(response, isPreRelease));
     }
 
     /** Parses a specific release to get the version and download info.
-     * @param response The specific version of the release requested. **/
+     * @param response The specific version of the release requested.
+     * @deprecated The response is parsed in onResponse, and this could only be called within an update check of the endpoint.
+     * Use ReleaseParser.parseGiteaRelease to parse a release outside of an update check. **/
+    @Deprecated
     public void parseRelease(@NonNull JSONObject response) throws JSONException, NumberFormatException, IllegalStateException {
-        String versionTag = response.getString("tag_name"), downloadLink = null;
-        JSONArray assetsList = response.getJSONArray("assets");
-        for (int i = 0; i < assetsList.length(); i++) {
-            JSONObject currentObject = assetsList.getJSONObject(i);
-            String assetName = currentObject.getString("name");
-            if (assetName.endsWith(".apk")) {
-                downloadLink = currentObject.getString("browser_download_url");
-                break;
-            }
-        }
-        if (authMethod == GiteaAuth.TOKEN) updateDialog.setAuth("Authorization", String.format("token %s", authString));
-        else if (authMethod == GiteaAuth.OAUTH2) updateDialog.setAuth("Authorization", String.format("bearer %s", authString));
-        updateDialog.setReleaseInfo(response.getString("body"));
-        updateDialog.setLearnMoreUrl(String.format("%s/%s/releases", apiPath, repoPath));
-        if (downloadLink == null) throw new IllegalStateException("Asset download link not found in GitHub release!");
-        if (super.updateType == AutoAppUpdater.UpdateType.DECIMAL_INCREMENTAL) onSuccess(Float.parseFloat(versionTag), downloadLink);
-        else if (super.updateType == AutoAppUpdater.UpdateType.INCREMENTAL) onSuccess(Integer.parseInt(versionTag), downloadLink);
-        else onSuccess(versionTag, downloadLink);
+        if (authMethod == GiteaAuth.TOKEN) getRelease().setAuth("Authorization", String.format("token %s", authString));
+        else if (authMethod == GiteaAuth.OAUTH2) getRelease().setAuth("Authorization", String.format("bearer %s", authString));
+        onRelease(ReleaseParser.parseGiteaRelease(response, String.format("%s/%s/releases", apiPath, repoPath)));
     }
 
     //****** Start of custom functions ******//
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.http;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/** A single request that is prepared by a HttpTransport to be executed. **/
+public abstract class HttpCall {
+    /** Sends the request and blocks until the status line and headers of the response are received.
+     * The body of the response is not read by this function.
+     * Responses with error status codes are returned and not thrown.
+     * This should not be called on the main thread.
+     * @throws IOException If the request could not be sent, timed out or is canceled. **/
+    @NonNull
+    public abstract HttpResponse execute() throws IOException;
+
+    /** Cancels the call. This can be called from any thread,
+     * and any blocking execute or read of the body would fail with an IOException. **/
+    public abstract void cancel();
+
+    /** Returns whether the call has been canceled. **/
+    public abstract boolean isCanceled();
+}
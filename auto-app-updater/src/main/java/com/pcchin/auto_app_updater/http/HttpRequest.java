@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.http;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** An immutable HTTP request that is sent through a HttpTransport.
+ * Requests should be created through HttpRequest.Builder. **/
+public class HttpRequest {
+    private final String url;
+    private final String method;
+    private final Map<String, String> headers;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final boolean followRedirects;
+
+    /** The constructor for the request, only used by the builder. **/
+    private HttpRequest(@NonNull Builder builder) {
+        this.url = builder.bUrl;
+        this.method = builder.bMethod;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.bHeaders));
+        this.connectTimeoutMillis = builder.bConnectTimeoutMillis;
+        this.readTimeoutMillis = builder.bReadTimeoutMillis;
+        this.followRedirects = builder.bFollowRedirects;
+    }
+
+    /** The builder class for creating the request. **/
+    public static class Builder {
+        private String bUrl;
+        private String bMethod = "GET";
+        private Map<String, String> bHeaders = new LinkedHashMap<>();
+        private int bConnectTimeoutMillis = 15000;
+        private int bReadTimeoutMillis = 30000;
+        private boolean bFollowRedirects = true;
+
+        /** The default constructor for the builder. The request is assumed to be a GET request
+         * with a 15 second connect timeout and a 30 second read timeout.
+         * @param url The URL that the request would be sent to. **/
+        public Builder(@NonNull String url) {
+            this.bUrl = url;
+        }
+
+        /** Creates a builder with all the values of an existing request.
+         * @param request The request that would be copied. **/
+        public Builder(@NonNull HttpRequest request) {
+            this.bUrl = request.url;
+            this.bMethod = request.method;
+            this.bHeaders.putAll(request.headers);
+            this.bConnectTimeoutMillis = request.connectTimeoutMillis;
+            this.bReadTimeoutMillis = request.readTimeoutMillis;
+            this.bFollowRedirects = request.followRedirects;
+        }
+
+        /** Sets the URL of the request.
+         * @param url The URL that the request would be sent to. **/
+        public Builder setUrl(@NonNull String url) {
+            this.bUrl = url;
+            return this;
+        }
+
+        /** Sets the HTTP method of the request, defaults to GET.
+         * @param method The HTTP method (e.g. GET, HEAD, POST) of the request. **/
+        public Builder setMethod(@NonNull String method) {
+            this.bMethod = method;
+            return this;
+        }
+
+        /** Adds a header to the request, replacing any header with the same name.
+         * @param name The name of the header.
+         * @param value The value of the header. **/
+        public Builder setHeader(@NonNull String name, @NonNull String value) {
+            this.bHeaders.put(name, value);
+            return this;
+        }
+
+        /** Adds all the given headers to the request.
+         * @param headers The headers that would be added, can be null. **/
+        public Builder setHeaders(Map<String, String> headers) {
+            if (headers != null) this.bHeaders.putAll(headers);
+            return this;
+        }
+
+        /** Sets the connect timeout of the request, defaults to 15 seconds.
+         * @param connectTimeoutMillis The connect timeout in milliseconds. **/
+        public Builder setConnectTimeout(int connectTimeoutMillis) {
+            this.bConnectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /** Sets the read timeout of the request, which is the maximum time between two reads. Defaults to 30 seconds.
+         * @param readTimeoutMillis The read timeout in milliseconds. **/
+        public Builder setReadTimeout(int readTimeoutMillis) {
+            this.bReadTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /** Sets whether redirects would be followed by the transport, defaults to true.
+         * @param followRedirects Whether to follow redirects. **/
+        public Builder setFollowRedirects(boolean followRedirects) {
+            this.bFollowRedirects = followRedirects;
+            return this;
+        }
+
+        /** Creates the request based on the parameters given. **/
+        public HttpRequest build() {
+            if (bUrl == null) throw new IllegalStateException("URL of the request cannot be null!");
+            return new HttpRequest(this);
+        }
+    }
+
+    //****** Start of getters ******//
+
+    /** Gets the URL of the request. **/
+    @NonNull
+    public String getUrl() {
+        return url;
+    }
+
+    /** Gets the HTTP method of the request. **/
+    @NonNull
+    public String getMethod() {
+        return method;
+    }
+
+    /** Gets an unmodifiable map of the headers of the request. **/
+    @NonNull
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /** Gets the connect timeout of the request in milliseconds. **/
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /** Gets the read timeout of the request in milliseconds. **/
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /** Returns whether redirects would be followed by the transport. **/
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.http;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/** The response returned by a HttpCall.
+ * The body is streamed from the transport, and should only be read once.
+ * The response must be closed after it is used so that the connection can be released or reused. **/
+public abstract class HttpResponse implements Closeable {
+    /** Gets the HTTP status code of the response. **/
+    public abstract int getStatusCode();
+
+    /** Gets the URL that the response is from. If redirects were followed, this is the final URL. **/
+    @NonNull
+    public abstract String getUrl();
+
+    /** Gets the value of the header with the given name, or null if it is not present.
+     * The name of the header is not case sensitive.
+     * @param name The name of the header. **/
+    public abstract String getHeader(@NonNull String name);
+
+    /** Gets all the headers in the response. **/
+    @NonNull
+    public abstract Map<String, List<String>> getHeaders();
+
+    /** Gets the body of the response as a stream.
+     * This would be an empty stream if the response does not have a body. **/
+    @NonNull
+    public abstract InputStream getBody() throws IOException;
+
+    /** Returns whether the status code of the response is in the range of 2xx. **/
+    public boolean isSuccessful() {
+        return getStatusCode() >= 200 && getStatusCode() < 300;
+    }
+
+    /** Gets the length of the body from the Content-Length header, or -1 if it is not known. **/
+    public long getContentLength() {
+        String contentLength = getHeader("Content-Length");
+        if (contentLength == null) return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Gets the time taken to connect to the server in milliseconds, which includes DNS, TCP and TLS.
+     * Returns 0 if a pooled connection is reused, or -1 if it is not measured by the transport. **/
+    public long getConnectMillis() {
+        return -1;
+    }
+
+    /** Gets the time from the request being sent to the headers of the response being received, in milliseconds.
+     * Returns -1 if it is not measured by the transport. **/
+    public long getFirstByteMillis() {
+        return -1;
+    }
+
+    /** Reads the whole body of the response into a String.
+     * The charset is taken from the Content-Type header and defaults to UTF-8.
+     * This should only be used for small bodies, larger bodies should be read from getBody directly. **/
+    @NonNull
+    public String readBodyAsString() throws IOException {
+        long contentLength = getContentLength();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(contentLength > 0 && contentLength < Integer.MAX_VALUE
+                ? (int) contentLength : 8192);
+        InputStream input = getBody();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toString(getCharset());
+    }
+
+    /** Gets the charset of the body from the Content-Type header, defaults to UTF-8. **/
+    @NonNull
+    private String getCharset() {
+        String contentType = getHeader("Content-Type");
+        if (contentType != null) {
+            for (String param: contentType.split(";")) {
+                String[] pair = param.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                    return pair[1].trim().replace("\"", "");
+                }
+            }
+        }
+        return "UTF-8";
+    }
+
+    /** Closes the body of the response. **/
+    @Override
+    public abstract void close();
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.http;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/** The exception that is thrown when a request returns a status code that is not in the range of 2xx. **/
+public class HttpStatusException extends IOException {
+    private final int statusCode;
+    private final String url;
+    private final String retryAfter;
+
+    /** Creates the exception from the response that is returned.
+     * @param response The response with the unsuccessful status code. **/
+    public HttpStatusException(@NonNull HttpResponse response) {
+        this(response.getStatusCode(), response.getUrl(), response.getHeader("Retry-After"));
+    }
+
+    /** Default constructor.
+     * @param statusCode The status code that is returned.
+     * @param url The URL of the request.
+     * @param retryAfter The value of the Retry-After header, can be null. **/
+    public HttpStatusException(int statusCode, String url, String retryAfter) {
+        super(String.format("Request to %s returned status code %s", url, statusCode));
+        this.statusCode = statusCode;
+        this.url = url;
+        this.retryAfter = retryAfter;
+    }
+
+    /** Gets the status code that is returned. **/
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /** Gets the URL of the request. **/
+    public String getUrl() {
+        return url;
+    }
+
+    /** Gets the value of the Retry-After header, or null if it is not present. **/
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+
+    /** Gets the time to wait before retrying the request from the Retry-After header, in milliseconds.
+     * Both the number of seconds and the HTTP date formats are supported.
+     * Returns -1 if the header is not present or invalid. **/
+    public long getRetryAfterMillis() {
+        if (retryAfter == null) return -1;
+        try {
+            long seconds = Long.parseLong(retryAfter.trim());
+            return seconds < 0 ? -1 : seconds * 1000;
+        } catch (NumberFormatException e) {
+            // The header may be an HTTP date instead
+        }
+        try {
+            Date retryDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US).parse(retryAfter.trim());
+            return Math.max(0, retryDate.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.http;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+/** The transport that is used by the updater to send HTTP requests.
+ * Extend this class to send the requests through your own HTTP client.
+ * The default transport is UrlConnectionTransport, and VolleyTransport can be used
+ * to send the requests of the endpoints through an existing Volley request queue.
+ * The APK is always downloaded through UrlConnectionTransport (See getDownloadTransport). **/
+public abstract class HttpTransport {
+    private static volatile HttpTransport defaultTransport;
+    private static final HttpTransport downloadTransport = new UrlConnectionTransport();
+
+    /** Creates a call for the given request, which can then be executed or canceled.
+     * @param request The request that would be sent. **/
+    @NonNull
+    public abstract HttpCall newCall(@NonNull HttpRequest request);
+
+    /** Gets the transport that is used by the endpoints if no other transport is set.
+     * Defaults to UrlConnectionTransport. **/
+    @NonNull
+    public static HttpTransport getDefault() {
+        if (defaultTransport == null) {
+            synchronized (HttpTransport.class) {
+                if (defaultTransport == null) defaultTransport = new UrlConnectionTransport();
+            }
+        }
+        return defaultTransport;
+    }
+
+    /** Sets the transport that is used by the endpoints if no other transport is set.
+     * This should be set when the app starts (e.g. in Application.onCreate) if a custom transport is used.
+     * @param transport The default transport. **/
+    public static void setDefault(@NonNull HttpTransport transport) {
+        defaultTransport = transport;
+    }
+
+    /** Gets the transport that is used to download the APK, to pre-connect to its host and to get its size.
+     * This is always a UrlConnectionTransport and is not changed by setDefault,
+     * as the APK needs to be streamed to the disk instead of being read into memory,
+     * and the redirects of the download URL need to be followed manually. **/
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @NonNull
+    public static HttpTransport getDownloadTransport() {
+        return downloadTransport;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.http;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The default transport, which sends the requests through HttpURLConnection.
+ * The body of the response is streamed directly from the connection,
+ * and the connection would be kept alive for reuse once the response is fully read and closed.
+ * The time taken to connect and to receive the first byte is measured for each response,
+ * although HttpURLConnection does not report DNS, TCP and TLS separately. **/
+public class UrlConnectionTransport extends HttpTransport {
+    /** Creates a call which would be sent through HttpURLConnection.
+     * @param request The request that would be sent. **/
+    @NonNull
+    @Override
+    public HttpCall newCall(@NonNull HttpRequest request) {
+        return new UrlConnectionCall(request);
+    }
+
+    /** A call that is sent through HttpURLConnection. **/
+    private static class UrlConnectionCall extends HttpCall {
+        private final HttpRequest request;
+        private volatile HttpURLConnection connection;
+        private volatile boolean canceled;
+
+        UrlConnectionCall(@NonNull HttpRequest request) {
+            this.request = request;
+        }
+
+        @NonNull
+        @Override
+        public HttpResponse execute() throws IOException {
+            if (canceled) throw new IOException(String.format("Request to %s is canceled", request.getUrl()));
+            HttpURLConnection currentConnection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+            connection = currentConnection;
+            currentConnection.setRequestMethod(request.getMethod());
+            currentConnection.setConnectTimeout(request.getConnectTimeoutMillis());
+            currentConnection.setReadTimeout(request.getReadTimeoutMillis());
+            currentConnection.setInstanceFollowRedirects(request.isFollowRedirects());
+            currentConnection.setUseCaches(false);
+            for (Map.Entry<String, String> header: request.getHeaders().entrySet()) {
+                currentConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            long startTime = SystemClock.elapsedRealtime();
+            currentConnection.connect();
+            long connectTime = SystemClock.elapsedRealtime();
+            int statusCode = currentConnection.getResponseCode();
+            long firstByteTime = SystemClock.elapsedRealtime();
+            if (canceled) {
+                currentConnection.disconnect();
+                throw new IOException(String.format("Request to %s is canceled", request.getUrl()));
+            }
+            return new UrlConnectionResponse(currentConnection, statusCode, "HEAD".equals(request.getMethod()),
+                    connectTime - startTime, firstByteTime - connectTime);
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            HttpURLConnection currentConnection = connection;
+            if (currentConnection != null) currentConnection.disconnect();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+    /** A response from HttpURLConnection. **/
+    private static class UrlConnectionResponse extends HttpResponse {
+        private final HttpURLConnection connection;
+        private final int statusCode;
+        private final boolean hasNoBody;
+        private final long connectMillis;
+        private final long firstByteMillis;
+        private InputStream body;
+
+        UrlConnectionResponse(@NonNull HttpURLConnection connection, int statusCode, boolean hasNoBody,
+                              long connectMillis, long firstByteMillis) {
+            this.connection = connection;
+            this.statusCode = statusCode;
+            this.hasNoBody = hasNoBody;
+            this.connectMillis = connectMillis;
+            this.firstByteMillis = firstByteMillis;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @NonNull
+        @Override
+        public String getUrl() {
+            return connection.getURL().toString();
+        }
+
+        @Override
+        public long getConnectMillis() {
+            return connectMillis;
+        }
+
+        @Override
+        public long getFirstByteMillis() {
+            return firstByteMillis;
+        }
+
+        @Override
+        public String getHeader(@NonNull String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> header: connection.getHeaderFields().entrySet()) {
+                // The status line is stored with a null key
+                if (header.getKey() != null) headers.put(header.getKey(), header.getValue());
+            }
+            return headers;
+        }
+
+        @NonNull
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream stream = null;
+                if (!hasNoBody) stream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+                body = stream == null ? new ByteArrayInputStream(new byte[0]) : stream;
+            }
+            return body;
+        }
+
+        @Override
+        public synchronized void close() {
+            try {
+                // Closing the stream instead of disconnecting allows the connection to be reused
+                if (body != null) body.close();
+                else if (!hasNoBody) connection.disconnect();
+            } catch (IOException e) {
+                connection.disconnect();
+            }
+        }
+    }
+}
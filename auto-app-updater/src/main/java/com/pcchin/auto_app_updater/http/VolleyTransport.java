@@ -0,0 +1,254 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.http;
+
+import androidx.annotation.NonNull;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.RequestFuture;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** The transport that sends the requests of the endpoints through a Volley request queue.
+ * As Volley reads the whole body into memory before delivering the response, the body of the response is not streamed,
+ * so this must not be used for downloads. The APK is always downloaded through UrlConnectionTransport.
+ * Volley always follows redirects, so requests that do not follow redirects are rejected.
+ * Calls from this transport must not be executed on the main thread, as Volley delivers the responses there. **/
+public class VolleyTransport extends HttpTransport {
+    private final RequestQueue queue;
+
+    /** Default constructor.
+     * @param queue The Volley request queue that the requests would be added to. **/
+    public VolleyTransport(@NonNull RequestQueue queue) {
+        this.queue = queue;
+    }
+
+    /** Creates a call which would be added to the Volley request queue.
+     * @param request The request that would be sent.
+     * @throws IllegalArgumentException If the request does not follow redirects, as Volley could not be set to do so. **/
+    @NonNull
+    @Override
+    public HttpCall newCall(@NonNull HttpRequest request) {
+        if (!request.isFollowRedirects()) {
+            throw new IllegalArgumentException(String.format("VolleyTransport could not send the request to %s " +
+                    "without following redirects, use UrlConnectionTransport instead", request.getUrl()));
+        }
+        return new VolleyCall(request);
+    }
+
+    /** Gets the Volley request method for the given HTTP method.
+     * @param method The HTTP method (e.g. GET, HEAD, POST). **/
+    public static int getVolleyMethod(@NonNull String method) {
+        switch (method) {
+            case "POST": return Request.Method.POST;
+            case "PUT": return Request.Method.PUT;
+            case "DELETE": return Request.Method.DELETE;
+            case "HEAD": return Request.Method.HEAD;
+            case "OPTIONS": return Request.Method.OPTIONS;
+            case "TRACE": return Request.Method.TRACE;
+            case "PATCH": return Request.Method.PATCH;
+            default: return Request.Method.GET;
+        }
+    }
+
+    /** Gets the HTTP method for the given Volley request method.
+     * @param method The Volley request method (e.g. Request.Method.GET). **/
+    @NonNull
+    public static String getHttpMethod(int method) {
+        switch (method) {
+            case Request.Method.POST: return "POST";
+            case Request.Method.PUT: return "PUT";
+            case Request.Method.DELETE: return "DELETE";
+            case Request.Method.HEAD: return "HEAD";
+            case Request.Method.OPTIONS: return "OPTIONS";
+            case Request.Method.TRACE: return "TRACE";
+            case Request.Method.PATCH: return "PATCH";
+            default: return "GET";
+        }
+    }
+
+    /** A call that is sent through the Volley request queue. **/
+    private class VolleyCall extends HttpCall {
+        private final HttpRequest request;
+        private volatile RawRequest volleyRequest;
+        private volatile boolean canceled;
+
+        VolleyCall(@NonNull HttpRequest request) {
+            this.request = request;
+        }
+
+        @NonNull
+        @Override
+        public HttpResponse execute() throws IOException {
+            if (canceled) throw new IOException(String.format("Request to %s is canceled", request.getUrl()));
+            RequestFuture<NetworkResponse> future = RequestFuture.newFuture();
+            RawRequest currentRequest = new RawRequest(request, future, future);
+            future.setRequest(currentRequest);
+            volleyRequest = currentRequest;
+            queue.add(currentRequest);
+            try {
+                NetworkResponse response = future.get(request.getConnectTimeoutMillis()
+                        + (long) request.getReadTimeoutMillis(), TimeUnit.MILLISECONDS);
+                return new VolleyResponse(request.getUrl(), response, "HEAD".equals(request.getMethod()));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof VolleyError && ((VolleyError) cause).networkResponse != null) {
+                    // Error status codes are returned instead of thrown
+                    return new VolleyResponse(request.getUrl(), ((VolleyError) cause).networkResponse,
+                            "HEAD".equals(request.getMethod()));
+                }
+                throw new IOException(String.format("Request to %s failed", request.getUrl()), cause);
+            } catch (InterruptedException e) {
+                currentRequest.cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Request to %s is interrupted", request.getUrl()));
+            } catch (TimeoutException e) {
+                currentRequest.cancel();
+                throw new SocketTimeoutException(String.format("Request to %s timed out", request.getUrl()));
+            }
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            RawRequest currentRequest = volleyRequest;
+            if (currentRequest != null) currentRequest.cancel();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+    /** A Volley request that returns the network response without parsing it. **/
+    private static class RawRequest extends Request<NetworkResponse> {
+        private final Response.Listener<NetworkResponse> listener;
+        private final Map<String, String> headers;
+
+        RawRequest(@NonNull HttpRequest request, Response.Listener<NetworkResponse> listener,
+                   Response.ErrorListener errorListener) {
+            super(getVolleyMethod(request.getMethod()), request.getUrl(), errorListener);
+            this.listener = listener;
+            this.headers = request.getHeaders();
+            setShouldCache(false);
+            setRetryPolicy(new DefaultRetryPolicy(request.getConnectTimeoutMillis() + request.getReadTimeoutMillis(),
+                    0, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        protected Response<NetworkResponse> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(response, HttpHeaderParser.parseCacheHeaders(response));
+        }
+
+        @Override
+        protected void deliverResponse(NetworkResponse response) {
+            listener.onResponse(response);
+        }
+    }
+
+    /** A response from Volley, where the body is already in memory. **/
+    private static class VolleyResponse extends HttpResponse {
+        private final String url;
+        private final NetworkResponse response;
+        private final InputStream body;
+
+        VolleyResponse(@NonNull String url, @NonNull NetworkResponse response, boolean hasNoBody) {
+            this.url = url;
+            this.response = response;
+            this.body = new ByteArrayInputStream(hasNoBody || response.data == null ? new byte[0] : response.data);
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.statusCode;
+        }
+
+        @NonNull
+        @Override
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String getHeader(@NonNull String name) {
+            if (response.allHeaders != null) {
+                for (Header header: response.allHeaders) {
+                    if (name.equalsIgnoreCase(header.getName())) return header.getValue();
+                }
+            } else if (response.headers != null) {
+                for (Map.Entry<String, String> header: response.headers.entrySet()) {
+                    if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+                }
+            }
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            if (response.allHeaders != null) {
+                for (Header header: response.allHeaders) {
+                    List<String> values = headers.get(header.getName());
+                    if (values == null) {
+                        values = new ArrayList<>();
+                        headers.put(header.getName(), values);
+                    }
+                    values.add(header.getValue());
+                }
+            } else if (response.headers != null) {
+                for (Map.Entry<String, String> header: response.headers.entrySet()) {
+                    headers.put(header.getKey(), Collections.singletonList(header.getValue()));
+                }
+            }
+            return headers;
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            // The body is in memory, so nothing needs to be released
+        }
+    }
+}
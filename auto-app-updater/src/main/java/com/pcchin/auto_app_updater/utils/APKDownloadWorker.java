@@ -16,51 +16,73 @@ package com.pcchin.auto_app_updater.utils;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
-import androidx.core.content.FileProvider;
 import androidx.work.Data;
 import androidx.work.ForegroundInfo;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
-import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.RequestFuture;
-import com.android.volley.toolbox.Volley;
+import com.pcchin.auto_app_updater.http.HttpRequest;
+import com.pcchin.auto_app_updater.http.HttpResponse;
+import com.pcchin.auto_app_updater.http.HttpStatusException;
+import com.pcchin.auto_app_updater.http.HttpTransport;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
 import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
 
 /** The foreground worker that downloads and installs the updated APK.
  * Input data to this Worker should be inserted through setInputData(Data data).
  * The data that should be present includes:
  * CONTENT_PROVIDER (String): The content provider from the app that is used to open the APK file.
  * DOWNLOAD_URL (String): The URL of the APK that will be downloaded.
- * DOWNLOAD_PATH (String): The path that the APK will be downloaded to.
+ * RESOLVED_URL (String, optional): The final URL of the APK after the redirects, which would be tried first.
+ * DOWNLOAD_DIR (String): The directory that the APK will be downloaded to, named after its SHA-256 hash.
+ * The directory is managed as a cache, which is limited to CACHE_SIZE.
+ * DOWNLOAD_PATH (String, optional): The path that the APK will be downloaded to, which overrides DOWNLOAD_DIR.
  * HEADER_KEYS (String[]): The keys used for the headers in the request that is used to download the file.
  * HEADER_VALUES (String[]): The values for the keys in HEADER_KEYS. Should be the same length as HEADER_KEYS.
  * MAX_RETRY (int): The maximum amount of tries that the worker will run before giving up, defaults to 5.
  * NOTIF_TITLE (String): The title of the notification that will be shown.
  * NOTIF_ICON (int): The icon that will be used when displaying the notification.
  * NOTIF_CHANNEL (String): The channel that is used to display the notification.
- * NOTIF_MSG (String): The message of the notification that will be shown. **/
+ * NOTIF_MSG (String): The message of the notification that will be shown.
+ * CACHE_SIZE (long, optional): The size limit of DOWNLOAD_DIR in bytes, defaults to 100 MB.
+ * PREFETCH (boolean, optional): Whether the APK is only downloaded without being installed, defaults to false.
+ * The progress of the download is published as PROGRESS_BYTES, PROGRESS_TOTAL_BYTES and PROGRESS_BYTES_PER_SECOND.
+ * If the worker fails, the output data contains FAILURE_REASON and FAILURE_MESSAGE,
+ * together with STATUS_CODE for HTTP errors.
+ * The output data also contains the METRIC_ values of the run, whether it succeeds or fails,
+ * which are logged instead if the run is retried as WorkManager does not keep the output data of retries.
+ * Network errors that may be temporary are retried, while errors that would fail again are not.
+ * If the server asks for the download to be retried later with Retry-After, the runs that WorkManager starts before that time
+ * are retried again without sending a request, and are not counted towards MAX_RETRY.
+ * The downloaded bytes are committed in chunks, so that a download which is stopped or interrupted
+ * would continue from the last committed chunk in the next run if the server supports range requests. **/
 public class APKDownloadWorker extends Worker {
     public static final String APK_DOWNLOAD_WORKER = "APKDownloadWorker";
     private static final String FILE_ERROR = "File Error";
@@ -69,8 +91,19 @@ public class APKDownloadWorker extends Worker {
     public static final String CONTENT_PROVIDER = "contentProvider";
     /** The URL of the APK that will be downloaded. **/
     public static final String DOWNLOAD_URL = "downloadUrl";
-    /** The path that the APK will be downloaded to. **/
+    /** The final URL of the APK after following the redirects from DOWNLOAD_URL, which is optional.
+     * The APK would be downloaded from this URL first, and from DOWNLOAD_URL if it fails. **/
+    public static final String RESOLVED_URL = "resolvedUrl";
+    /** The directory that the APK will be downloaded to, where it would be named after its SHA-256 hash. **/
+    public static final String DOWNLOAD_DIR = "downloadDir";
+    /** The size limit of DOWNLOAD_DIR in bytes, the least recently used APKs would be deleted beyond this. **/
+    public static final String CACHE_SIZE = "cacheSize";
+    /** The path that the APK will be downloaded to, which is optional and overrides DOWNLOAD_DIR. **/
     public static final String DOWNLOAD_PATH = "downloadPath";
+    /** The version of the APK, which is used together with the download URL to find it in the APK cache. (String) **/
+    public static final String VERSION = "version";
+    /** The SHA-256 hash of the APK as a hex string, which the APK is verified against if it is provided. (String) **/
+    public static final String EXPECTED_HASH = "expectedHash";
     /** The keys used for the headers in the request that is used to download the file. **/
     public static final String HEADER_KEYS = "headerKeys";
     /** The values for the keys in HEADER_KEYS. Should be the same length as HEADER_KEYS. **/
@@ -85,6 +118,73 @@ public class APKDownloadWorker extends Worker {
     public static final String NOTIF_ICON = "notifIcon";
     /** The channel that is used to display the notification. **/
     public static final String NOTIF_CHANNEL = "notifChannel";
+    /** Whether the APK is only downloaded without being installed, defaults to false.
+     * No notification or toasts would be shown if this is set. **/
+    public static final String PREFETCH = "prefetch";
+    /** The path of the downloaded APK in the output data of the worker,
+     * which is returned together with DOWNLOAD_URL if the worker succeeds. **/
+    public static final String OUTPUT_APK_PATH = "apkPath";
+    /** The number of bytes that are downloaded so far in the progress of the worker. **/
+    public static final String PROGRESS_BYTES = "progressBytes";
+    /** The total number of bytes that would be downloaded in the progress of the worker, or -1 if it is not known. **/
+    public static final String PROGRESS_TOTAL_BYTES = "progressTotalBytes";
+    /** The throughput of the download over the last 5 seconds in bytes per second, in the progress of the worker. **/
+    public static final String PROGRESS_BYTES_PER_SECOND = "progressBytesPerSecond";
+    /** The reason that the worker failed, which is one of the REASON_ values. **/
+    public static final String FAILURE_REASON = "failureReason";
+    /** The message of the error that caused the worker to fail. **/
+    public static final String FAILURE_MESSAGE = "message";
+    /** The HTTP status code that caused the worker to fail, if any. **/
+    public static final String STATUS_CODE = "statusCode";
+    /** The number of times that the worker has been retried by WorkManager before this run,
+     * not counting the runs that waited for the time asked by the server. **/
+    public static final String METRIC_RUN_ATTEMPT = "metricRunAttempt";
+    /** The duration of this run of the worker in milliseconds. **/
+    public static final String METRIC_DURATION_MILLIS = "metricDurationMillis";
+    /** The time from sending the request to receiving the first byte of the response in milliseconds. **/
+    public static final String METRIC_FIRST_BYTE_MILLIS = "metricFirstByteMillis";
+    /** The average throughput from the first byte to the last byte of the response in bytes per second. **/
+    public static final String METRIC_BYTES_PER_SECOND = "metricBytesPerSecond";
+    /** The lowest throughput over a sliding window of 5 seconds in bytes per second. **/
+    public static final String METRIC_MIN_BYTES_PER_SECOND = "metricMinBytesPerSecond";
+    /** The highest throughput over a sliding window of 5 seconds in bytes per second. **/
+    public static final String METRIC_MAX_BYTES_PER_SECOND = "metricMaxBytesPerSecond";
+    /** The number of times that no bytes are received for at least 5 seconds. **/
+    public static final String METRIC_STALL_COUNT = "metricStallCount";
+    /** The duration of the longest time that no bytes are received in milliseconds. **/
+    public static final String METRIC_LONGEST_STALL_MILLIS = "metricLongestStallMillis";
+    /** The number of bytes that are continued from the checkpoint of the previous runs. **/
+    public static final String METRIC_RESUMED_BYTES = "metricResumedBytes";
+    /** The number of bytes that are received in this run. **/
+    public static final String METRIC_DOWNLOADED_BYTES = "metricDownloadedBytes";
+    /** The size of the APK after it is decompressed, only present if the worker succeeds. **/
+    public static final String METRIC_FINAL_SIZE = "metricFinalSize";
+
+    /** The server returned 401 or 403, which usually means that the token is invalid or expired. **/
+    public static final String REASON_UNAUTHORIZED = "unauthorized";
+    /** The server returned 404 or 410. **/
+    public static final String REASON_NOT_FOUND = "notFound";
+    /** The server returned another status code that would not change if the download is retried. **/
+    public static final String REASON_HTTP_STATUS = "httpStatus";
+    /** The certificate of the server could not be verified. **/
+    public static final String REASON_CERTIFICATE = "certificate";
+    /** The APK could not be written to the disk. **/
+    public static final String REASON_FILE_WRITE = "fileWrite";
+    /** The APK is compressed in a format that is not supported. **/
+    public static final String REASON_UNSUPPORTED_COMPRESSION = "unsupportedCompression";
+    /** The downloaded APK does not match the hash provided by the endpoint. **/
+    public static final String REASON_HASH_MISMATCH = "hashMismatch";
+    /** The download failed more than MAX_RETRY times. **/
+    public static final String REASON_MAX_RETRY = "maxRetry";
+    /** The device is not connected to the internet. **/
+    public static final String REASON_NO_CONNECTION = "noConnection";
+    /** Some of the required input data are missing. **/
+    public static final String REASON_INVALID_INPUT = "invalidInput";
+
+    // Publishing the progress writes to the WorkManager database, so it is limited to a few times per second
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+    // Each chunk is synced to the disk before it is committed, so chunks that are too small would slow down the download
+    private static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
 
     private Context context;
 
@@ -93,14 +193,27 @@ public class APKDownloadWorker extends Worker {
     private String notifTitle;
     private String notifMsg;
     private String notifChannel;
+    private boolean prefetch;
 
     // Download variables
     private String downloadUrl;
+    private String resolvedUrl;
+    private String downloadDir;
+    private long cacheSize;
     private String downloadPath;
+    private String expectedHash;
+    private String version;
     private String contentProvider;
     private HashMap<String, String> downloadHeaders;
     private String[] headerKeys;
     private String[] headerValues;
+    private CountingInputStream downloadStream;
+    private long downloadOffset; // The number of bytes that are downloaded in previous runs.
+    private long downloadTotalBytes;
+    private long lastProgressTime;
+    private int lastMilestone; // The last percentage of the download that is recorded in the event log.
+    private int skippedRuns; // The number of runs that waited for the time asked by the server through Retry-After.
+    private TransferMeter meter;
 
     //****** Start of constructors ******//
 
@@ -116,23 +229,38 @@ public class APKDownloadWorker extends Worker {
     @NonNull
     @Override
     public Result doWork() {
-        // Check max retry count
-        int maxRetryCount = getInputData().getInt(MAX_RETRY, 5);
-        if (getRunAttemptCount() > maxRetryCount) return Result.failure(new Data.Builder()
-            .putString("message", "Max retry count reached for APKDownloadWorker").build());
+        Tracer.getDefault().beginSection("APKDownloadWorker.doWork");
+        try {
+            return startDownload();
+        } finally {
+            Tracer.getDefault().endSection();
+        }
+    }
+
+    /** Checks the input data and the connection, then runs the downloader. **/
+    @NonNull
+    private Result startDownload() {
+        meter = new TransferMeter(SystemClock.elapsedRealtime());
         // Check if the required values are present within the input data
         populateValues();
-        if (!UpdaterFunctions.isConnected(context)) return Result.failure(new Data.Builder()
-                .putString("message", "APKDownloadWorker not connected to the internet").build());
-        if (inputDataIsNull()) return Result.failure(new Data.Builder()
-                .putString("message", "Some of the required data are not provided in APKDownloadWorker").build());
+        if (downloadUrl != null && isWaitingForRetryAfter()) {
+            UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_RETRIED, null, getRunAttemptCount());
+            return Result.retry();
+        }
+        // Check max retry count
+        int maxRetryCount = getInputData().getInt(MAX_RETRY, 5);
+        if (getRunAttemptCount() - skippedRuns > maxRetryCount) {
+            return failure(REASON_MAX_RETRY, "Max retry count reached for APKDownloadWorker");
+        }
+        if (!UpdaterFunctions.isConnected(context)) return failure(REASON_NO_CONNECTION, "APKDownloadWorker not connected to the internet");
+        if (inputDataIsNull()) return failure(REASON_INVALID_INPUT, "Some of the required data are not provided in APKDownloadWorker");
         // Populate the headers
         downloadHeaders = new HashMap<>();
         for (int i = 0; i < headerKeys.length; i++) {
             downloadHeaders.put(headerKeys[i], headerValues[i]);
         }
-        // Shows the notification
-        showNotif();
+        // Prefetches are run quietly in the background
+        if (!prefetch) showNotif();
         return runDownloader();
     }
 
@@ -140,13 +268,19 @@ public class APKDownloadWorker extends Worker {
     private void populateValues() {
         contentProvider = getInputData().getString(CONTENT_PROVIDER);
         downloadUrl = getInputData().getString(DOWNLOAD_URL);
+        resolvedUrl = getInputData().getString(RESOLVED_URL);
+        downloadDir = getInputData().getString(DOWNLOAD_DIR);
+        cacheSize = getInputData().getLong(CACHE_SIZE, ApkCache.DEFAULT_MAX_SIZE);
         downloadPath = getInputData().getString(DOWNLOAD_PATH);
+        expectedHash = getInputData().getString(EXPECTED_HASH);
+        version = getInputData().getString(VERSION);
         headerKeys = getInputData().getStringArray(HEADER_KEYS);
         headerValues = getInputData().getStringArray(HEADER_VALUES);
         notifTitle = getInputData().getString(NOTIF_TITLE);
         notifMsg = getInputData().getString(NOTIF_MSG);
         notifIcon = getInputData().getInt(NOTIF_ICON, android.R.drawable.stat_sys_download);
         notifChannel = getInputData().getString(NOTIF_CHANNEL);
+        prefetch = getInputData().getBoolean(PREFETCH, false);
     }
 
     /** Show the notification that will be displayed on top of the screen.
@@ -177,112 +311,688 @@ public class APKDownloadWorker extends Worker {
 
     /** Checks if whether any of the required input data is not present or incorrect. **/
     private boolean inputDataIsNull() {
-        return contentProvider == null || downloadUrl == null || downloadPath == null
+        return contentProvider == null || downloadUrl == null || (downloadDir == null && downloadPath == null)
                 || headerKeys == null || headerValues == null
                 || (headerKeys.length != headerValues.length)
                 || notifTitle == null || notifMsg == null || notifChannel == null;
     }
 
     /** Runs the downloader and installer for the APK.
+     * Identity responses are streamed from the HttpTransport into a part file, continuing from the last checkpoint if there is one,
+     * and the part file is hashed while it is written. Once it is complete, its size is verified
+     * and it is renamed to the APK, unless it is a compressed asset (e.g. .apk.gz), which is decompressed into the APK.
+     * Encoded responses could not be continued, so they are decompressed straight into the APK without a part file.
      * Returns Result.success() if the downloader and installer is able to start successfully,
-     * and Result.retry() if the download fails due to a network error (ExecutionException),
-     * and Result.failure() for all other errors. **/
+     * Result.retry() if the download fails due to a network error that may be temporary,
+     * and Result.failure() with the reason for all other errors. **/
     @NonNull
     private Result runDownloader() {
-        RequestQueue queue = Volley.newRequestQueue(context);
-        RequestFuture<byte[]> future = RequestFuture.newFuture();
-        FileDownloadRequest request = new FileDownloadRequest(downloadUrl, future, future, downloadHeaders);
-        queue.add(request);
-
+        UpdaterStateStore stateStore = UpdaterStateStore.getInstance(context);
+        HttpResponse response = null;
+        File partFile = null;
+        boolean keepPartFile = true;
         try {
-            byte[] apkFile = future.get();
-            createApk(apkFile);
-            return Result.success();
-        } catch (InterruptedException e) {
-            Log.w(APK_DOWNLOAD_WORKER, "Error: Volley download request interrupted with error");
+            partFile = getPartFile();
+            DownloadCheckpoint checkpoint = DownloadCheckpoint.load(stateStore, downloadUrl);
+            if (checkpoint != null && (checkpoint.validator.isEmpty() || !checkpoint.partFile.equals(partFile)
+                    || partFile.length() < checkpoint.offset)) {
+                checkpoint = null;
+            }
+            response = openDownload(checkpoint);
+            downloadOffset = response.getStatusCode() == 206 && checkpoint != null ? checkpoint.offset : 0;
+            if (downloadOffset > 0 && getRangeStart(response) != downloadOffset) {
+                keepPartFile = false;
+                throw new IOException(String.format("Server returned a different range than bytes=%s-", downloadOffset));
+            }
+            downloadTotalBytes = response.getContentLength() < 0 ? -1 : response.getContentLength() + downloadOffset;
+            // The progress is based on the bytes received, as the size of a compressed APK is not known in advance
+            downloadStream = new CountingInputStream(response.getBody(), meter);
+            File apkFile;
+            if (isEncoded(response)) {
+                keepPartFile = false;
+                try {
+                    apkFile = createApk(decompress(downloadStream));
+                } finally {
+                    meter.onEnd(SystemClock.elapsedRealtime());
+                }
+            } else {
+                MessageDigest digest = downloadPart(downloadStream, partFile, getValidator(response), stateStore);
+                response.close();
+                response = null;
+                // The part file is complete, so it would be downloaded again if it could not be used
+                keepPartFile = false;
+                if (downloadTotalBytes >= 0 && partFile.length() != downloadTotalBytes) {
+                    throw new IOException(String.format("Downloaded %s bytes instead of %s bytes", partFile.length(), downloadTotalBytes));
+                }
+                apkFile = completePart(partFile, UpdaterFunctions.toHexString(digest.digest()));
+            }
+            UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_SUCCEEDED, null, apkFile.length());
+            clearRetryAfter();
+            return Result.success(putMetrics(new Data.Builder()).putString(OUTPUT_APK_PATH, apkFile.getAbsolutePath())
+                    .putString(DOWNLOAD_URL, downloadUrl).putString(VERSION, version)
+                    .putLong(METRIC_FINAL_SIZE, apkFile.length()).build());
+        } catch (FileWriteException e) {
+            keepPartFile = false;
+            Log.w(APK_DOWNLOAD_WORKER, String.format("%s: An IOException occurred at %s, stack trace is", FILE_ERROR,
+                    downloadPath == null ? downloadDir : downloadPath));
             e.printStackTrace();
-            return Result.failure(new Data.Builder().putString("message", e.getMessage()).build());
-        } catch (ExecutionException e) {
-            Log.w(APK_DOWNLOAD_WORKER, "Error: Volley download request failed in middle of operation with error");
+            showToast(FILE_ERROR);
+            return failure(REASON_FILE_WRITE, e.getMessage());
+        } catch (UnsupportedCompressionException e) {
+            // Retrying would not help as the same file would be returned
+            keepPartFile = false;
+            Log.w(APK_DOWNLOAD_WORKER, e.getMessage());
+            return failure(REASON_UNSUPPORTED_COMPRESSION, e.getMessage());
+        } catch (HashMismatchException e) {
+            keepPartFile = false;
+            Log.w(APK_DOWNLOAD_WORKER, e.getMessage());
+            return failure(REASON_HASH_MISMATCH, e.getMessage());
+        } catch (HttpStatusException e) {
+            keepPartFile = isRetryableStatus(e.getStatusCode());
+            return onHttpError(e);
+        } catch (IOException e) {
+            if (isCertificateError(e)) {
+                keepPartFile = false;
+                Log.w(APK_DOWNLOAD_WORKER, String.format("Certificate of %s could not be verified with error %s", downloadUrl, e.getMessage()));
+                return failure(REASON_CERTIFICATE, e.getMessage());
+            }
+            Log.w(APK_DOWNLOAD_WORKER, "Error: Download request failed in middle of operation with error");
             e.printStackTrace();
+            logMetrics();
+            UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_RETRIED, null, getRunAttemptCount());
             return Result.retry();
+        } finally {
+            if (response != null) response.close();
+            // The part file is only kept if the download may be continued in the next run
+            if (!keepPartFile) {
+                DownloadCheckpoint.clear(stateStore, downloadUrl);
+                if (partFile != null && partFile.exists() && !partFile.delete()) {
+                    Log.w(APK_DOWNLOAD_WORKER, String.format("Unable to delete %s", partFile.getAbsolutePath()));
+                }
+            }
+        }
+    }
+
+    /** Checks whether the response has a Content-Encoding other than identity.
+     * @param response The response of the download request. **/
+    private static boolean isEncoded(@NonNull HttpResponse response) {
+        String contentEncoding = response.getHeader("Content-Encoding");
+        return contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity");
+    }
+
+    /** Turns the complete part file into the APK.
+     * The part file is renamed to the APK without copying it, unless it is a compressed asset,
+     * in which case it is decompressed into the APK.
+     * @param partFile The complete part file.
+     * @param partHash The SHA-256 hash of the part file as a hex string.
+     * @return The file that the APK is saved to. **/
+    @NonNull
+    private File completePart(@NonNull File partFile, @NonNull String partHash) throws IOException {
+        InputStream partInput;
+        try {
+            partInput = new FileInputStream(partFile);
         } catch (IOException e) {
-            Log.w(APK_DOWNLOAD_WORKER, String.format("%s: An IOException occurred at %s, stack trace is", FILE_ERROR, downloadPath));
-            e.printStackTrace();
-            showToast(FILE_ERROR);
-            return Result.failure(new Data.Builder().putString("message", e.getMessage()).build());
+            throw new FileWriteException(e);
+        }
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            InputStream apkInput = decompress(partInput);
+            if (apkInput instanceof GZIPInputStream) return createApk(apkInput);
+        } finally {
+            partInput.close();
+        }
+        return saveApk(partFile, partHash);
+    }
+
+    /** Gets the part file that the response is downloaded to, which is named after the hash of the download URL
+     * so that the next run of the worker would continue with the same file. **/
+    @NonNull
+    private File getPartFile() throws FileWriteException {
+        File workingDir = getWorkingDir();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String urlHash = UpdaterFunctions.toHexString(digest.digest(downloadUrl.getBytes("UTF-8")));
+            return new File(workingDir, urlHash + ".apk.part");
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // SHA-256 and UTF-8 are always present on Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Gets the directory that the part file and the temporary file are written to, creating it if needed. **/
+    @NonNull
+    private File getWorkingDir() throws FileWriteException {
+        File workingDir = downloadPath == null ? new File(downloadDir) : new File(downloadPath).getAbsoluteFile().getParentFile();
+        if (workingDir == null) workingDir = new File(UpdaterFunctions.getInternalDownloadDir(context));
+        if (!workingDir.isDirectory() && !workingDir.mkdirs()) {
+            throw new FileWriteException(String.format("Directory %s cannot be created.", workingDir.getAbsolutePath()));
+        }
+        return workingDir;
+    }
+
+    /** Writes the response into the part file, starting from downloadOffset, and hashes the part file as it is written.
+     * A checkpoint is committed after every chunk, and when the download is stopped or interrupted,
+     * unless the response has no validator, in which case the download would start over in the next run.
+     * @param response The stream of the body of the response.
+     * @param partFile The file that the response is written to.
+     * @param validator The ETag or Last-Modified header of the response, or null if it could not be continued.
+     * @param stateStore The state store that the checkpoint is saved to.
+     * @return The digest of the whole part file, including the bytes from the previous runs. **/
+    @NonNull
+    private MessageDigest downloadPart(@NonNull InputStream response, @NonNull File partFile, String validator,
+                                       @NonNull UpdaterStateStore stateStore) throws IOException {
+        MessageDigest digest = hashPart(partFile, downloadOffset);
+        RandomAccessFile output;
+        try {
+            output = new RandomAccessFile(partFile, "rw");
+        } catch (IOException e) {
+            throw new FileWriteException(e);
+        }
+        long position = downloadOffset, committedPosition = downloadOffset;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            try {
+                // Bytes after the checkpoint may not have been synced, so they are downloaded again
+                output.setLength(downloadOffset);
+                output.seek(downloadOffset);
+            } catch (IOException e) {
+                throw new FileWriteException(e);
+            }
+            // The part file is recorded from the start so that it would be deleted if it is abandoned
+            commitCheckpoint(output, partFile, position, validator, stateStore);
+            byte[] data = new byte[8192];
+            int count;
+            try {
+                while ((count = response.read(data)) != -1) {
+                    // The prefetch would be stopped if the user accepts the update while it is running
+                    if (isStopped()) throw new IOException("APKDownloadWorker is stopped");
+                    try {
+                        output.write(data, 0, count);
+                    } catch (IOException e) {
+                        throw new FileWriteException(e);
+                    }
+                    digest.update(data, 0, count);
+                    position += count;
+                    if (position - committedPosition >= CHECKPOINT_BYTES) {
+                        commitCheckpoint(output, partFile, position, validator, stateStore);
+                        committedPosition = position;
+                    }
+                    publishProgress();
+                }
+                meter.onEnd(SystemClock.elapsedRealtime());
+            } catch (FileWriteException e) {
+                throw e;
+            } catch (IOException e) {
+                // A read timeout is counted as a stall
+                meter.onEnd(SystemClock.elapsedRealtime());
+                // The bytes that are received before the error are kept for the next run
+                if (position > committedPosition) commitCheckpoint(output, partFile, position, validator, stateStore);
+                throw e;
+            }
+            try {
+                output.getFD().sync();
+            } catch (IOException e) {
+                throw new FileWriteException(e);
+            }
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                Log.w(APK_DOWNLOAD_WORKER, String.format("Unable to close %s", partFile.getAbsolutePath()));
+            }
+        }
+        return digest;
+    }
+
+    /** Creates the digest of the part file up to the given offset, so that hashing could continue from the checkpoint.
+     * @param partFile The part file.
+     * @param offset The number of bytes that are committed from the previous runs. **/
+    @NonNull
+    private static MessageDigest hashPart(@NonNull File partFile, long offset) throws FileWriteException {
+        MessageDigest digest = newDigest();
+        if (offset <= 0) return digest;
+        try {
+            InputStream input = new FileInputStream(partFile);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                byte[] data = new byte[8192];
+                long remaining = offset;
+                int count;
+                while (remaining > 0 && (count = input.read(data, 0, (int) Math.min(data.length, remaining))) != -1) {
+                    digest.update(data, 0, count);
+                    remaining -= count;
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new FileWriteException(e);
         }
+        return digest;
     }
 
-    /** Creates and install the APK for the app.
-     * @param response The binary representation of the APK. **/
-    private void createApk(byte[] response) throws IOException {
-        if (response != null) {
-            File outputFile = new File(downloadPath);
-            if (outputFile.createNewFile()) {
-                writeApk(response, outputFile);
+    /** Creates a SHA-256 digest. **/
+    @NonNull
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always present on Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Syncs the part file to the disk up to the given position and saves it as the checkpoint.
+     * @param output The part file that is being written.
+     * @param partFile The path of the part file.
+     * @param position The number of bytes that are written to the part file.
+     * @param validator The ETag or Last-Modified header of the response, or null if it could not be continued.
+     * @param stateStore The state store that the checkpoint is saved to. **/
+    private void commitCheckpoint(@NonNull RandomAccessFile output, @NonNull File partFile, long position,
+                                  String validator, @NonNull UpdaterStateStore stateStore) throws FileWriteException {
+        try {
+            output.getFD().sync();
+        } catch (IOException e) {
+            throw new FileWriteException(e);
+        }
+        // A checkpoint without a validator is only used to clean up the part file
+        new DownloadCheckpoint(partFile, validator == null ? 0 : position, validator == null ? "" : validator,
+                downloadTotalBytes, System.currentTimeMillis()).save(stateStore, downloadUrl);
+    }
+
+    /** Gets the validator of the response that is sent in If-Range when the download is continued.
+     * Returns null if the response could not be continued, e.g. if it is encoded or has no strong validator.
+     * @param response The response of the download request. **/
+    private static String getValidator(@NonNull HttpResponse response) {
+        String contentEncoding = response.getHeader("Content-Encoding");
+        // Ranges of an encoded response would not match the ranges of the identity response
+        if (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity")) return null;
+        String eTag = response.getHeader("ETag");
+        if (eTag != null && !eTag.startsWith("W/")) return eTag;
+        return response.getHeader("Last-Modified");
+    }
+
+    /** Gets the first byte of the range in the Content-Range header of the response, or -1 if it is not present.
+     * @param response The response of the download request. **/
+    private static long getRangeStart(@NonNull HttpResponse response) {
+        String contentRange = response.getHeader("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) return -1;
+        int separator = contentRange.indexOf('-');
+        try {
+            return separator == -1 ? -1 : Long.parseLong(contentRange.substring(6, separator).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Checks whether the server asked for the download to be retried at a later time that has not passed yet,
+     * as WorkManager could only wait for the backoff of the request before the worker is run again.
+     * The number of runs that are skipped is stored together with the time so that they are not counted as retries,
+     * and it is kept after the time has passed until the download succeeds or fails. **/
+    private boolean isWaitingForRetryAfter() {
+        UpdaterStateStore stateStore = UpdaterStateStore.getInstance(context);
+        String key = UpdaterStateStore.RETRY_AFTER_PREFIX + downloadUrl;
+        String value = stateStore.get(key);
+        if (value == null) return false;
+        String[] parts = value.split(" ");
+        try {
+            long retryTime = Long.parseLong(parts[0]);
+            skippedRuns = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            if (System.currentTimeMillis() < retryTime) {
+                skippedRuns++;
+                stateStore.put(key, String.format(Locale.ENGLISH, "%d %d", retryTime, skippedRuns));
+                Log.d(APK_DOWNLOAD_WORKER, String.format("Run %s of %s is retried as the server asked to wait until %s",
+                        getRunAttemptCount(), downloadUrl, retryTime));
+                return true;
+            }
+            // The time has passed, but the skipped runs are still needed for the later retries
+            if (retryTime != 0) stateStore.put(key, String.format(Locale.ENGLISH, "%d %d", 0, skippedRuns));
+        } catch (NumberFormatException e) {
+            Log.w(APK_DOWNLOAD_WORKER, String.format("Invalid Retry-After time %s for %s", value, downloadUrl));
+            stateStore.remove(key);
+        }
+        return false;
+    }
+
+    /** Removes the Retry-After time and the skipped runs of the download once it succeeds or fails,
+     * so that they are not used by the next download of the same URL. **/
+    private void clearRetryAfter() {
+        if (downloadUrl != null) UpdaterStateStore.getInstance(context).remove(UpdaterStateStore.RETRY_AFTER_PREFIX + downloadUrl);
+    }
+
+    /** Gets the result of the worker for an unsuccessful status code.
+     * Timeouts, rate limits and server errors are retried. If the server asks for the download to be retried later,
+     * the time is stored so that the runs before that time would not send a request.
+     * All other status codes would fail immediately.
+     * @param e The exception with the status code. **/
+    @NonNull
+    private Result onHttpError(@NonNull HttpStatusException e) {
+        int statusCode = e.getStatusCode();
+        Log.w(APK_DOWNLOAD_WORKER, e.getMessage());
+        if (isRetryableStatus(statusCode)) {
+            long retryAfterMillis = e.getRetryAfterMillis();
+            if (retryAfterMillis > 0) {
+                UpdaterStateStore.getInstance(context).put(UpdaterStateStore.RETRY_AFTER_PREFIX + downloadUrl,
+                        String.format(Locale.ENGLISH, "%d %d", System.currentTimeMillis() + retryAfterMillis, skippedRuns));
+            }
+            logMetrics();
+            UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_RETRIED, null, getRunAttemptCount());
+            return Result.retry();
+        }
+        String reason;
+        if (statusCode == 401 || statusCode == 403) reason = REASON_UNAUTHORIZED;
+        else if (statusCode == 404 || statusCode == 410) reason = REASON_NOT_FOUND;
+        else reason = REASON_HTTP_STATUS;
+        UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_FAILED, reason, statusCode);
+        clearRetryAfter();
+        return Result.failure(putMetrics(new Data.Builder()).putString(FAILURE_REASON, reason)
+                .putString(FAILURE_MESSAGE, e.getMessage()).putInt(STATUS_CODE, statusCode).build());
+    }
+
+    /** Checks whether the status code may be temporary, i.e. timeouts, rate limits and server errors.
+     * @param statusCode The status code that is returned. **/
+    private static boolean isRetryableStatus(int statusCode) {
+        return statusCode == 408 || statusCode == 425 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /** Checks whether the error is caused by a certificate that could not be verified,
+     * which would not be fixed by retrying the download.
+     * @param e The error from the download. **/
+    private static boolean isCertificateError(@NonNull IOException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SSLPeerUnverifiedException || cause instanceof CertificateException) return true;
+        }
+        return false;
+    }
+
+    /** Gets the result of the worker for an error that would not be fixed by retrying.
+     * @param reason The reason of the failure, which is one of the REASON_ values.
+     * @param message The message of the error. **/
+    @NonNull
+    private Result failure(@NonNull String reason, String message) {
+        UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_FAILED, reason, -1);
+        clearRetryAfter();
+        return Result.failure(putMetrics(new Data.Builder()).putString(FAILURE_REASON, reason)
+                .putString(FAILURE_MESSAGE, message).build());
+    }
+
+    /** Adds the metrics of this run to the output data of the worker.
+     * @param builder The builder of the output data. **/
+    @NonNull
+    private Data.Builder putMetrics(@NonNull Data.Builder builder) {
+        return builder.putInt(METRIC_RUN_ATTEMPT, getRunAttemptCount() - skippedRuns)
+                .putLong(METRIC_DURATION_MILLIS, meter.getDurationMillis(SystemClock.elapsedRealtime()))
+                .putLong(METRIC_FIRST_BYTE_MILLIS, meter.getFirstByteMillis())
+                .putLong(METRIC_BYTES_PER_SECOND, meter.getAverageBytesPerSecond())
+                .putLong(METRIC_MIN_BYTES_PER_SECOND, meter.getMinBytesPerSecond())
+                .putLong(METRIC_MAX_BYTES_PER_SECOND, meter.getMaxBytesPerSecond())
+                .putInt(METRIC_STALL_COUNT, meter.getStallCount())
+                .putLong(METRIC_LONGEST_STALL_MILLIS, meter.getLongestStallMillis())
+                .putLong(METRIC_RESUMED_BYTES, downloadOffset)
+                .putLong(METRIC_DOWNLOADED_BYTES, meter.getBytes());
+    }
+
+    /** Logs the metrics of this run, as the output data of a run that is retried is not kept by WorkManager. **/
+    private void logMetrics() {
+        Log.w(APK_DOWNLOAD_WORKER, String.format("Run %s of %s is retried after %s ms, first byte after %s ms, " +
+                        "%s bytes received at %s bytes/s (%s to %s bytes/s), %s stalls up to %s ms, %s bytes resumed",
+                getRunAttemptCount(), downloadUrl, meter.getDurationMillis(SystemClock.elapsedRealtime()),
+                meter.getFirstByteMillis(), meter.getBytes(), meter.getAverageBytesPerSecond(), meter.getMinBytesPerSecond(),
+                meter.getMaxBytesPerSecond(), meter.getStallCount(), meter.getLongestStallMillis(), downloadOffset));
+    }
+
+    /** Sends the request for the APK and returns the successful response.
+     * If there is a checkpoint, only the bytes after it are requested, unless the APK on the server has changed.
+     * The resolved URL is tried first if it is present, as it skips the redirects from the download URL.
+     * As the resolved URL may have expired, the download URL would be used if the resolved URL fails.
+     * @param checkpoint The checkpoint of the download, or null if the download starts from the beginning. **/
+    @NonNull
+    private HttpResponse openDownload(DownloadCheckpoint checkpoint) throws IOException {
+        Map<String, String> headers = downloadHeaders;
+        if (checkpoint != null) {
+            headers = new HashMap<>(downloadHeaders);
+            headers.put("Range", String.format("bytes=%s-", checkpoint.offset));
+            headers.put("If-Range", checkpoint.validator);
+            // Ranges refer to the identity encoding of the APK
+            headers.put("Accept-Encoding", "identity");
+        }
+        try {
+            return openDownload(headers);
+        } catch (HttpStatusException e) {
+            if (checkpoint == null || e.getStatusCode() != 416) throw e;
+            // The checkpoint is beyond the end of the APK on the server, so the download starts over
+            return openDownload(downloadHeaders);
+        }
+    }
+
+    /** Sends the request for the APK with the given headers, trying the resolved URL first.
+     * @param headers The headers that are sent together with the request. **/
+    @NonNull
+    private HttpResponse openDownload(@NonNull Map<String, String> headers) throws IOException {
+        if (resolvedUrl != null && !resolvedUrl.equals(downloadUrl)) {
+            try {
+                return openDownload(resolvedUrl, UpdaterFunctions.getRedirectHeaders(headers, downloadUrl, resolvedUrl));
+            } catch (HttpStatusException e) {
+                Log.w(APK_DOWNLOAD_WORKER, String.format("Resolved URL returned status code %s, " +
+                        "falling back to download URL", e.getStatusCode()));
+            }
+        }
+        return openDownload(downloadUrl, headers);
+    }
+
+    /** Sends the request for the APK to the given URL.
+     * @param url The URL of the APK.
+     * @param headers The headers that are sent together with the request. **/
+    @NonNull
+    private HttpResponse openDownload(@NonNull String url, @NonNull Map<String, String> headers) throws IOException {
+        HttpRequest.Builder requestBuilder = new HttpRequest.Builder(url).setHeaders(headers);
+        // Compressed responses are decompressed by the worker itself, so that all transports support it
+        if (!containsHeader(headers, "Accept-Encoding")) requestBuilder.setHeader("Accept-Encoding", "gzip");
+        meter.onRequest(SystemClock.elapsedRealtime());
+        HttpResponse response = HttpTransport.getDownloadTransport().newCall(requestBuilder.build()).execute();
+        if (!response.isSuccessful()) {
+            HttpStatusException exception = new HttpStatusException(response);
+            response.close();
+            throw exception;
+        }
+        return response;
+    }
+
+    /** Checks whether the given header is present, ignoring its case.
+     * @param headers The headers of the request.
+     * @param name The name of the header. **/
+    private static boolean containsHeader(@NonNull Map<String, String> headers, @NonNull String name) {
+        for (String key: headers.keySet()) {
+            if (name.equalsIgnoreCase(key)) return true;
+        }
+        return false;
+    }
+
+    /** Wraps the stream so that the APK is decompressed while it is read, if it is compressed.
+     * The compression is detected from the first bytes of the stream, which covers both compressed assets
+     * (e.g. .apk.gz) and responses with Content-Encoding: gzip that are not decompressed by the transport.
+     * Only gzip is supported, as there are no decoders for other formats on the platform.
+     * @param stream The stream of the body of the response. **/
+    @NonNull
+    private static InputStream decompress(@NonNull InputStream stream) throws IOException {
+        // A gzip file may be served with Content-Encoding: gzip as well, so it is unwrapped at most twice
+        for (int i = 0; i < 2; i++) {
+            PushbackInputStream pushbackStream = new PushbackInputStream(stream, 4);
+            byte[] magic = new byte[4];
+            int count = 0, read;
+            while (count < magic.length && (read = pushbackStream.read(magic, count, magic.length - count)) != -1) {
+                count += read;
+            }
+            pushbackStream.unread(magic, 0, count);
+            if (startsWith(magic, count, 0x1F, 0x8B)) {
+                stream = new GZIPInputStream(pushbackStream, 8192);
+            } else if (startsWith(magic, count, 0xFD, '7', 'z', 'X') || startsWith(magic, count, 0x28, 0xB5, 0x2F, 0xFD)) {
+                throw new UnsupportedCompressionException("APK is compressed with xz or zstd, which are not supported, gzip should be used instead.");
             } else {
-                String errorString = String.format("File %s cannot be created.", downloadPath);
-                Log.w(APK_DOWNLOAD_WORKER, errorString);
-                showToast("File Error");
-                throw new IOException(errorString);
+                return pushbackStream;
             }
-        } else {
-            throw new IOException("Response received from download request cannot be null.");
         }
+        return stream;
+    }
+
+    /** Checks whether the first bytes that are read match the given signature.
+     * @param bytes The bytes that are read.
+     * @param count The number of bytes that are read.
+     * @param signature The expected values of the first bytes. **/
+    private static boolean startsWith(@NonNull byte[] bytes, int count, int... signature) {
+        if (count < signature.length) return false;
+        for (int i = 0; i < signature.length; i++) {
+            if ((bytes[i] & 0xFF) != signature[i]) return false;
+        }
+        return true;
     }
 
-    /** Writes the downloaded APK into the file.
-     * @param response The binary representation of the APK.
-     * @param outputFile The output file for the APK. **/
-    private void writeApk(byte[] response, @NonNull File outputFile) throws IOException {
-        SharedPreferences sharedPref = context.getSharedPreferences("com.pcchin.auto_app_updater", Context.MODE_PRIVATE);
-        Set<String> apkList = UpdaterFunctions.getApkStringSet(sharedPref);
-        apkList.add(outputFile.getAbsolutePath());
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putStringSet("previousApkList", apkList);
-        editor.apply();
+    /** Creates and install the APK for the app from a stream that is decompressed while it is read.
+     * The APK is written to a uniquely named temporary file, which is synced to the disk
+     * and then saved to the final path once it is complete, so an APK at the final path is never partially written.
+     * @param response The stream of the body of the APK.
+     * @return The file that the APK is saved to. **/
+    @NonNull
+    private File createApk(@NonNull InputStream response) throws IOException {
+        File tempFile;
+        try {
+            tempFile = File.createTempFile("download", ".apk.tmp", getWorkingDir());
+        } catch (IOException e) {
+            Log.w(APK_DOWNLOAD_WORKER, String.format("Temporary file cannot be created with error %s", e.getMessage()));
+            throw new FileWriteException(e);
+        }
+        try {
+            String apkHash;
+            Tracer.getDefault().beginSection("APKDownloadWorker.writeApk");
+            try {
+                apkHash = writeApk(response, tempFile);
+            } finally {
+                Tracer.getDefault().endSection();
+            }
+            return saveApk(tempFile, apkHash);
+        } catch (IOException e) {
+            if (tempFile.exists() && !tempFile.delete()) Log.w(APK_DOWNLOAD_WORKER, String.format("Unable to delete %s", tempFile.getAbsolutePath()));
+            throw e;
+        }
+    }
+
+    /** Verifies the complete APK against the expected hash, renames it to its final path and installs it.
+     * If no download path is given, the final path is the SHA-256 hash of the APK in the download directory,
+     * so concurrent downloads never write to the same file, and the APK is added to the cache.
+     * The APK is not installed if it is prefetched.
+     * @param completeFile The complete APK, which is synced to the disk and in the same directory as the final path.
+     * @param apkHash The SHA-256 hash of the APK as a hex string.
+     * @return The file that the APK is saved to. **/
+    @NonNull
+    private File saveApk(@NonNull File completeFile, @NonNull String apkHash) throws IOException {
+        if (expectedHash != null && !expectedHash.equalsIgnoreCase(apkHash)) {
+            throw new HashMismatchException(String.format("APK from %s has hash %s instead of %s", downloadUrl, apkHash, expectedHash));
+        }
+        File outputFile = downloadPath == null ? new File(downloadDir, apkHash + ".apk") : new File(downloadPath);
+        // APKs in the download directory are limited by the cache instead
+        if (downloadPath != null) recordApk(outputFile);
+        if (!completeFile.renameTo(outputFile)) {
+            throw new FileWriteException(String.format("File %s cannot be renamed to %s",
+                    completeFile.getAbsolutePath(), outputFile.getAbsolutePath()));
+        }
+        if (downloadPath == null) new ApkCache(context, cacheSize).put(downloadUrl, version, outputFile);
+        if (!prefetch) installApp(outputFile);
+        return outputFile;
+    }
+
+    /** Writes the downloaded APK into the file and syncs it to the disk.
+     * Errors when writing to the file are thrown as FileWriteExceptions,
+     * and errors when reading from the response are thrown as is.
+     * The file is recorded so that it would be deleted the next time the updater is created.
+     * @param response The stream of the body of the APK.
+     * @param outputFile The temporary file that the APK is written to.
+     * @return The SHA-256 hash of the APK as a hex string. **/
+    @NonNull
+    private String writeApk(@NonNull InputStream response, @NonNull File outputFile) throws IOException {
+        recordApk(outputFile);
+        MessageDigest digest = newDigest();
         // Write output file with buffer
-        InputStream input = new ByteArrayInputStream(response);
+        FileOutputStream fileOutput = null;
         BufferedOutputStream output = null;
         //noinspection TryFinallyCanBeTryWithResources
         try {
-            output = new BufferedOutputStream(new FileOutputStream(outputFile));
-            byte[] data = new byte[1024];
+            try {
+                fileOutput = new FileOutputStream(outputFile);
+                output = new BufferedOutputStream(fileOutput);
+            } catch (IOException e) {
+                throw new FileWriteException(e);
+            }
+            byte[] data = new byte[8192];
             int count;
-            while ((count = input.read(data)) != -1) {
-                output.write(data, 0, count);
+            while ((count = response.read(data)) != -1) {
+                if (isStopped()) throw new IOException("APKDownloadWorker is stopped");
+                digest.update(data, 0, count);
+                try {
+                    output.write(data, 0, count);
+                } catch (IOException e) {
+                    throw new FileWriteException(e);
+                }
+                publishProgress();
+            }
+            try {
+                output.flush();
+                // The file needs to be on the disk before it is renamed, otherwise a crash may leave an empty APK
+                fileOutput.getFD().sync();
+            } catch (IOException e) {
+                throw new FileWriteException(e);
             }
-            output.flush();
-            output.close();
-            input.close();
-            installApp(outputFile);
         } finally {
-            if (output != null) output.close();
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.w(APK_DOWNLOAD_WORKER, String.format("Unable to close %s", outputFile.getAbsolutePath()));
+                }
+            }
+        }
+        return UpdaterFunctions.toHexString(digest.digest());
+    }
+
+    /** Publishes the number of bytes that are downloaded, if enough time has passed since it was last published. **/
+    private void publishProgress() {
+        long currentTime = SystemClock.elapsedRealtime();
+        if (downloadStream == null || currentTime - lastProgressTime < PROGRESS_INTERVAL_MILLIS) return;
+        lastProgressTime = currentTime;
+        long bytes = downloadOffset + downloadStream.getCount();
+        if (downloadTotalBytes > 0) {
+            int milestone = (int) (bytes * 4 / downloadTotalBytes) * 25;
+            if (milestone > lastMilestone) {
+                lastMilestone = milestone;
+                UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_PROGRESS, null, milestone);
+            }
         }
+        setProgressAsync(new Data.Builder().putLong(PROGRESS_BYTES, bytes)
+                .putLong(PROGRESS_TOTAL_BYTES, downloadTotalBytes)
+                .putLong(PROGRESS_BYTES_PER_SECOND, meter.getWindowBytesPerSecond(currentTime)).build());
+    }
+
+    /** Records the file in the list of downloaded APKs, so that it would be deleted the next time the updater is created.
+     * @param apkFile The file that would be recorded. **/
+    private void recordApk(@NonNull File apkFile) {
+        UpdaterStateStore.getInstance(context).put(UpdaterStateStore.PREVIOUS_APK_PREFIX + apkFile.getAbsolutePath(), "");
     }
 
     /** Installs the new app from the given file path.
-     * The URIs are different due to https://stackoverflow.com/a/51119606
      * @param outputFile The APK file that was just downloaded. **/
     private void installApp(File outputFile) {
-        showToast("Updating app...");
-        Intent installIntent = new Intent(Intent.ACTION_VIEW);
-        if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            installIntent.setDataAndType(FileProvider.getUriForFile(context,
-                    contentProvider, outputFile), "application/vnd.android.package-archive");
-        } else {
-            installIntent.setDataAndType(Uri.parse(String.format("file://%s",
-                    outputFile.getAbsolutePath())), "application/vnd.android.package-archive");
+        Tracer.getDefault().beginSection("APKDownloadWorker.installApp");
+        try {
+            showToast("Updating app...");
+            UpdaterFunctions.installApk(context, contentProvider, outputFile);
+        } finally {
+            Tracer.getDefault().endSection();
         }
-        installIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        installIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-        context.startActivity(installIntent);
     }
 
     /** Shows a short toast with the given message.
      * @param msg The message that will be displayed in the toast. **/
     private void showToast(final String msg) {
+        if (prefetch) return;
         new Handler(Looper.getMainLooper()).post(new Runnable() {
             @Override
             public void run() {
@@ -290,4 +1000,73 @@ public class APKDownloadWorker extends Worker {
             }
         });
     }
+
+    /** The stream that counts the number of bytes that are read from the response, and passes them to the meter. **/
+    private static class CountingInputStream extends FilterInputStream {
+        private final TransferMeter meter;
+        private long count;
+
+        CountingInputStream(@NonNull InputStream stream, @NonNull TransferMeter meter) {
+            super(stream);
+            this.meter = meter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int data = super.read();
+            if (data != -1) {
+                count++;
+                meter.onBytes(1, SystemClock.elapsedRealtime());
+            }
+            return data;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) {
+                count += bytesRead;
+                meter.onBytes(bytesRead, SystemClock.elapsedRealtime());
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        /** Gets the number of bytes that are read so far. **/
+        long getCount() {
+            return count;
+        }
+    }
+
+    /** The exception that is thrown when the APK could not be written to the file,
+     * as opposed to a network error when reading the response. **/
+    private static class FileWriteException extends IOException {
+        FileWriteException(String message) {
+            super(message);
+        }
+
+        FileWriteException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /** The exception that is thrown when the APK does not match the hash that is provided by the endpoint. **/
+    private static class HashMismatchException extends IOException {
+        HashMismatchException(String message) {
+            super(message);
+        }
+    }
+
+    /** The exception that is thrown when the APK is compressed in a format that could not be decompressed. **/
+    private static class UnsupportedCompressionException extends IOException {
+        UnsupportedCompressionException(String message) {
+            super(message);
+        }
+    }
 }
@@ -16,51 +16,87 @@ package com.pcchin.auto_app_updater.utils;
 import android.content.Context;
 import android.os.Build;
 import android.util.Log;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
 import androidx.work.BackoffPolicy;
-import androidx.work.Constraints;
 import androidx.work.Data;
-import androidx.work.NetworkType;
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.Operation;
+import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
-import androidx.work.WorkRequest;
 
+import com.pcchin.auto_app_updater.http.HttpRequest;
+import com.pcchin.auto_app_updater.http.HttpResponse;
+import com.pcchin.auto_app_updater.http.HttpTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /** The wrapper class that pass along the required arguments to the APKDownloadWorker. **/
 public class APKDownloader {
+    private static final String PREFETCH_TAG = "AutoAppUpdaterPrefetch";
+    private static final String WORK_NAME_PREFIX = "AutoAppUpdaterDownload:";
+    // The async section that covers the download from being enqueued until it finishes
+    private static final String DOWNLOAD_SECTION = "APKDownloader.download";
+
     private Context context;
 
     private int notifIcon;
     private int maxRetryCount;
+    private boolean prefetchEnabled;
+    private long downloadSize;
+    private long cacheSize;
     private String downloadUrl;
-    private String downloadPath;
+    private String version; // The version of the APK, if it is known.
+    private String apkHash; // The SHA-256 hash of the APK from the endpoint, if it is known.
+    private String resolvedUrl;
+    // The work names of the APKs that are prefetched, which are removed once the APK is started
+    private final Set<String> prefetchedWorkNames = Collections.synchronizedSet(new HashSet<String>());
+    private String downloadDir;
+    private String downloadPath; // Only set if the APK should be saved to a specific path.
     private String contentProvider;
     private String notifTitle;
     private String notifMsg;
     private String notifChannel;
     private Map<String, String> downloadParams;
+    private DownloadPolicy downloadPolicy;
+    private DownloadPolicy prefetchPolicy;
+    private TreeMap<Long, DownloadPolicy> sizePolicies; // The policies that would be used when the APK exceeds the key (In bytes).
 
     //****** Start of constructors ******//
 
     /** Creates a request to download the request path.
-     * The default download path is set to be UpdaterFunctions.getInternalDownloadDir + "/.download.apk".
+     * The APK is downloaded to the APK cache in UpdaterFunctions.getInternalDownloadDir by default,
+     * where it would be named after its SHA-256 hash.
      * It is assumed that no special headers is required to get the file.
      * @param context The context needed to start the installer.
      * @param contentProvider The content provider needed to open the APK file. **/
     public APKDownloader(Context context, String contentProvider) {
         this.context = context;
         this.contentProvider = contentProvider;
-        this.downloadPath = UpdaterFunctions.generateValidFile(String.format("%s%s",
-                UpdaterFunctions.getInternalDownloadDir(context), ".download"));
+        this.downloadDir = ApkCache.getCacheDir(context).getAbsolutePath();
+        this.cacheSize = ApkCache.DEFAULT_MAX_SIZE;
         this.downloadParams = new HashMap<>();
         this.maxRetryCount = 5;
+        this.downloadSize = -1;
+        this.downloadPolicy = new DownloadPolicy();
+        this.prefetchPolicy = DownloadPolicy.prefetchDefault();
+        this.sizePolicies = new TreeMap<>();
         this.notifTitle = UpdaterFunctions.getApplicationName(context);
         this.notifMsg = "Updating app";
         this.notifIcon = android.R.drawable.stat_sys_download;
@@ -69,26 +105,300 @@ public class APKDownloader {
 
     //****** Start of custom functions ******//
 
-    /** Starts the APKDownloadWorker that is used to download and install the APK. **/
+    /** Starts the APKDownloadWorker that is used to download and install the APK.
+     * If the APK of the same version or hash is already in the APK cache or has been prefetched,
+     * it would be installed directly without downloading it again.
+     * If the same APK is already being downloaded, e.g. when the update dialog is shown again,
+     * the existing download would be kept instead of starting another one.
+     * If size policies are set and the size of the APK is not known,
+     * the size would be requested from the server before the worker is started.
+     * The details of the APK are copied when this is called, so the downloader could be set up for another APK afterwards. **/
     public void start() {
-        Data inputData = getInputData();
-        Constraints constraints = new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.CONNECTED).build();
-        WorkRequest request = new OneTimeWorkRequest.Builder(APKDownloadWorker.class)
-                .setBackoffCriteria(BackoffPolicy.LINEAR, OneTimeWorkRequest.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
-                .setConstraints(constraints).setInputData(inputData).build();
-        final Operation operation = WorkManager.getInstance(context).enqueue(request);
-        operation.getResult().addListener(new Runnable() {
+        final Download download = new Download(this);
+        final boolean isPrefetched = download.downloadUrl != null && prefetchedWorkNames.remove(download.workName);
+        UpdaterExecutors.background().execute(new Runnable() {
             @Override
             public void run() {
-                Operation.State currentState = operation.getState().getValue();
-                if (currentState instanceof Operation.State.SUCCESS) {
-                    onSuccess();
+                File apkFile = getCachedApk(download);
+                if (apkFile == null && isPrefetched) apkFile = getPrefetchedApk(download);
+                if (apkFile != null) {
+                    final File existingApk = apkFile;
+                    UpdaterExecutors.mainThread().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            UpdaterFunctions.installApk(context, contentProvider, existingApk);
+                            onSuccess();
+                        }
+                    });
                 } else {
-                    onFailure(new IllegalStateException(String.format("APKDownloadWorker returned state %s", currentState)));
+                    startDownload(download);
                 }
             }
-        }, Executors.newSingleThreadExecutor());
+        });
+    }
+
+    /** Starts downloading the APK in the background before the user accepts the update.
+     * This does nothing unless setPrefetch(true) is called, or if the APK is already in the APK cache.
+     * The APK would only be downloaded when the conditions of the prefetch policy are met,
+     * and start() would install the APK directly if the prefetch is complete by then.
+     * If the update is declined or a newer APK is found, the prefetched APK would be evicted from the APK cache
+     * once it is the least recently used. **/
+    public void prefetch() {
+        if (!prefetchEnabled || downloadUrl == null) return;
+        final Download download = new Download(this);
+        prefetchedWorkNames.add(download.workName);
+        final Data inputData = new Data.Builder().putAll(download.inputData)
+                .putBoolean(APKDownloadWorker.PREFETCH, true).build();
+        UpdaterExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (getCachedApk(download) == null) {
+                    WorkManager.getInstance(context).enqueueUniqueWork(download.workName, ExistingWorkPolicy.KEEP,
+                            buildWorkRequest(prefetchPolicy, inputData, PREFETCH_TAG));
+                }
+            }
+        });
+    }
+
+    /** Gets the APK of the version or hash of the download in the APK cache, or null if it is not cached,
+     * if neither the version nor the hash is known, or if a download path is set.
+     * This verifies the hash of the APK, and should not be run on the main thread.
+     * @param download The details of the APK. **/
+    private File getCachedApk(@NonNull Download download) {
+        if (download.downloadUrl == null || download.downloadPath != null) return null;
+        return new ApkCache(context, cacheSize).get(download.downloadUrl, download.version, download.apkHash);
+    }
+
+    /** Gets the APK that is prefetched for the download URL and version of the download, or null if it is not prefetched yet.
+     * This blocks until the status of the prefetch is returned, and should not be run on the main thread.
+     * @param download The details of the APK. **/
+    private File getPrefetchedApk(@NonNull Download download) {
+        try {
+            List<WorkInfo> workInfoList = WorkManager.getInstance(context).getWorkInfosByTag(PREFETCH_TAG).get();
+            for (WorkInfo workInfo: workInfoList) {
+                String prefetchedVersion = workInfo.getOutputData().getString(APKDownloadWorker.VERSION);
+                if (workInfo.getState() == WorkInfo.State.SUCCEEDED
+                        && download.downloadUrl.equals(workInfo.getOutputData().getString(APKDownloadWorker.DOWNLOAD_URL))
+                        && (download.version == null ? prefetchedVersion == null : download.version.equals(prefetchedVersion))) {
+                    String apkPath = workInfo.getOutputData().getString(APKDownloadWorker.OUTPUT_APK_PATH);
+                    if (apkPath != null && new File(apkPath).exists()) return new File(apkPath);
+                }
+            }
+        } catch (ExecutionException e) {
+            Log.w("APKDownloader", String.format("Unable to get prefetch status with error %s", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /** Starts the APKDownloadWorker, after getting the size of the APK if it is needed for the size policies.
+     * @param download The details of the APK. **/
+    private void startDownload(@NonNull final Download download) {
+        if (sizePolicies.isEmpty() || download.downloadSize >= 0) {
+            enqueueWorker(getPolicyForSize(download.downloadSize), download);
+        } else {
+            UpdaterExecutors.background().execute(new Runnable() {
+                @Override
+                public void run() {
+                    enqueueWorker(getPolicyForSize(probeDownloadSize(download)), download);
+                }
+            });
+        }
+    }
+
+    /** Enqueues the APKDownloadWorker with the constraints of the given policy as unique work,
+     * so that only one download of the same APK would run at a time.
+     * An unfinished download of the same APK is kept, unless it is a prefetch,
+     * which is replaced as the prefetch would wait for the constraints of the prefetch policy.
+     * onDeferred would be called if the request is enqueued and the policy could not be met at the moment,
+     * but not if an existing download is kept instead.
+     * This blocks until the existing downloads are returned, and should not be run on the main thread.
+     * @param policy The download policy for the APK.
+     * @param download The details of the APK. **/
+    private void enqueueWorker(@NonNull final DownloadPolicy policy, @NonNull Download download) {
+        final String workName = download.workName;
+        ExistingWorkPolicy existingWorkPolicy = isPrefetchRunning(workName) ? ExistingWorkPolicy.REPLACE : ExistingWorkPolicy.KEEP;
+        OneTimeWorkRequest request = buildWorkRequest(policy, download.inputData, null);
+        final UUID requestId = request.getId();
+        final Operation operation = WorkManager.getInstance(context).enqueueUniqueWork(workName, existingWorkPolicy, request);
+        final int traceCookie = Tracer.newCookie();
+        Tracer.getDefault().beginAsyncSection(DOWNLOAD_SECTION, traceCookie);
+        UpdaterEventLog.record(UpdaterEventLog.DOWNLOAD_ENQUEUED);
+        // The operation only reports that the work is enqueued, so the download itself is observed afterwards
+        operation.getResult().addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    operation.getResult().get();
+                    final String unmetRequirement = isWaitingForConstraints(workName, requestId)
+                            ? policy.getUnmetRequirement(context) : null;
+                    UpdaterExecutors.mainThread().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (unmetRequirement != null) onDeferred(policy, unmetRequirement);
+                            observeDownload(workName, requestId, traceCookie);
+                        }
+                    });
+                } catch (final ExecutionException e) {
+                    Tracer.getDefault().endAsyncSection(DOWNLOAD_SECTION, traceCookie);
+                    UpdaterExecutors.mainThread().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onFailure(new IllegalStateException("Unable to enqueue APKDownloadWorker", e.getCause()));
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, UpdaterExecutors.background());
+    }
+
+    /** Checks whether the request is the one that is kept in the unique work and it has not started yet,
+     * which is false if an existing download is kept instead of the request.
+     * This blocks until the status of the work is returned, and should not be run on the main thread.
+     * @param workName The name of the unique work.
+     * @param requestId The ID of the request that is enqueued. **/
+    private boolean isWaitingForConstraints(@NonNull String workName, @NonNull UUID requestId) {
+        try {
+            for (WorkInfo workInfo: WorkManager.getInstance(context).getWorkInfosForUniqueWork(workName).get()) {
+                if (workInfo.getId().equals(requestId)) return workInfo.getState() == WorkInfo.State.ENQUEUED;
+            }
+        } catch (ExecutionException e) {
+            Log.w("APKDownloader", String.format("Unable to get download status with error %s", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /** Observes the download until it finishes, and passes its progress and result to the callbacks.
+     * If an existing download of the same APK is kept, that download would be observed instead.
+     * This should be run on the main thread.
+     * @param workName The name of the unique work.
+     * @param requestId The ID of the request that is enqueued.
+     * @param traceCookie The cookie of the async section of the download, which is ended once it finishes. **/
+    private void observeDownload(@NonNull String workName, @NonNull final UUID requestId, final int traceCookie) {
+        final LiveData<List<WorkInfo>> workInfoData = WorkManager.getInstance(context).getWorkInfosForUniqueWorkLiveData(workName);
+        workInfoData.observeForever(new Observer<List<WorkInfo>>() {
+            private UUID observedId;
+
+            @Override
+            public void onChanged(List<WorkInfo> workInfoList) {
+                WorkInfo workInfo = null;
+                if (workInfoList != null) {
+                    for (WorkInfo currentInfo: workInfoList) {
+                        // Prefetches that are replaced by the download are ignored
+                        if (currentInfo.getTags().contains(PREFETCH_TAG)) continue;
+                        if (currentInfo.getId().equals(observedId)) {
+                            workInfo = currentInfo;
+                            break;
+                        } else if (observedId == null && (currentInfo.getId().equals(requestId) || !currentInfo.getState().isFinished())) {
+                            workInfo = currentInfo;
+                        }
+                    }
+                }
+                if (workInfo == null) {
+                    // The download has been pruned by WorkManager, so there is nothing left to observe
+                    if (observedId != null) {
+                        workInfoData.removeObserver(this);
+                        Tracer.getDefault().endAsyncSection(DOWNLOAD_SECTION, traceCookie);
+                    }
+                    return;
+                }
+                observedId = workInfo.getId();
+                if (workInfo.getState() == WorkInfo.State.RUNNING) {
+                    Data progress = workInfo.getProgress();
+                    long bytes = progress.getLong(APKDownloadWorker.PROGRESS_BYTES, -1);
+                    if (bytes >= 0) onProgress(bytes, progress.getLong(APKDownloadWorker.PROGRESS_TOTAL_BYTES, -1),
+                            progress.getLong(APKDownloadWorker.PROGRESS_BYTES_PER_SECOND, -1));
+                } else if (workInfo.getState().isFinished()) {
+                    workInfoData.removeObserver(this);
+                    Tracer.getDefault().endAsyncSection(DOWNLOAD_SECTION, traceCookie);
+                    Data outputData = workInfo.getOutputData();
+                    String reason = outputData.getString(APKDownloadWorker.FAILURE_REASON);
+                    onMetrics(new DownloadMetrics(outputData, workInfo.getState() == WorkInfo.State.SUCCEEDED));
+                    if (workInfo.getState() == WorkInfo.State.SUCCEEDED) {
+                        onSuccess();
+                    } else {
+                        String message = outputData.getString(APKDownloadWorker.FAILURE_MESSAGE);
+                        onFailure(new IllegalStateException(String.format("APKDownloadWorker returned state %s%s%s",
+                                workInfo.getState(), reason == null ? "" : " for reason " + reason,
+                                message == null ? "" : " with error " + message)));
+                    }
+                }
+            }
+        });
+    }
+
+    /** Checks whether the unique work with the given name is an unfinished prefetch.
+     * This blocks until the status of the work is returned, and should not be run on the main thread.
+     * @param workName The name of the unique work. **/
+    private boolean isPrefetchRunning(@NonNull String workName) {
+        try {
+            for (WorkInfo workInfo: WorkManager.getInstance(context).getWorkInfosForUniqueWork(workName).get()) {
+                if (!workInfo.getState().isFinished() && workInfo.getTags().contains(PREFETCH_TAG)) return true;
+            }
+        } catch (ExecutionException e) {
+            Log.w("APKDownloader", String.format("Unable to get download status with error %s", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /** Gets the name of the unique work that downloads the APK,
+     * which is based on the download URL and the version of the APK. **/
+    @NonNull
+    private String getWorkName() {
+        return version == null ? WORK_NAME_PREFIX + downloadUrl : String.format("%s%s@%s", WORK_NAME_PREFIX, downloadUrl, version);
+    }
+
+    /** Builds the request for the APKDownloadWorker.
+     * @param policy The download policy for the APK.
+     * @param inputData The input data that is passed on to the worker.
+     * @param tag The tag of the request, can be null. **/
+    @NonNull
+    private static OneTimeWorkRequest buildWorkRequest(@NonNull DownloadPolicy policy, @NonNull Data inputData, String tag) {
+        OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(APKDownloadWorker.class)
+                .setConstraints(policy.toConstraints()).setInputData(inputData);
+        // WorkManager does not allow backoff criteria to be set for idle jobs.
+        // The backoff is exponential so that a long Retry-After from the server would only wake the worker a few times.
+        if (!policy.isRequireDeviceIdle()) {
+            builder.setBackoffCriteria(BackoffPolicy.EXPONENTIAL, OneTimeWorkRequest.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (tag != null) builder.addTag(tag);
+        return builder.build();
+    }
+
+    /** Gets the download policy for an APK of the given size.
+     * The policy with the largest threshold that is below the size would be used,
+     * and the default download policy would be used if no such policy exists.
+     * @param size The size of the APK in bytes, or -1 if it is not known. **/
+    @NonNull
+    private DownloadPolicy getPolicyForSize(long size) {
+        if (size < 0) return downloadPolicy;
+        Map.Entry<Long, DownloadPolicy> sizeEntry = sizePolicies.floorEntry(size);
+        return sizeEntry == null ? downloadPolicy : sizeEntry.getValue();
+    }
+
+    /** Gets the size of the APK through a HEAD request to the download URL.
+     * Returns -1 if the size could not be determined.
+     * @param download The details of the APK. **/
+    private long probeDownloadSize(@NonNull Download download) {
+        HttpRequest request = new HttpRequest.Builder(download.downloadUrl).setMethod("HEAD")
+                .setHeaders(download.downloadParams).setConnectTimeout(10000).setReadTimeout(10000).build();
+        HttpResponse response = null;
+        try {
+            response = HttpTransport.getDownloadTransport().newCall(request).execute();
+            return response.isSuccessful() ? response.getContentLength() : -1;
+        } catch (IOException e) {
+            Log.w("APKDownloader", String.format("Unable to get the size of the APK with error %s", e.getMessage()));
+            return -1;
+        } finally {
+            if (response != null) response.close();
+        }
     }
 
     /** Gets the input data that will be passed on to the download worker. **/
@@ -99,7 +409,12 @@ public class APKDownloader {
         return new Data.Builder()
                 .putString(APKDownloadWorker.CONTENT_PROVIDER, contentProvider)
                 .putString(APKDownloadWorker.DOWNLOAD_URL, downloadUrl)
+                .putString(APKDownloadWorker.RESOLVED_URL, resolvedUrl)
+                .putString(APKDownloadWorker.DOWNLOAD_DIR, downloadDir)
+                .putLong(APKDownloadWorker.CACHE_SIZE, cacheSize)
                 .putString(APKDownloadWorker.DOWNLOAD_PATH, downloadPath)
+                .putString(APKDownloadWorker.EXPECTED_HASH, apkHash)
+                .putString(APKDownloadWorker.VERSION, version)
                 .putStringArray(APKDownloadWorker.HEADER_KEYS, keyArray)
                 .putStringArray(APKDownloadWorker.HEADER_VALUES, valuesArray)
                 .putInt(APKDownloadWorker.MAX_RETRY, maxRetryCount)
@@ -110,15 +425,67 @@ public class APKDownloader {
                 .build();
     }
 
+    /** The details of a single APK, which are copied from the downloader on the main thread when start or prefetch is called.
+     * The download then only reads these in the background, so that the downloader could be set up for another APK,
+     * e.g. by another update dialog, while the download is running. **/
+    private static final class Download {
+        private final String downloadUrl;
+        private final String version;
+        private final String apkHash;
+        private final String downloadPath;
+        private final long downloadSize;
+        private final Map<String, String> downloadParams;
+        private final String workName;
+        private final Data inputData;
+
+        /** Copies the details of the APK that is set in the downloader.
+         * @param downloader The downloader that the APK is set in. **/
+        Download(@NonNull APKDownloader downloader) {
+            this.downloadUrl = downloader.downloadUrl;
+            this.version = downloader.version;
+            this.apkHash = downloader.apkHash;
+            this.downloadPath = downloader.downloadPath;
+            this.downloadSize = downloader.downloadSize;
+            this.downloadParams = new HashMap<>(downloader.downloadParams);
+            this.workName = downloader.getWorkName();
+            this.inputData = downloader.getInputData();
+        }
+    }
+
     //****** Start of functions that can be overridden ******//
 
-    /** Function that is called if the worker is able to run successfully.
+    /** Function that is called on the main thread once the APK is downloaded and the installer is started.
      * Override this function if you wish to handle it manually. **/
     public void onSuccess() {
         // Stub function
     }
 
-    /** Function that is called if the worker is unable to run successfully.
+    /** Function that is called on the main thread while the APK is being downloaded.
+     * Override this function if you wish to show the progress of the download.
+     * @param bytes The number of bytes that are downloaded so far.
+     * @param totalBytes The total number of bytes that would be downloaded, or -1 if it is not known. **/
+    public void onProgress(long bytes, long totalBytes) {
+        // Stub function
+    }
+
+    /** Function that is called on the main thread while the APK is being downloaded, together with its throughput.
+     * The default calls onProgress(bytes, totalBytes).
+     * @param bytes The number of bytes that are downloaded so far.
+     * @param totalBytes The total number of bytes that would be downloaded, or -1 if it is not known.
+     * @param bytesPerSecond The throughput of the download over the last 5 seconds, or -1 if it is not known. **/
+    public void onProgress(long bytes, long totalBytes, long bytesPerSecond) {
+        onProgress(bytes, totalBytes);
+    }
+
+    /** Function that is called on the main thread once each run of the download finishes, before onSuccess or onFailure.
+     * This is also called for downloads that are enqueued again as asked by the server.
+     * Override this function if you wish to record the metrics, e.g. to tell slow servers from slow networks.
+     * @param metrics The metrics of the download. **/
+    public void onMetrics(@NonNull DownloadMetrics metrics) {
+        // Stub function
+    }
+
+    /** Function that is called on the main thread if the APK could not be downloaded or installed.
      * Override this function if you wish to handle it manually.
      * @param e The exception that causes the failure to occur.**/
     public void onFailure(@NonNull Exception e) {
@@ -127,6 +494,18 @@ public class APKDownloader {
         e.printStackTrace();
     }
 
+    /** Function that is called on the main thread if the download is deferred
+     * as the requirements of the download policy are not met at the moment.
+     * The download would start automatically once they are met.
+     * This is not called if a download of the same APK is already enqueued or running, as that download is kept.
+     * Override this function if you wish to handle it manually, the default shows a toast.
+     * @param policy The download policy that is used for the APK.
+     * @param requirement A short description of the requirement that is not met (e.g. "an unmetered network"). **/
+    public void onDeferred(@NonNull DownloadPolicy policy, @NonNull String requirement) {
+        Toast.makeText(context, String.format("The update will be downloaded when there is %s", requirement),
+                Toast.LENGTH_LONG).show();
+    }
+
     //****** Start of getters and setters ******//
 
     /** Sets the title of the notification that will be displayed when the worker is running,
@@ -164,6 +543,28 @@ public class APKDownloader {
         this.downloadUrl = downloadUrl;
     }
 
+    /** Sets the version of the APK that will be downloaded, which identifies the download together with the URL.
+     * This is set automatically by the updater dialog.
+     * @param version The version of the APK, or null if it is not known. **/
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /** Sets the SHA-256 hash of the APK that will be downloaded, which the downloaded APK is verified against.
+     * This is set automatically by the updater dialog if the endpoint provides it.
+     * @param apkHash The SHA-256 hash of the APK as a hex string, or null if it is not known. **/
+    public void setHash(String apkHash) {
+        this.apkHash = apkHash;
+    }
+
+    /** Sets the final URL of the APK after following the redirects from the download URL, if it is known.
+     * The worker would download from this URL directly, and fall back to the download URL if it fails.
+     * This is set automatically by the updater dialog if pre-connecting is enabled.
+     * @param resolvedUrl The resolved URL of the APK, or null if it is not known. **/
+    public void setResolvedUrl(String resolvedUrl) {
+        this.resolvedUrl = resolvedUrl;
+    }
+
     /** Sets the headers used in the download request.
      * @param downloadParams The headers used in the download request. **/
     public void setDownloadParams(Map<String, String> downloadParams) {
@@ -176,7 +577,64 @@ public class APKDownloader {
         this.maxRetryCount = maxRetryCount;
     }
 
-    /** Sets the download path for the APK.
+    /** Sets the size of the APK in bytes, which is used to pick the download policy from the size policies.
+     * This is set automatically from the endpoint if the endpoint provides it.
+     * @param downloadSize The size of the APK in bytes, or -1 if it is not known. **/
+    public void setDownloadSize(long downloadSize) {
+        this.downloadSize = downloadSize;
+    }
+
+    /** Sets the default download policy that is used for the APK.
+     * By default, the APK would be downloaded as long as the device is connected to the internet.
+     * @param downloadPolicy The default download policy. **/
+    public void setDownloadPolicy(@NonNull DownloadPolicy downloadPolicy) {
+        this.downloadPolicy = downloadPolicy;
+    }
+
+    /** Sets the size limit of the APK cache in bytes, defaults to 100 MB.
+     * Downloaded APKs are kept in the cache, so that an APK which is offered again would be installed
+     * without downloading it again. The least recently used APKs would be deleted once the limit is exceeded,
+     * although the latest APK is always kept. The cache is not used if a download path is set.
+     * @param cacheSize The size limit of the APK cache in bytes. **/
+    public void setCacheSize(long cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException(String.format("Cache size must be above or equal to 0, got %s", cacheSize));
+        }
+        this.cacheSize = cacheSize;
+    }
+
+    /** Sets whether the APK would be prefetched once a newer version is found, before the user accepts the update.
+     * If the prefetch is complete by the time the user accepts the update, the APK would be installed immediately.
+     * Defaults to false.
+     * @param prefetchEnabled Whether to prefetch the APK. **/
+    public void setPrefetch(boolean prefetchEnabled) {
+        this.prefetchEnabled = prefetchEnabled;
+    }
+
+    /** Sets the download policy that is used when prefetching the APK.
+     * Defaults to DownloadPolicy.prefetchDefault(), which waits for an unmetered network while the device is idle.
+     * @param prefetchPolicy The download policy for prefetching the APK. **/
+    public void setPrefetchPolicy(@NonNull DownloadPolicy prefetchPolicy) {
+        this.prefetchPolicy = prefetchPolicy;
+    }
+
+    /** Adds a download policy that would be used if the APK is at least the given size.
+     * If multiple policies are added, the one with the largest size that is below the APK size would be used.
+     * For example, addSizePolicy(50 * 1024 * 1024, DownloadPolicy.unmeteredOnly()) would wait for Wi-Fi
+     * for APKs that are larger than 50 MB.
+     * If the size of the APK is not provided by the endpoint, a HEAD request would be sent to get it.
+     * @param minSize The minimum size of the APK (In bytes) for the policy to be used.
+     * @param policy The download policy that would be used. **/
+    public void addSizePolicy(long minSize, @NonNull DownloadPolicy policy) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException(String.format("Size must be above or equal to 0, got %s", minSize));
+        }
+        this.sizePolicies.put(minSize, policy);
+    }
+
+    /** Sets the download path for the APK. If this is not set,
+     * the APK would be saved in the APK cache and named after its SHA-256 hash.
+     * APKs at a set download path are deleted the next time the updater is created instead of being cached.
      * @param downloadPath The download path of the APK. **/
     public void setDownloadPath(String downloadPath) {
         this.downloadPath = downloadPath;
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/** The cache of downloaded APKs, where each APK is named after its SHA-256 hash.
+ * The cache is bounded by a size limit, and the least recently used APKs are evicted first.
+ * An APK which is offered again would be installed from the cache without downloading it,
+ * either by its hash if the endpoint provides it, or through an index from the download URL and the version to the hash.
+ * As the same download URL may serve different versions (e.g. .../latest.apk),
+ * the cache is not used if neither the hash nor the version is known.
+ * The functions in this class access the disk and should not be called on the main thread. **/
+class ApkCache {
+    /** The default size limit of the cache in bytes. **/
+    static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;
+    private static final String TAG = "ApkCache";
+    // The downloader and the download worker use separate instances of the cache
+    private static final Object LOCK = new Object();
+
+    private final UpdaterStateStore index;
+    private final File cacheDir;
+    private final long maxSize;
+
+    /** Default constructor.
+     * @param context The context used to get the cache directory and the index.
+     * @param maxSize The size limit of the cache in bytes. **/
+    ApkCache(@NonNull Context context, long maxSize) {
+        this.index = UpdaterStateStore.getInstance(context);
+        this.cacheDir = getCacheDir(context);
+        this.maxSize = maxSize;
+    }
+
+    /** Gets the directory that the cached APKs are stored in.
+     * @param context The context used to get the download directory. **/
+    @NonNull
+    static File getCacheDir(@NonNull Context context) {
+        return new File(UpdaterFunctions.getInternalDownloadDir(context), "apkCache");
+    }
+
+    /** Gets the cached APK of the given version or hash, or null if it is not cached.
+     * The hash of the APK is verified before it is returned, and the APK is removed if it does not match.
+     * @param downloadUrl The URL that the APK is downloaded from.
+     * @param version The version of the APK, can be null.
+     * @param expectedHash The SHA-256 hash of the APK from the endpoint, can be null. **/
+    File get(@NonNull String downloadUrl, String version, String expectedHash) {
+        String key = getKey(downloadUrl, version);
+        synchronized (LOCK) {
+            String apkHash = expectedHash != null ? expectedHash.toLowerCase(Locale.US) : (key == null ? null : index.get(key));
+            if (apkHash == null) return null;
+            File apkFile = new File(cacheDir, apkHash + ".apk");
+            if (apkFile.isFile()) {
+                try {
+                    if (apkHash.equals(hashFile(apkFile))) {
+                        touch(apkFile);
+                        return apkFile;
+                    }
+                    Log.w(TAG, String.format("Hash of cached APK %s does not match, removing it", apkFile.getAbsolutePath()));
+                } catch (IOException e) {
+                    Log.w(TAG, String.format("Unable to verify cached APK %s with error %s", apkFile.getAbsolutePath(), e.getMessage()));
+                }
+                if (!apkFile.delete()) Log.w(TAG, String.format("Unable to delete %s", apkFile.getAbsolutePath()));
+            }
+            if (key != null) index.remove(key);
+            return null;
+        }
+    }
+
+    /** Adds the APK to the cache, then evicts the least recently used APKs if the cache exceeds its size limit.
+     * The APK must already be in the cache directory and named after its hash.
+     * The APK is only added to the index if its version is known, otherwise it could only be found by its hash.
+     * @param downloadUrl The URL that the APK is downloaded from.
+     * @param version The version of the APK, can be null.
+     * @param apkFile The APK that would be added. **/
+    void put(@NonNull String downloadUrl, String version, @NonNull File apkFile) {
+        String fileName = apkFile.getName();
+        if (!fileName.endsWith(".apk") || !cacheDir.equals(apkFile.getParentFile())) {
+            throw new IllegalArgumentException(String.format("%s is not named after its hash in the cache directory", apkFile.getAbsolutePath()));
+        }
+        String key = getKey(downloadUrl, version);
+        synchronized (LOCK) {
+            if (key != null) index.put(key, fileName.substring(0, fileName.length() - 4));
+            touch(apkFile);
+            evict(apkFile);
+        }
+    }
+
+    /** Gets the key of the APK in the index, or null if the version is not known.
+     * @param downloadUrl The URL that the APK is downloaded from.
+     * @param version The version of the APK, can be null. **/
+    private static String getKey(@NonNull String downloadUrl, String version) {
+        return version == null ? null : String.format("%s%s@%s", UpdaterStateStore.APK_CACHE_PREFIX, downloadUrl, version);
+    }
+
+    /** Deletes the least recently used APKs until the cache is within its size limit.
+     * The given APK is never evicted, even if it is larger than the size limit, as it is about to be installed.
+     * @param keepFile The APK that would not be evicted. **/
+    private void evict(@NonNull File keepFile) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) return;
+        List<File> apkFiles = new ArrayList<>();
+        long totalSize = 0;
+        for (File file: files) {
+            if (file.isFile() && file.getName().endsWith(".apk")) {
+                apkFiles.add(file);
+                totalSize += file.length();
+            }
+        }
+        if (totalSize <= maxSize) return;
+        Collections.sort(apkFiles, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long lastModified1 = o1.lastModified(), lastModified2 = o2.lastModified();
+                return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+            }
+        });
+        for (File apkFile: apkFiles) {
+            if (totalSize <= maxSize) break;
+            if (apkFile.equals(keepFile)) continue;
+            long fileSize = apkFile.length();
+            if (apkFile.delete()) totalSize -= fileSize;
+        }
+        // Remove the index entries of the APKs that are evicted
+        for (Map.Entry<String, String> entry: index.getAll(UpdaterStateStore.APK_CACHE_PREFIX).entrySet()) {
+            if (!new File(cacheDir, entry.getValue() + ".apk").exists()) {
+                index.remove(UpdaterStateStore.APK_CACHE_PREFIX + entry.getKey());
+            }
+        }
+    }
+
+    /** Marks the APK as recently used.
+     * @param apkFile The APK that is used. **/
+    private static void touch(@NonNull File apkFile) {
+        // Some file systems do not allow the modified time to be set, in which case the download time is used instead
+        if (!apkFile.setLastModified(System.currentTimeMillis())) {
+            Log.w(TAG, String.format("Unable to update last used time of %s", apkFile.getAbsolutePath()));
+        }
+    }
+
+    /** Gets the SHA-256 hash of the file as a hex string.
+     * @param file The file that would be hashed. **/
+    @NonNull
+    private static String hashFile(@NonNull File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always present on Android
+            throw new IllegalStateException(e);
+        }
+        InputStream input = new FileInputStream(file);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            byte[] data = new byte[8192];
+            int count;
+            while ((count = input.read(data)) != -1) {
+                digest.update(data, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        return UpdaterFunctions.toHexString(digest.digest());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Waits for the device to be connected to the internet before running a pending task.
+ * A network callback is used on API 21 and above, and a connectivity broadcast receiver is used otherwise.
+ * Multiple tasks that are submitted while waiting are coalesced, and only the latest one would be run. **/
+public class ConnectivityWatcher {
+    private Context context;
+    private final AtomicBoolean isWaiting = new AtomicBoolean(false);
+    private volatile Runnable pendingTask;
+
+    // Only one of these would be registered at any time, depending on the API level
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private BroadcastReceiver connectivityReceiver;
+
+    //****** Start of constructors ******//
+
+    /** Default constructor.
+     * @param context The context used to get the connectivity service. The application context would be used. **/
+    public ConnectivityWatcher(@NonNull Context context) {
+        Context appContext = context.getApplicationContext();
+        this.context = appContext == null ? context : appContext;
+    }
+
+    //****** Start of custom functions ******//
+
+    /** Runs the task on the main thread once the device is connected to the internet.
+     * If the watcher is already waiting for a connection, the task replaces the pending one
+     * and no new listener would be registered.
+     * @param task The task that would be run when the device is connected. **/
+    public synchronized void runWhenConnected(@NonNull Runnable task) {
+        pendingTask = task;
+        if (!isWaiting.compareAndSet(false, true)) return;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                registerNetworkCallback();
+            } else {
+                registerConnectivityReceiver();
+            }
+        } catch (RuntimeException e) {
+            // Some devices throw a SecurityException if too many callbacks are registered
+            isWaiting.set(false);
+            pendingTask = null;
+            Log.w("ConnectivityWatcher", String.format("Unable to listen for network changes with error %s", e.getMessage()));
+        }
+    }
+
+    /** Stops waiting for a connection, the pending task would not be run. **/
+    public synchronized void cancel() {
+        if (isWaiting.compareAndSet(true, false)) {
+            pendingTask = null;
+            unregister();
+        }
+    }
+
+    /** Returns whether a task is currently waiting for the device to be connected. **/
+    public boolean isWaiting() {
+        return isWaiting.get();
+    }
+
+    /** Registers the network callback that is used on API 21 and above. **/
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                // The new network may not be the active network yet
+                if (UpdaterFunctions.isConnected(context)) onConnected();
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                if (UpdaterFunctions.isConnected(context)) onConnected();
+            }
+        };
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build();
+        cm.registerNetworkCallback(request, networkCallback);
+    }
+
+    /** Registers the connectivity broadcast receiver that is used below API 21. **/
+    @SuppressWarnings("deprecation")
+    private void registerConnectivityReceiver() {
+        connectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (UpdaterFunctions.isConnected(context)) onConnected();
+            }
+        };
+        context.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /** Unregisters whichever listener is currently registered. **/
+    private void unregister() {
+        try {
+            if (networkCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+                cm.unregisterNetworkCallback(networkCallback);
+            } else if (connectivityReceiver != null) {
+                context.unregisterReceiver(connectivityReceiver);
+            }
+        } catch (IllegalArgumentException e) {
+            // The listener has already been unregistered
+            Log.w("ConnectivityWatcher", "Network listener is already unregistered");
+        }
+        networkCallback = null;
+        connectivityReceiver = null;
+    }
+
+    /** Called by the listeners when the device is connected. The pending task is run once on the main thread. **/
+    private synchronized void onConnected() {
+        if (isWaiting.compareAndSet(true, false)) {
+            final Runnable task = pendingTask;
+            pendingTask = null;
+            unregister();
+            if (task != null) new Handler(Looper.getMainLooper()).post(task);
+        }
+    }
+}
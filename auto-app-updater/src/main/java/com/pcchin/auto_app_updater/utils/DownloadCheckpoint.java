@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+import java.io.File;
+import java.util.Map;
+
+/** The checkpoint of a partial download, so that a download which is stopped could continue
+ * from the last committed chunk in the next run of the worker instead of starting over.
+ * The checkpoint is only valid while the validator (ETag or Last-Modified) of the APK on the server is unchanged.
+ * This should not be used outside of this library. **/
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class DownloadCheckpoint {
+    // Partial downloads that are not continued within this time are abandoned, e.g. when the download is cancelled
+    private static final long MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final String TAG = "DownloadCheckpoint";
+
+    final File partFile;
+    final long offset;
+    final String validator;
+    final long totalBytes;
+    private final long updatedTime;
+
+    /** Default constructor.
+     * @param partFile The file that the downloaded bytes are written to.
+     * @param offset The number of bytes that are committed to the file.
+     * @param validator The ETag or Last-Modified header of the APK.
+     * @param totalBytes The total size of the APK on the server, or -1 if it is not known.
+     * @param updatedTime The time that the checkpoint is saved, in milliseconds. **/
+    DownloadCheckpoint(@NonNull File partFile, long offset, @NonNull String validator, long totalBytes, long updatedTime) {
+        this.partFile = partFile;
+        this.offset = offset;
+        this.validator = validator;
+        this.totalBytes = totalBytes;
+        this.updatedTime = updatedTime;
+    }
+
+    /** Gets the checkpoint of the download from the given URL, or null if there is no valid checkpoint.
+     * @param stateStore The state store that the checkpoints are stored in.
+     * @param downloadUrl The URL of the APK. **/
+    static DownloadCheckpoint load(@NonNull UpdaterStateStore stateStore, @NonNull String downloadUrl) {
+        return decode(stateStore.get(UpdaterStateStore.DOWNLOAD_CHECKPOINT_PREFIX + downloadUrl));
+    }
+
+    /** Saves the checkpoint of the download from the given URL.
+     * The part file should be synced to the disk up to the offset before this is called.
+     * @param stateStore The state store that the checkpoints are stored in.
+     * @param downloadUrl The URL of the APK. **/
+    void save(@NonNull UpdaterStateStore stateStore, @NonNull String downloadUrl) {
+        stateStore.put(UpdaterStateStore.DOWNLOAD_CHECKPOINT_PREFIX + downloadUrl, String.format("%s\t%s\t%s\t%s\t%s",
+                offset, totalBytes, updatedTime, partFile.getAbsolutePath(), validator));
+    }
+
+    /** Removes the checkpoint of the download from the given URL. The part file is not deleted.
+     * @param stateStore The state store that the checkpoints are stored in.
+     * @param downloadUrl The URL of the APK. **/
+    static void clear(@NonNull UpdaterStateStore stateStore, @NonNull String downloadUrl) {
+        stateStore.remove(UpdaterStateStore.DOWNLOAD_CHECKPOINT_PREFIX + downloadUrl);
+    }
+
+    /** Deletes the partial downloads that have not been continued for a week, together with their checkpoints.
+     * @param context The context used to get the state store. **/
+    public static void deleteStale(@NonNull Context context) {
+        UpdaterStateStore stateStore = UpdaterStateStore.getInstance(context);
+        long currentTime = System.currentTimeMillis();
+        for (Map.Entry<String, String> entry: stateStore.getAll(UpdaterStateStore.DOWNLOAD_CHECKPOINT_PREFIX).entrySet()) {
+            DownloadCheckpoint checkpoint = decode(entry.getValue());
+            if (checkpoint != null && currentTime - checkpoint.updatedTime < MAX_AGE_MILLIS) continue;
+            if (checkpoint != null && checkpoint.partFile.exists() && !checkpoint.partFile.delete()) {
+                Log.w(TAG, String.format("Unable to delete %s", checkpoint.partFile.getAbsolutePath()));
+            }
+            clear(stateStore, entry.getKey());
+        }
+    }
+
+    /** Decodes the checkpoint from the value in the state store, or returns null if it is invalid.
+     * @param value The value in the state store, can be null. **/
+    private static DownloadCheckpoint decode(String value) {
+        if (value == null) return null;
+        // The validator is last as it may contain tabs
+        String[] values = value.split("\t", 5);
+        if (values.length != 5) return null;
+        try {
+            return new DownloadCheckpoint(new File(values[3]), Long.parseLong(values[0]), values[4],
+                    Long.parseLong(values[1]), Long.parseLong(values[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+
+/** The metrics of the final run of an APKDownloadWorker, which are read from its output data.
+ * Runs that are retried by WorkManager do not return any output data, so only the number of retries is known for them.
+ * Values that are not measured (e.g. if no bytes are received) are -1. **/
+public final class DownloadMetrics {
+    private final boolean successful;
+    private final String failureReason;
+    private final int retryCount;
+    private final long durationMillis;
+    private final long firstByteMillis;
+    private final long averageBytesPerSecond;
+    private final long minBytesPerSecond;
+    private final long maxBytesPerSecond;
+    private final int stallCount;
+    private final long longestStallMillis;
+    private final long resumedBytes;
+    private final long downloadedBytes;
+    private final long finalSize;
+
+    /** Reads the metrics from the output data of the worker.
+     * @param outputData The output data of the worker.
+     * @param successful Whether the worker succeeded. **/
+    DownloadMetrics(@NonNull Data outputData, boolean successful) {
+        this.successful = successful;
+        this.failureReason = outputData.getString(APKDownloadWorker.FAILURE_REASON);
+        this.retryCount = outputData.getInt(APKDownloadWorker.METRIC_RUN_ATTEMPT, 0);
+        this.durationMillis = outputData.getLong(APKDownloadWorker.METRIC_DURATION_MILLIS, -1);
+        this.firstByteMillis = outputData.getLong(APKDownloadWorker.METRIC_FIRST_BYTE_MILLIS, -1);
+        this.averageBytesPerSecond = outputData.getLong(APKDownloadWorker.METRIC_BYTES_PER_SECOND, -1);
+        this.minBytesPerSecond = outputData.getLong(APKDownloadWorker.METRIC_MIN_BYTES_PER_SECOND, -1);
+        this.maxBytesPerSecond = outputData.getLong(APKDownloadWorker.METRIC_MAX_BYTES_PER_SECOND, -1);
+        this.stallCount = outputData.getInt(APKDownloadWorker.METRIC_STALL_COUNT, 0);
+        this.longestStallMillis = outputData.getLong(APKDownloadWorker.METRIC_LONGEST_STALL_MILLIS, 0);
+        this.resumedBytes = outputData.getLong(APKDownloadWorker.METRIC_RESUMED_BYTES, 0);
+        this.downloadedBytes = outputData.getLong(APKDownloadWorker.METRIC_DOWNLOADED_BYTES, 0);
+        this.finalSize = outputData.getLong(APKDownloadWorker.METRIC_FINAL_SIZE, -1);
+    }
+
+    //****** Start of getters ******//
+
+    /** Returns whether the APK is downloaded successfully. **/
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /** Gets the reason that the download failed, which is one of the REASON_ values of APKDownloadWorker,
+     * or null if it is successful. **/
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /** Gets the number of times that the download is retried by WorkManager before the final run,
+     * not counting the runs that only waited for the time asked by the server through Retry-After. **/
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    /** Gets the duration of the final run of the worker. **/
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /** Gets the time from sending the request to receiving the first byte of the APK. **/
+    public long getFirstByteMillis() {
+        return firstByteMillis;
+    }
+
+    /** Gets the average throughput from the first byte to the last byte, in bytes per second. **/
+    public long getAverageBytesPerSecond() {
+        return averageBytesPerSecond;
+    }
+
+    /** Gets the lowest throughput over a sliding window of 5 seconds, in bytes per second.
+     * This is -1 if the download took less than 5 seconds. **/
+    public long getMinBytesPerSecond() {
+        return minBytesPerSecond;
+    }
+
+    /** Gets the highest throughput over a sliding window of 5 seconds, in bytes per second.
+     * This is -1 if the download took less than 5 seconds. **/
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    /** Gets the number of times that no bytes are received for at least 5 seconds. **/
+    public int getStallCount() {
+        return stallCount;
+    }
+
+    /** Gets the duration of the longest stall, or 0 if there are none. **/
+    public long getLongestStallMillis() {
+        return longestStallMillis;
+    }
+
+    /** Gets the number of bytes that are continued from the previous runs of the worker. **/
+    public long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    /** Gets the number of bytes that are received in the final run of the worker. **/
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    /** Gets the ratio of the bytes that are continued from the previous runs to the total bytes of the response. **/
+    public double getResumedRatio() {
+        long totalBytes = resumedBytes + downloadedBytes;
+        return totalBytes == 0 ? 0 : (double) resumedBytes / totalBytes;
+    }
+
+    /** Gets the size of the APK after it is decompressed, or -1 if the download failed. **/
+    public long getFinalSize() {
+        return finalSize;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format("DownloadMetrics{successful=%s, failureReason=%s, retryCount=%s, durationMillis=%s, " +
+                        "firstByteMillis=%s, averageBytesPerSecond=%s, minBytesPerSecond=%s, maxBytesPerSecond=%s, " +
+                        "stallCount=%s, longestStallMillis=%s, resumedBytes=%s, downloadedBytes=%s, finalSize=%s}",
+                successful, failureReason, retryCount, durationMillis, firstByteMillis, averageBytesPerSecond,
+                minBytesPerSecond, maxBytesPerSecond, stallCount, longestStallMillis, resumedBytes, downloadedBytes, finalSize);
+    }
+}
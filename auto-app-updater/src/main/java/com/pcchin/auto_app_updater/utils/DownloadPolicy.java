@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.StatFs;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.NetworkType;
+
+/** The conditions that need to be met before the APK would be downloaded.
+ * By default, the only requirement is that the device is connected to the internet.
+ * The policy can be set through APKDownloader.setDownloadPolicy,
+ * or be picked based on the size of the APK through APKDownloader.addSizePolicy. **/
+public class DownloadPolicy {
+    // Thresholds used by the system when reporting that the battery / storage is low
+    private static final int LOW_BATTERY_PERCENT = 15;
+    private static final long LOW_STORAGE_BYTES = 500L * 1024 * 1024;
+
+    private boolean requireUnmetered = false;
+    private boolean requireCharging = false;
+    private boolean requireBatteryNotLow = false;
+    private boolean requireStorageNotLow = false;
+    private boolean requireDeviceIdle = false;
+
+    //****** Start of constructors ******//
+
+    /** Creates a policy which only requires the device to be connected to the internet. **/
+    public DownloadPolicy() {
+        // Default constructor
+    }
+
+    /** Creates a policy which only allows the APK to be downloaded on unmetered networks (e.g. Wi-Fi). **/
+    @NonNull
+    public static DownloadPolicy unmeteredOnly() {
+        return new DownloadPolicy().setRequireUnmetered(true);
+    }
+
+    /** Creates the policy that is used by default when prefetching the APK before the user accepts the update.
+     * The APK would only be prefetched on unmetered networks while the device is idle,
+     * and when the battery and storage are not low. **/
+    @NonNull
+    public static DownloadPolicy prefetchDefault() {
+        return new DownloadPolicy().setRequireUnmetered(true).setRequireDeviceIdle(true)
+                .setRequireBatteryNotLow(true).setRequireStorageNotLow(true);
+    }
+
+    //****** Start of custom functions ******//
+
+    /** Gets the WorkManager constraints for this policy. **/
+    @NonNull
+    Constraints toConstraints() {
+        Constraints.Builder builder = new Constraints.Builder()
+                .setRequiredNetworkType(requireUnmetered ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                .setRequiresCharging(requireCharging)
+                .setRequiresBatteryNotLow(requireBatteryNotLow)
+                .setRequiresStorageNotLow(requireStorageNotLow);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) builder.setRequiresDeviceIdle(requireDeviceIdle);
+        return builder.build();
+    }
+
+    /** Gets the first requirement of the policy that is not currently met by the device,
+     * or null if all the requirements are met and the download could start immediately.
+     * This is only an estimate of what WorkManager would decide.
+     * @param context The context used to get the network and battery status. **/
+    String getUnmetRequirement(@NonNull Context context) {
+        if (requireUnmetered && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm != null && cm.isActiveNetworkMetered()) return "an unmetered network";
+        }
+        if (requireCharging || requireBatteryNotLow) {
+            Intent batteryStatus = context.getApplicationContext().registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (batteryStatus != null) {
+                if (requireCharging && batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+                    return "the device to be charging";
+                }
+                int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1),
+                        scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                if (requireBatteryNotLow && level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT) {
+                    return "the battery to not be low";
+                }
+            }
+        }
+        if (requireStorageNotLow && getAvailableStorage(context) < LOW_STORAGE_BYTES) {
+            return "more storage space";
+        }
+        return null;
+    }
+
+    /** Gets the available storage (in bytes) in the internal download directory.
+     * @param context The context used to get the download directory. **/
+    @SuppressWarnings("deprecation")
+    private static long getAvailableStorage(@NonNull Context context) {
+        try {
+            StatFs statFs = new StatFs(UpdaterFunctions.getInternalDownloadDir(context));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                return statFs.getAvailableBytes();
+            } else {
+                return (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+            }
+        } catch (IllegalArgumentException e) {
+            // The directory does not exist yet
+            return Long.MAX_VALUE;
+        }
+    }
+
+    //****** Start of getters and setters ******//
+
+    /** Sets whether the APK would only be downloaded on unmetered networks, defaults to false.
+     * @param requireUnmetered Whether an unmetered network is required. **/
+    public DownloadPolicy setRequireUnmetered(boolean requireUnmetered) {
+        this.requireUnmetered = requireUnmetered;
+        return this;
+    }
+
+    /** Sets whether the device needs to be charging for the APK to be downloaded, defaults to false.
+     * @param requireCharging Whether the device needs to be charging. **/
+    public DownloadPolicy setRequireCharging(boolean requireCharging) {
+        this.requireCharging = requireCharging;
+        return this;
+    }
+
+    /** Sets whether the battery of the device should not be low for the APK to be downloaded, defaults to false.
+     * @param requireBatteryNotLow Whether the battery should not be low. **/
+    public DownloadPolicy setRequireBatteryNotLow(boolean requireBatteryNotLow) {
+        this.requireBatteryNotLow = requireBatteryNotLow;
+        return this;
+    }
+
+    /** Sets whether the storage of the device should not be low for the APK to be downloaded, defaults to false.
+     * @param requireStorageNotLow Whether the storage should not be low. **/
+    public DownloadPolicy setRequireStorageNotLow(boolean requireStorageNotLow) {
+        this.requireStorageNotLow = requireStorageNotLow;
+        return this;
+    }
+
+    /** Sets whether the device needs to be idle for the APK to be downloaded, defaults to false.
+     * This is only supported on Android 6.0 and above, and is ignored on older versions.
+     * As WorkManager does not allow backoff for idle jobs, failed downloads would be retried without backoff.
+     * @param requireDeviceIdle Whether the device needs to be idle. **/
+    public DownloadPolicy setRequireDeviceIdle(boolean requireDeviceIdle) {
+        this.requireDeviceIdle = requireDeviceIdle;
+        return this;
+    }
+
+    /** Returns whether the APK would only be downloaded on unmetered networks. **/
+    public boolean isRequireUnmetered() {
+        return requireUnmetered;
+    }
+
+    /** Returns whether the device needs to be charging for the APK to be downloaded. **/
+    public boolean isRequireCharging() {
+        return requireCharging;
+    }
+
+    /** Returns whether the battery of the device should not be low for the APK to be downloaded. **/
+    public boolean isRequireBatteryNotLow() {
+        return requireBatteryNotLow;
+    }
+
+    /** Returns whether the storage of the device should not be low for the APK to be downloaded. **/
+    public boolean isRequireStorageNotLow() {
+        return requireStorageNotLow;
+    }
+
+    /** Returns whether the device needs to be idle for the APK to be downloaded. **/
+    public boolean isRequireDeviceIdle() {
+        return requireDeviceIdle;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.pcchin.auto_app_updater.http.HttpCall;
+import com.pcchin.auto_app_updater.http.HttpRequest;
+import com.pcchin.auto_app_updater.http.HttpResponse;
+import com.pcchin.auto_app_updater.http.HttpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Warms up the connection to the host of the APK while the update dialog is shown.
+ * The redirects from the download URL are followed and the first byte of the APK is requested,
+ * so that DNS, TCP and TLS are done and the connection is kept alive in the connection pool
+ * by the time the download starts. If the server ignores the range and sends the whole APK,
+ * the request is canceled without reading the body. The final URL after the redirects is also kept
+ * so that the download worker does not need to follow the redirects again. **/
+class DownloadPreconnector {
+    private static final String TAG = "DownloadPreconnector";
+    private static final int MAX_REDIRECTS = 5;
+    // Redirect targets such as signed CDN URLs usually expire after a few minutes
+    private static final long RESOLVED_URL_VALIDITY_MILLIS = 2 * 60 * 1000;
+    // Bodies that are larger than this are not drained, as the server may have ignored the range and sent the whole APK
+    private static final int MAX_DRAIN_BYTES = 4096;
+
+    private final String downloadUrl;
+    private final Map<String, String> headers;
+    private volatile HttpCall currentCall;
+    private volatile boolean canceled;
+    private volatile String resolvedUrl;
+    private volatile long resolvedTime;
+
+    /** Default constructor.
+     * @param downloadUrl The URL of the APK.
+     * @param headers The headers that would be sent together with the download request. **/
+    DownloadPreconnector(@NonNull String downloadUrl, @NonNull Map<String, String> headers) {
+        this.downloadUrl = downloadUrl;
+        this.headers = new HashMap<>(headers);
+    }
+
+    /** Starts warming up the connection in the background. **/
+    void start() {
+        UpdaterExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                preconnect();
+            }
+        });
+    }
+
+    /** Stops warming up the connection, the resolved URL would not be available. **/
+    void cancel() {
+        canceled = true;
+        HttpCall call = currentCall;
+        if (call != null) call.cancel();
+    }
+
+    /** Gets the final URL of the APK after following the redirects.
+     * Returns null if the redirects have not been resolved yet, or if the resolved URL may have expired. **/
+    String getResolvedUrl() {
+        String currentUrl = resolvedUrl;
+        if (currentUrl == null || SystemClock.elapsedRealtime() - resolvedTime > RESOLVED_URL_VALIDITY_MILLIS) {
+            return null;
+        }
+        return currentUrl;
+    }
+
+    /** Follows the redirects of the download URL and requests the first byte of the APK from the final host. **/
+    private void preconnect() {
+        String currentUrl = downloadUrl;
+        Map<String, String> currentHeaders = headers;
+        try {
+            for (int i = 0; i <= MAX_REDIRECTS && !canceled; i++) {
+                HttpRequest request = new HttpRequest.Builder(currentUrl).setHeaders(currentHeaders)
+                        .setHeader("Range", "bytes=0-0").setFollowRedirects(false).build();
+                HttpCall call = HttpTransport.getDownloadTransport().newCall(request);
+                currentCall = call;
+                HttpResponse response = call.execute();
+                try {
+                    // Small bodies are drained so that the connection would be returned to the pool,
+                    // while the call is canceled for any other body instead of downloading it
+                    if (!canDrain(response) || !drain(response.getBody())) call.cancel();
+                    String location = response.getHeader("Location");
+                    if (response.getStatusCode() / 100 == 3 && location != null) {
+                        String nextUrl = new URL(new URL(currentUrl), location).toString();
+                        currentHeaders = UpdaterFunctions.getRedirectHeaders(currentHeaders, currentUrl, nextUrl);
+                        currentUrl = nextUrl;
+                    } else {
+                        if (response.isSuccessful()) {
+                            resolvedUrl = currentUrl;
+                            resolvedTime = SystemClock.elapsedRealtime();
+                        }
+                        return;
+                    }
+                } finally {
+                    response.close();
+                }
+            }
+        } catch (IOException e) {
+            // The download would still work without the warm up
+            Log.w(TAG, String.format("Unable to warm up connection to %s with error %s", currentUrl, e.getMessage()));
+        } finally {
+            currentCall = null;
+        }
+    }
+
+    /** Checks whether the body of the response is expected to be small enough to be drained,
+     * i.e. redirects, partial responses for the requested range, and bodies of at most MAX_DRAIN_BYTES.
+     * Servers that ignore the range would send the whole APK with status 200, which is never drained.
+     * @param response The response of the request. **/
+    private static boolean canDrain(@NonNull HttpResponse response) {
+        int statusCode = response.getStatusCode();
+        long contentLength = response.getContentLength();
+        if (contentLength >= 0) return contentLength <= MAX_DRAIN_BYTES;
+        return statusCode / 100 == 3 || statusCode == 206;
+    }
+
+    /** Reads the stream until it ends, up to MAX_DRAIN_BYTES.
+     * @param stream The stream that would be drained.
+     * @return true if the stream ended, and false if it is longer than MAX_DRAIN_BYTES. **/
+    private static boolean drain(@NonNull InputStream stream) throws IOException {
+        byte[] buffer = new byte[512];
+        int total = 0, count;
+        while ((count = stream.read(buffer)) != -1) {
+            total += count;
+            if (total > MAX_DRAIN_BYTES) return false;
+        }
+        return true;
+    }
+}
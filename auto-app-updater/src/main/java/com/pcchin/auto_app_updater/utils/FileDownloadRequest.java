@@ -22,7 +22,10 @@ import com.android.volley.toolbox.HttpHeaderParser;
 
 import java.util.Map;
 
-/** Request format used by Volley to download a binary file. **/
+/** Request format used by Volley to download a binary file.
+ * @deprecated The APK download worker now streams the file through UrlConnectionTransport,
+ * as Volley reads the whole file into memory. **/
+@Deprecated
 public class FileDownloadRequest extends Request<byte[]> {
     private final Response.Listener<byte[]> requestResponse;
     private final Map<String, String> dlParams;
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** The tracer that records the sections of the updater, so that they show up in traces of the app.
+ * Extend this class to send the sections to your own tracing backend.
+ * The default tracer is SystemTracer, which records them with android.os.Trace for Perfetto and systrace.
+ * Sections are started and ended on the same thread and could be nested,
+ * while async sections may end on a different thread and are identified by their name and cookie. **/
+public abstract class Tracer {
+    private static final AtomicInteger nextCookie = new AtomicInteger();
+    private static volatile Tracer defaultTracer;
+
+    /** Starts a section on the current thread, which should be ended by endSection on the same thread.
+     * @param name The name of the section. **/
+    public abstract void beginSection(@NonNull String name);
+
+    /** Ends the last section that is started on the current thread. **/
+    public abstract void endSection();
+
+    /** Starts an async section, which could be ended on any thread.
+     * @param name The name of the section.
+     * @param cookie The cookie that identifies the section among the sections with the same name. **/
+    public abstract void beginAsyncSection(@NonNull String name, int cookie);
+
+    /** Ends an async section.
+     * @param name The name of the section.
+     * @param cookie The cookie that is passed to beginAsyncSection. **/
+    public abstract void endAsyncSection(@NonNull String name, int cookie);
+
+    /** Gets a new cookie for an async section, which is unique within the process. **/
+    public static int newCookie() {
+        return nextCookie.incrementAndGet();
+    }
+
+    /** Gets the tracer that is used by the updater. Defaults to SystemTracer. **/
+    @NonNull
+    public static Tracer getDefault() {
+        if (defaultTracer == null) {
+            synchronized (Tracer.class) {
+                if (defaultTracer == null) defaultTracer = new SystemTracer();
+            }
+        }
+        return defaultTracer;
+    }
+
+    /** Sets the tracer that is used by the updater.
+     * As the APK download worker may run in a different session from the updater,
+     * this should be set when the app starts (e.g. in Application.onCreate) if a custom tracer is used.
+     * @param tracer The tracer that would be used. **/
+    public static void setDefault(@NonNull Tracer tracer) {
+        defaultTracer = tracer;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+/** Measures the throughput of a download from the reads of its response.
+ * The throughput is measured over a sliding window of WINDOW_BUCKETS buckets of BUCKET_MILLIS each,
+ * and the lowest and highest throughput of the full windows are kept.
+ * A gap of at least STALL_MILLIS between receiving bytes is counted as a stall.
+ * All times are from SystemClock.elapsedRealtime(), and the meter is only used by the thread of the worker. **/
+class TransferMeter {
+    private static final long BUCKET_MILLIS = 500;
+    private static final int WINDOW_BUCKETS = 10;
+    private static final long WINDOW_MILLIS = BUCKET_MILLIS * WINDOW_BUCKETS;
+    /** The minimum time without receiving any bytes that is counted as a stall. **/
+    static final long STALL_MILLIS = 5000;
+
+    private final long[] buckets = new long[WINDOW_BUCKETS];
+    private final long startTime;
+    private long requestTime = -1;
+    private long firstByteTime = -1;
+    private long lastByteTime = -1;
+    private long currentBucket; // The index of the bucket that is being filled, counted from the first byte.
+    private long windowBytes; // The sum of the bytes in all the buckets.
+    private long bytes;
+    private long minBytesPerSecond = -1;
+    private long maxBytesPerSecond = -1;
+    private int stallCount;
+    private long longestStallMillis;
+
+    /** Creates the meter for a single run of the worker.
+     * @param startTime The time that the run is started. **/
+    TransferMeter(long startTime) {
+        this.startTime = startTime;
+    }
+
+    /** Records the time that the request for the download is sent.
+     * Only the first request is recorded, so that the time to first byte includes any fallbacks.
+     * @param time The time that the request is sent. **/
+    void onRequest(long time) {
+        if (requestTime < 0) requestTime = time;
+    }
+
+    /** Records the bytes that are received from the response.
+     * @param count The number of bytes that are received.
+     * @param time The time that the bytes are received. **/
+    void onBytes(int count, long time) {
+        if (count <= 0) return;
+        if (firstByteTime < 0) {
+            firstByteTime = time;
+        } else {
+            checkStall(time);
+            advance((time - firstByteTime) / BUCKET_MILLIS);
+        }
+        buckets[(int) (currentBucket % WINDOW_BUCKETS)] += count;
+        windowBytes += count;
+        bytes += count;
+        lastByteTime = time;
+    }
+
+    /** Records the end of the response, either as it is complete or as the read failed.
+     * A read that fails after a long time without any bytes (e.g. a read timeout) is counted as a stall.
+     * @param time The time that the response ended. **/
+    void onEnd(long time) {
+        checkStall(time);
+        if (firstByteTime >= 0) advance((time - firstByteTime) / BUCKET_MILLIS);
+    }
+
+    /** Counts a stall if no bytes are received from the last byte (or the request) up to the given time.
+     * @param time The current time. **/
+    private void checkStall(long time) {
+        long lastTime = lastByteTime >= 0 ? lastByteTime : requestTime;
+        if (lastTime < 0) return;
+        long gap = time - lastTime;
+        if (gap >= STALL_MILLIS) {
+            stallCount++;
+            longestStallMillis = Math.max(longestStallMillis, gap);
+        }
+    }
+
+    /** Moves the window forward to the given bucket, recording the throughput of each full window that passes.
+     * @param bucket The index of the bucket that the current time falls into. **/
+    private void advance(long bucket) {
+        // Every full window after a long stall would be empty, so they are recorded once instead of one by one
+        if (bucket - currentBucket > WINDOW_BUCKETS) {
+            if (currentBucket >= WINDOW_BUCKETS - 1) recordWindow();
+            windowBytes = 0;
+            for (int i = 0; i < WINDOW_BUCKETS; i++) buckets[i] = 0;
+            recordWindow();
+            currentBucket = bucket;
+            return;
+        }
+        while (currentBucket < bucket) {
+            // The window is only full once the first bucket has been completed WINDOW_BUCKETS times
+            if (currentBucket >= WINDOW_BUCKETS - 1) recordWindow();
+            currentBucket++;
+            int index = (int) (currentBucket % WINDOW_BUCKETS);
+            windowBytes -= buckets[index];
+            buckets[index] = 0;
+        }
+    }
+
+    /** Records the throughput of the window that has just been completed. **/
+    private void recordWindow() {
+        long bytesPerSecond = windowBytes * 1000 / WINDOW_MILLIS;
+        if (minBytesPerSecond < 0 || bytesPerSecond < minBytesPerSecond) minBytesPerSecond = bytesPerSecond;
+        if (bytesPerSecond > maxBytesPerSecond) maxBytesPerSecond = bytesPerSecond;
+    }
+
+    //****** Start of getters ******//
+
+    /** Gets the throughput of the current window in bytes per second,
+     * or the average throughput if the first window has not been completed yet.
+     * @param time The current time. **/
+    long getWindowBytesPerSecond(long time) {
+        if (firstByteTime < 0) return 0;
+        advance((time - firstByteTime) / BUCKET_MILLIS);
+        // The window covers the previous full buckets and the part of the current bucket that has passed
+        long elapsed = Math.min(time - firstByteTime,
+                WINDOW_MILLIS - BUCKET_MILLIS + (time - firstByteTime) % BUCKET_MILLIS);
+        return elapsed <= 0 ? bytes : windowBytes * 1000 / elapsed;
+    }
+
+    /** Gets the average throughput from the first byte to the last byte in bytes per second, or -1 if no bytes are received. **/
+    long getAverageBytesPerSecond() {
+        if (firstByteTime < 0) return -1;
+        long elapsed = lastByteTime - firstByteTime;
+        return elapsed <= 0 ? bytes : bytes * 1000 / elapsed;
+    }
+
+    /** Gets the lowest throughput of all the full windows in bytes per second, or -1 if no window is completed. **/
+    long getMinBytesPerSecond() {
+        return minBytesPerSecond;
+    }
+
+    /** Gets the highest throughput of all the full windows in bytes per second, or -1 if no window is completed. **/
+    long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    /** Gets the time from the first request to the first byte of the response, or -1 if no bytes are received. **/
+    long getFirstByteMillis() {
+        return firstByteTime < 0 || requestTime < 0 ? -1 : firstByteTime - requestTime;
+    }
+
+    /** Gets the number of bytes that are received. **/
+    long getBytes() {
+        return bytes;
+    }
+
+    /** Gets the number of stalls in the download. **/
+    int getStallCount() {
+        return stallCount;
+    }
+
+    /** Gets the duration of the longest stall in the download, or 0 if there are none. **/
+    long getLongestStallMillis() {
+        return longestStallMillis;
+    }
+
+    /** Gets the time since the run is started.
+     * @param time The current time. **/
+    long getDurationMillis(long time) {
+        return time - startTime;
+    }
+}
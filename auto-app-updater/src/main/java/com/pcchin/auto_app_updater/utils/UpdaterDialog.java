@@ -27,6 +27,9 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 import androidx.fragment.app.DialogFragment;
 
+import com.pcchin.auto_app_updater.core.MessageTemplate;
+import com.pcchin.auto_app_updater.endpoint.UpdateCheckResult;
+
 import java.util.HashMap;
 
 /** The dialog that will be shown when a newer version of the app is found,
@@ -39,15 +42,20 @@ public class UpdaterDialog extends DialogFragment {
     private String currentVersion;
     private String newVersion;
     private String downloadUrl;
+    private long downloadSize = -1;
+    private String apkHash;
     private String authParam;
     private String authString;
-    private String updateMessage = "A newer version of the app is available. Would you like to update to " +
-                    "the latest version?";
+    // The update message is compiled when it is set, so that it is rendered in a single pass
+    private MessageTemplate updateMessage = MessageTemplate.compile("A newer version of the app is available. " +
+            "Would you like to update to the latest version?");
     private String releaseInfo = "";
     private String learnMoreUrl = "about:blank";
     private String title = "Update App";
     private boolean showReleaseInfo = false;
     private boolean showLearnMore = false;
+    private boolean preconnect = false;
+    private DownloadPreconnector preconnector;
 
     //****** Start of constructors ******//
 
@@ -72,16 +80,37 @@ public class UpdaterDialog extends DialogFragment {
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        this.dialog = createDialog();
+        Tracer.getDefault().beginSection("UpdaterDialog.createDialog");
+        try {
+            this.dialog = createDialog();
+        } finally {
+            Tracer.getDefault().endSection();
+        }
     }
 
-    /** Dismiss the dialog if the last one is still showing and the dialog is not rotatable. **/
+    /** Dismiss the dialog if the last one is still showing and the dialog is not rotatable.
+     * The connection to the download host would be warmed up here if pre-connecting is enabled. **/
     @Override
     public void onStart() {
         if (!rotatable && dialog != null && dialog.isShowing()) {
             dismiss();
         }
         super.onStart();
+        if (preconnect && preconnector == null && downloadUrl != null) {
+            preconnector = new DownloadPreconnector(downloadUrl, getDownloadParams());
+            preconnector.start();
+        }
+    }
+
+    /** Stops warming up the connection once the dialog is dismissed.
+     * @param dialog The dialog that is dismissed. **/
+    @Override
+    public void onDismiss(@NonNull DialogInterface dialog) {
+        super.onDismiss(dialog);
+        if (preconnector != null) {
+            preconnector.cancel();
+            preconnector = null;
+        }
     }
 
     /** Returns the set dialog.
@@ -105,21 +134,17 @@ public class UpdaterDialog extends DialogFragment {
        if (showReleaseInfo) {
            builder.setMessage(releaseInfo);
        } else {
-           builder.setMessage(updateMessage.replaceAll(TemplateRegex.RELEASE_INFO, releaseInfo)
-                   .replaceAll(TemplateRegex.DOWNLOAD_URL, downloadUrl)
-                   .replaceAll(TemplateRegex.LEARN_MORE_URL, learnMoreUrl)
-                   .replaceAll(TemplateRegex.CURRENT_VERSION, currentVersion)
-                   .replaceAll(TemplateRegex.NEW_VERSION, newVersion));
+           builder.setMessage(updateMessage.render(releaseInfo, downloadUrl, learnMoreUrl, currentVersion, newVersion));
        }
-       final HashMap<String, String> dlParams = new HashMap<>();
-       if (authParam != null && authString != null) dlParams.put(authParam, authString);
+       final HashMap<String, String> dlParams = getDownloadParams();
        if (showLearnMore) builder.setNeutralButton("Learn More", null);
        builder.setPositiveButton("OK", new DialogInterface.OnClickListener() {
            @Override
            public void onClick(DialogInterface dialog, int which) {
+               // The resolved URL needs to be taken before the dialog is dismissed, as the pre-connector is canceled then
+               String resolvedUrl = preconnector == null ? null : preconnector.getResolvedUrl();
                dialog.dismiss();
-               downloader.setDownloadParams(dlParams);
-               downloader.setDownloadUrl(downloadUrl);
+               prepareDownloader(dlParams, resolvedUrl);
                downloader.start();
            }
        });
@@ -148,6 +173,86 @@ public class UpdaterDialog extends DialogFragment {
        return dialog;
     }
 
+    /** Creates a new dialog with the configuration of this dialog and the details of the release from the update check.
+     * This is called by the endpoint for each update check that finds a newer version, so that this dialog is not changed,
+     * and should not be used outside of this library.
+     * @param result The result of the update check. **/
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @NonNull
+    public UpdaterDialog newDialog(@NonNull UpdateCheckResult result) {
+        UpdaterDialog newDialog = newInstance();
+        copyConfigurationTo(newDialog);
+        newDialog.setCurrentVersion(result.getCurrentVersion());
+        newDialog.setNewVersion(result.getNewVersion());
+        newDialog.setDownloadUrl(result.getDownloadUrl());
+        newDialog.setDownloadSize(result.getDownloadSize());
+        newDialog.setHash(result.getHash());
+        if (result.getReleaseInfo() != null) newDialog.setReleaseInfo(result.getReleaseInfo());
+        if (result.getLearnMoreUrl() != null) newDialog.setLearnMoreUrl(result.getLearnMoreUrl());
+        if (result.isShowLearnMore()) newDialog.setShowLearnMore(true);
+        if (result.getAuthParam() != null) newDialog.setAuth(result.getAuthParam(), result.getAuthString());
+        return newDialog;
+    }
+
+    /** Creates an empty dialog of the same class as this dialog, which is used by newDialog.
+     * Override this function if the dialog does not have a public empty constructor. **/
+    @NonNull
+    protected UpdaterDialog newInstance() {
+        try {
+            return getClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException(String.format("Unable to create %s, make sure that it has a public empty " +
+                    "constructor or that newInstance is overridden", getClass().getName()), e);
+        }
+    }
+
+    /** Copies the configuration of this dialog, such as the title and the downloader, to a dialog from newInstance.
+     * Override this function to copy the configuration of your own dialog, and call super.copyConfigurationTo.
+     * @param dialog The dialog that the configuration is copied to. **/
+    protected void copyConfigurationTo(@NonNull UpdaterDialog dialog) {
+        dialog.rotatable = rotatable;
+        dialog.downloader = downloader;
+        dialog.updateMessage = updateMessage;
+        dialog.releaseInfo = releaseInfo;
+        dialog.learnMoreUrl = learnMoreUrl;
+        dialog.title = title;
+        dialog.showReleaseInfo = showReleaseInfo;
+        dialog.showLearnMore = showLearnMore;
+        dialog.preconnect = preconnect;
+        dialog.authParam = authParam;
+        dialog.authString = authString;
+    }
+
+    /** Starts prefetching the APK through the downloader, if prefetching is enabled in the downloader.
+     * This is called by the endpoint before the dialog is shown, and should not be used outside of this library. **/
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void startPrefetch() {
+        if (downloader == null) return;
+        prepareDownloader(getDownloadParams(), null);
+        downloader.prefetch();
+    }
+
+    /** Passes the details of the APK on to the downloader, which may be shared with the dialogs of other update checks.
+     * The downloader copies them once it is started, so this should be called right before start or prefetch.
+     * @param dlParams The headers that are sent together with the download request.
+     * @param resolvedUrl The URL that the download URL redirects to, or null if it is not known. **/
+    private void prepareDownloader(@NonNull HashMap<String, String> dlParams, String resolvedUrl) {
+        downloader.setDownloadParams(dlParams);
+        downloader.setResolvedUrl(resolvedUrl);
+        downloader.setDownloadUrl(downloadUrl);
+        downloader.setDownloadSize(downloadSize);
+        downloader.setVersion(newVersion);
+        downloader.setHash(apkHash);
+    }
+
+    /** Gets the headers that are sent together with the download request. **/
+    @NonNull
+    private HashMap<String, String> getDownloadParams() {
+        HashMap<String, String> dlParams = new HashMap<>();
+        if (authParam != null && authString != null) dlParams.put(authParam, authString);
+        return dlParams;
+    }
+
     /** Sets whether the fragment is rotatable. The default is set to true.
      * @param rotatable Whether the fragment is rotatable. **/
     public void setRotatable(boolean rotatable) {
@@ -161,10 +266,11 @@ public class UpdaterDialog extends DialogFragment {
     }
 
     /** Sets the update message for the app. Certain templates can be used.
-     * The possible templates that can be used are found in UpdateDialog.Template.
+     * The possible templates that can be used are found in UpdateDialog.Template,
+     * and templates whose values are not set would be shown as empty strings.
      * @param updateMessage The update message for the app. **/
     public void setUpdateMessage(String updateMessage) {
-        this.updateMessage = updateMessage;
+        this.updateMessage = MessageTemplate.compile(updateMessage == null ? "" : updateMessage);
     }
 
     /** Sets the URL that is used to download the APK.
@@ -173,6 +279,27 @@ public class UpdaterDialog extends DialogFragment {
         this.downloadUrl = downloadUrl;
     }
 
+    /** Sets the size of the APK in bytes, which is passed on to the downloader.
+     * @param downloadSize The size of the APK in bytes, or -1 if it is not known. **/
+    public void setDownloadSize(long downloadSize) {
+        this.downloadSize = downloadSize;
+    }
+
+    /** Sets the SHA-256 hash of the APK, which is passed on to the downloader to verify the APK.
+     * @param apkHash The SHA-256 hash of the APK as a hex string, or null if it is not known. **/
+    public void setHash(String apkHash) {
+        this.apkHash = apkHash;
+    }
+
+    /** Sets whether to connect to the download host while the dialog is shown, defaults to false.
+     * If this is enabled, the redirects from the download URL would be followed and the connection
+     * to the final host would be opened in the background, so that the download starts faster
+     * once the user accepts the update. This sends an extra request for the first byte of the APK.
+     * @param preconnect Whether to connect to the download host while the dialog is shown. **/
+    public void setPreconnect(boolean preconnect) {
+        this.preconnect = preconnect;
+    }
+
     /** Set whether to show the release info of the app. If the release info is not set,
      * nothing would be displayed as the message.
      * @param showReleaseInfo Whether to show the release info of the app. **/
@@ -235,15 +362,4 @@ public class UpdaterDialog extends DialogFragment {
         public static final String CURRENT_VERSION = "${currentVersion}";
         public static final String NEW_VERSION = "${newVersion}";
     }
-
-    /** The regex for message templates that will be replaced with specific values in the message section of the dialog.
-     * This should not be used outside this library. **/
-    @SuppressWarnings("RegExpRedundantEscape") // Escape is actually necessary, false positive
-    static class TemplateRegex {
-        public static final String RELEASE_INFO = "\\$\\{releaseInfo\\}";
-        public static final String DOWNLOAD_URL = "\\$\\{downloadUrl\\}";
-        public static final String LEARN_MORE_URL = "\\$\\{learnMoreUrl\\}";
-        public static final String CURRENT_VERSION = "\\$\\{currentVersion\\}";
-        public static final String NEW_VERSION = "\\$\\{newVersion\\}";
-    }
 }
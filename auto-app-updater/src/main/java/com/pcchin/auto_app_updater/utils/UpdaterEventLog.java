@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/** The process-wide log of the recent events of the updater, which could be dumped into bug reports.
+ * The events are stored in a ring buffer of CAPACITY entries that is allocated once,
+ * so recording an event does not allocate any objects and the oldest events are overwritten once it is full.
+ * Each event has a type, a subject (e.g. the class name of the endpoint or the reason of a failure) and a value
+ * (e.g. the status code or the percentage of the download), where the subject should be an existing string
+ * such as a constant, so that no string is created when the event is recorded. **/
+public final class UpdaterEventLog {
+    /** The number of events that are kept. **/
+    public static final int CAPACITY = 256;
+
+    /** The update check is started by AutoAppUpdater. **/
+    public static final int CHECK_STARTED = 0;
+    /** The update check is attached to an identical check that is in flight. **/
+    public static final int CHECK_ATTACHED = 1;
+    /** The update check is deferred until the device is online. **/
+    public static final int CHECK_DEFERRED = 2;
+    /** The endpoint in the subject failed, with the HTTP status code as the value, or -1 for other errors. **/
+    public static final int ENDPOINT_FAILED = 3;
+    /** The update check falls back to the endpoint in the subject. **/
+    public static final int FALLBACK = 4;
+    /** The endpoint in the subject completed the check, with 1 as the value if an update is available and 0 otherwise. **/
+    public static final int CHECK_COMPLETED = 5;
+    /** The update dialog is shown. **/
+    public static final int DIALOG_SHOWN = 6;
+    /** The download of the APK is enqueued. **/
+    public static final int DOWNLOAD_ENQUEUED = 7;
+    /** The download of the APK reached the percentage in the value, which is recorded every 25%. **/
+    public static final int DOWNLOAD_PROGRESS = 8;
+    /** The run of the download is retried by WorkManager, with the run attempt as the value. **/
+    public static final int DOWNLOAD_RETRIED = 9;
+    /** The download of the APK failed, with the reason as the subject and the status code as the value, if any. **/
+    public static final int DOWNLOAD_FAILED = 10;
+    /** The download of the APK succeeded, with the size of the APK as the value. **/
+    public static final int DOWNLOAD_SUCCEEDED = 11;
+    /** The installer of the APK is launched. **/
+    public static final int INSTALL_LAUNCHED = 12;
+
+    private static final String[] TYPE_NAMES = {"CHECK_STARTED", "CHECK_ATTACHED", "CHECK_DEFERRED",
+            "ENDPOINT_FAILED", "FALLBACK", "CHECK_COMPLETED", "DIALOG_SHOWN", "DOWNLOAD_ENQUEUED",
+            "DOWNLOAD_PROGRESS", "DOWNLOAD_RETRIED", "DOWNLOAD_FAILED", "DOWNLOAD_SUCCEEDED", "INSTALL_LAUNCHED"};
+    private static final UpdaterEventLog instance = new UpdaterEventLog();
+
+    // The events are stored in parallel arrays so that no object is created for each event
+    private final long[] times = new long[CAPACITY];
+    private final int[] types = new int[CAPACITY];
+    private final String[] subjects = new String[CAPACITY];
+    private final long[] values = new long[CAPACITY];
+    private long count; // The total number of events that are recorded, including those that are overwritten.
+
+    private UpdaterEventLog() {
+        // Only the shared instance is used
+    }
+
+    /** Gets the shared event log of the updater. **/
+    @NonNull
+    public static UpdaterEventLog getInstance() {
+        return instance;
+    }
+
+    /** Records an event without any subject or value.
+     * @param type The type of the event, which is one of the constants of this class. **/
+    public static void record(int type) {
+        instance.add(type, null, -1);
+    }
+
+    /** Records an event in the log.
+     * @param type The type of the event, which is one of the constants of this class.
+     * @param subject The subject of the event, which should be an existing string. Could be null.
+     * @param value The value of the event, or -1 if there is none. **/
+    public static void record(int type, String subject, long value) {
+        instance.add(type, subject, value);
+    }
+
+    /** Adds the event to the ring buffer, overwriting the oldest event if it is full. **/
+    private synchronized void add(int type, String subject, long value) {
+        int index = (int) (count % CAPACITY);
+        times[index] = SystemClock.elapsedRealtime();
+        types[index] = type;
+        subjects[index] = subject;
+        values[index] = value;
+        count++;
+    }
+
+    /** Removes all the events from the log. **/
+    public synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) subjects[i] = null;
+        count = 0;
+    }
+
+    /** Writes the events in the log from the oldest to the newest, one per line.
+     * Each line contains the time from SystemClock.elapsedRealtime(), the type, the subject and the value of the event.
+     * @param writer The writer that the events are written to. **/
+    public synchronized void dump(@NonNull PrintWriter writer) {
+        long start = Math.max(0, count - CAPACITY);
+        writer.println(String.format("UpdaterEventLog: %s events, %s overwritten", count - start, start));
+        for (long i = start; i < count; i++) {
+            int index = (int) (i % CAPACITY);
+            int type = types[index];
+            writer.println(String.format("%s %s %s %s", times[index],
+                    type >= 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : String.valueOf(type),
+                    subjects[index] == null ? "-" : subjects[index], values[index]));
+        }
+        writer.flush();
+    }
+
+    /** Gets the events in the log as a string, which could be attached to a bug report. **/
+    @NonNull
+    public String dump() {
+        StringWriter output = new StringWriter();
+        dump(new PrintWriter(output));
+        return output.toString();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** The executors that are shared within the updater, so that no threads are created per request. **/
+public class UpdaterExecutors {
+    private static final int MAX_BACKGROUND_THREADS = 4;
+    private static volatile ThreadPoolExecutor backgroundExecutor;
+    private static volatile Executor mainExecutor;
+
+    private UpdaterExecutors() {
+        throw new IllegalStateException("Utility class!");
+    }
+
+    /** Gets the executor that is used for short network and disk operations outside of the main thread.
+     * Idle threads are released after 30 seconds. **/
+    @NonNull
+    public static Executor background() {
+        if (backgroundExecutor == null) {
+            synchronized (UpdaterExecutors.class) {
+                if (backgroundExecutor == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_BACKGROUND_THREADS,
+                            MAX_BACKGROUND_THREADS, 30, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new UpdaterThreadFactory());
+                    executor.allowCoreThreadTimeOut(true);
+                    backgroundExecutor = executor;
+                }
+            }
+        }
+        return backgroundExecutor;
+    }
+
+    /** Gets the executor that runs the tasks on the main thread. **/
+    @NonNull
+    public static Executor mainThread() {
+        if (mainExecutor == null) {
+            synchronized (UpdaterExecutors.class) {
+                if (mainExecutor == null) {
+                    final Handler handler = new Handler(Looper.getMainLooper());
+                    mainExecutor = new Executor() {
+                        @Override
+                        public void execute(@NonNull Runnable command) {
+                            handler.post(command);
+                        }
+                    };
+                }
+            }
+        }
+        return mainExecutor;
+    }
+
+    /** Creates an executor that runs its tasks one at a time in the order that they are submitted,
+     * using the threads of the background executor. **/
+    @NonNull
+    public static Executor newSerialExecutor() {
+        return new SerialExecutor(background());
+    }
+
+    /** An executor that runs the tasks one at a time on the given executor. **/
+    private static class SerialExecutor implements Executor {
+        private final Executor executor;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable activeTask;
+
+        SerialExecutor(@NonNull Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(@NonNull final Runnable command) {
+            tasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (activeTask == null) scheduleNext();
+        }
+
+        /** Runs the next task, if any. **/
+        private synchronized void scheduleNext() {
+            activeTask = tasks.poll();
+            if (activeTask != null) executor.execute(activeTask);
+        }
+    }
+
+    /** The thread factory for the background threads, which names the threads and makes them daemons. **/
+    private static class UpdaterThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "AutoAppUpdater-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
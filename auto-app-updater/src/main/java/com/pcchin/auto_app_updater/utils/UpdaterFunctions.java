@@ -14,19 +14,24 @@
 package com.pcchin.auto_app_updater.utils;
 
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.FileProvider;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /** A utility class for functions that are used in the updater. **/
@@ -78,25 +83,67 @@ public class UpdaterFunctions {
         return downloadDirFile == null ? "/storage/emulated/0/" : downloadDirFile.getAbsolutePath() + "/";
     }
 
-    /** Generates a valid file in the required directory.
-     * If a file with the same name exists,
-     * a file with incrementing number will be added to the file.
-     * @param fullPathName The absolute path to the directory of the file including the file name. **/
-    static String generateValidFile(String fullPathName) {
-        String returnFile = fullPathName + ".apk";
-        int i = 1;
-        while (new File(returnFile).exists() && i < Integer.MAX_VALUE) {
-            returnFile = fullPathName + "(" + i + ")" + ".apk";
-            i++;
+    /** Gets the headers that should be sent when following a redirect from one URL to another.
+     * Authorization headers are removed if the redirect goes to a different host,
+     * as signed download URLs (e.g. from GitHub) would reject requests with extra credentials.
+     * @param headers The headers that are sent to the original URL.
+     * @param fromUrl The original URL.
+     * @param toUrl The URL that is redirected to. **/
+    @NonNull
+    static Map<String, String> getRedirectHeaders(@NonNull Map<String, String> headers,
+                                                  @NonNull String fromUrl, @NonNull String toUrl) {
+        String fromHost = Uri.parse(fromUrl).getHost();
+        if (fromHost != null && fromHost.equalsIgnoreCase(Uri.parse(toUrl).getHost())) return headers;
+        Map<String, String> redirectHeaders = new HashMap<>();
+        for (Map.Entry<String, String> header: headers.entrySet()) {
+            if (!"Authorization".equalsIgnoreCase(header.getKey())
+                    && !"Private-Token".equalsIgnoreCase(header.getKey())) {
+                redirectHeaders.put(header.getKey(), header.getValue());
+            }
+        }
+        return redirectHeaders;
+    }
+
+    /** Opens the installer for the given APK file.
+     * The URIs are different due to https://stackoverflow.com/a/51119606
+     * @param context The context used to start the installer.
+     * @param contentProvider The content provider that is used to open the APK file.
+     * @param apkFile The APK file that would be installed. **/
+    static void installApk(@NonNull Context context, @NonNull String contentProvider, @NonNull File apkFile) {
+        Intent installIntent = new Intent(Intent.ACTION_VIEW);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            installIntent.setDataAndType(FileProvider.getUriForFile(context,
+                    contentProvider, apkFile), "application/vnd.android.package-archive");
+        } else {
+            installIntent.setDataAndType(Uri.parse(String.format("file://%s",
+                    apkFile.getAbsolutePath())), "application/vnd.android.package-archive");
+        }
+        installIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        installIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startActivity(installIntent);
+        UpdaterEventLog.record(UpdaterEventLog.INSTALL_LAUNCHED);
+    }
+
+    /** Converts the bytes to a lowercase hex string.
+     * @param bytes The bytes that would be converted. **/
+    @NonNull
+    static String toHexString(@NonNull byte[] bytes) {
+        char[] hexDigits = "0123456789abcdef".toCharArray();
+        char[] hexChars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hexChars[i * 2] = hexDigits[(bytes[i] >> 4) & 0xF];
+            hexChars[i * 2 + 1] = hexDigits[bytes[i] & 0xF];
         }
-        return returnFile;
+        return new String(hexChars);
     }
 
     /** Gets the set of Strings of the downloaded APKs.
      * Returns a new HashSet if no values are found.
      * This is required due to the following restriction:
      * https://medium.com/@anupamchugh/a-nightmare-with-shared-preferences-and-stringset-c53f39f1ef52
-     * @param sharedPref The shared preferences that the string set is stored in.**/
+     * @param sharedPref The shared preferences that the string set is stored in.
+     * @deprecated The downloaded APKs are no longer stored in the shared preferences. **/
+    @Deprecated
     @NonNull
     public static Set<String> getApkStringSet(@NonNull SharedPreferences sharedPref) {
         Set<String> sharedPrefValues = sharedPref.getStringSet("previousApkList", null);
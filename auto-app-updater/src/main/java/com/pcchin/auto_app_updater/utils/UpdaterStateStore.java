@@ -0,0 +1,336 @@
+/*
+ * Copyright 2020 PC Chin. All rights reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pcchin.auto_app_updater.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/** The store for the state of the updater, such as the last run time, the APK cache index, the downloaded APKs
+ * and the checkpoints of partial downloads.
+ * The state is kept in memory for lock-free reads, and each change is appended to a journal file in the background,
+ * so that a write only costs as much as the change itself instead of rewriting the whole file.
+ * The journal is compacted into a snapshot once most of its records are outdated.
+ * This should not be used outside of this library. **/
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class UpdaterStateStore {
+    /** The key for the time (in milliseconds) that the update check last ran. **/
+    public static final String LAST_RUN_TIME = "lastRunTime";
+    /** The prefix for the keys of the downloaded APKs that would be deleted the next time the updater is created. **/
+    public static final String PREVIOUS_APK_PREFIX = "previousApk:";
+    /** The prefix for the keys of the APK cache index, which map the download URLs and versions to the hashes of the APKs. **/
+    public static final String APK_CACHE_PREFIX = "apkCache:";
+    /** The prefix for the keys of the checkpoints of partial downloads, which map the download URLs to the checkpoints. **/
+    public static final String DOWNLOAD_CHECKPOINT_PREFIX = "downloadCheckpoint:";
+    /** The prefix for the keys of the downloads that the server asked to retry later, which map the download URLs
+     * to the time that the download could be retried and the number of runs of the worker that are skipped until then. **/
+    public static final String RETRY_AFTER_PREFIX = "retryAfter:";
+
+    private static final String TAG = "UpdaterStateStore";
+    private static final String JOURNAL_NAME = "auto_app_updater_state.journal";
+    private static final String LEGACY_PREFS = "com.pcchin.auto_app_updater";
+    private static final char OP_PUT = 'P', OP_REMOVE = 'R';
+    private static final int MIN_COMPACT_RECORDS = 64;
+    private static volatile UpdaterStateStore instance;
+
+    private final File journalFile;
+    private final ConcurrentHashMap<String, String> state = new ConcurrentHashMap<>();
+    private final Executor writeExecutor = UpdaterExecutors.newSerialExecutor();
+    // Only accessed from the write executor
+    private OutputStream journalOutput;
+    private int journalRecords;
+    // Set if an incomplete record could not be truncated, so that the journal is rewritten before the next record
+    private boolean compactPending;
+
+    //****** Start of constructors ******//
+
+    /** Loads the state from the journal file.
+     * @param context The context used to get the journal file. **/
+    private UpdaterStateStore(@NonNull Context context) {
+        this.journalFile = new File(context.getFilesDir(), JOURNAL_NAME);
+        if (journalFile.exists()) {
+            load();
+        } else {
+            migrateLegacyState(context);
+        }
+    }
+
+    /** Gets the state store of the app, which is loaded from the disk the first time it is called.
+     * @param context The context used to get the journal file. **/
+    @NonNull
+    public static UpdaterStateStore getInstance(@NonNull Context context) {
+        if (instance == null) {
+            synchronized (UpdaterStateStore.class) {
+                if (instance == null) instance = new UpdaterStateStore(context.getApplicationContext());
+            }
+        }
+        return instance;
+    }
+
+    //****** Start of reads ******//
+
+    /** Gets the value of the key, or null if it is not present.
+     * @param key The key of the value. **/
+    public String get(@NonNull String key) {
+        return state.get(key);
+    }
+
+    /** Gets the value of the key as a long, or the default value if it is not present or not a number.
+     * @param key The key of the value.
+     * @param defaultValue The value that is returned if the key is not present. **/
+    public long getLong(@NonNull String key, long defaultValue) {
+        String value = state.get(key);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /** Gets all the values whose keys start with the given prefix, with the prefix removed from the keys.
+     * @param prefix The prefix of the keys. **/
+    @NonNull
+    public Map<String, String> getAll(@NonNull String prefix) {
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, String> entry: state.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) values.put(entry.getKey().substring(prefix.length()), entry.getValue());
+        }
+        return values;
+    }
+
+    //****** Start of writes ******//
+
+    /** Sets the value of the key. The change is visible immediately and written to the disk in the background.
+     * Writes are synchronized so that the records are appended in the same order as the changes to the state.
+     * @param key The key of the value.
+     * @param value The value that would be stored. **/
+    public synchronized void put(@NonNull String key, @NonNull String value) {
+        if (value.equals(state.put(key, value))) return;
+        appendRecord(OP_PUT, key, value);
+    }
+
+    /** Sets the value of the key as a long.
+     * @param key The key of the value.
+     * @param value The value that would be stored. **/
+    public void putLong(@NonNull String key, long value) {
+        put(key, String.valueOf(value));
+    }
+
+    /** Removes the key. The change is visible immediately and written to the disk in the background.
+     * @param key The key that would be removed. **/
+    public synchronized void remove(@NonNull String key) {
+        if (state.remove(key) == null) return;
+        appendRecord(OP_REMOVE, key, "");
+    }
+
+    /** Appends a record to the journal in the background, compacting the journal if needed.
+     * @param op The operation of the record.
+     * @param key The key that is changed.
+     * @param value The new value of the key, or an empty string if it is removed. **/
+    private void appendRecord(final char op, @NonNull final String key, @NonNull final String value) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (compactPending || (journalRecords >= MIN_COMPACT_RECORDS && journalRecords > state.size() * 2)) {
+                        // The record is already in the state, so it is included in the snapshot
+                        compact();
+                    } else {
+                        if (journalOutput == null) journalOutput = new FileOutputStream(journalFile, true);
+                        journalOutput.write(encodeRecord(op, key, value));
+                        journalRecords++;
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, String.format("Unable to write to %s with error %s", journalFile.getAbsolutePath(), e.getMessage()));
+                    closeJournal();
+                }
+            }
+        });
+    }
+
+    /** Rewrites the journal with only the current state.
+     * The snapshot is written to a temporary file and synced before replacing the journal,
+     * so the journal is never left partially written. **/
+    private void compact() throws IOException {
+        closeJournal();
+        File tempFile = new File(journalFile.getAbsolutePath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tempFile);
+        int records = 0;
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (Map.Entry<String, String> entry: state.entrySet()) {
+                buffer.write(encodeRecord(OP_PUT, entry.getKey(), entry.getValue()));
+                records++;
+            }
+            buffer.writeTo(output);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!tempFile.renameTo(journalFile)) {
+            throw new IOException(String.format("Unable to rename %s to %s", tempFile.getAbsolutePath(), journalFile.getAbsolutePath()));
+        }
+        journalRecords = records;
+        compactPending = false;
+    }
+
+    /** Closes the journal file, which would be reopened on the next write. **/
+    private void closeJournal() {
+        if (journalOutput != null) {
+            try {
+                journalOutput.close();
+            } catch (IOException e) {
+                Log.w(TAG, String.format("Unable to close %s", journalFile.getAbsolutePath()));
+            }
+            journalOutput = null;
+        }
+    }
+
+    //****** Start of serialization ******//
+
+    /** Loads the state by replaying the records in the journal.
+     * An incomplete record at the end of the journal, which is left from a crash while writing, is ignored
+     * and truncated from the file, so that the next record would not be appended onto it. **/
+    private void load() {
+        String journal;
+        try {
+            byte[] journalBytes = readJournal();
+            int validLength = journalBytes.length;
+            while (validLength > 0 && journalBytes[validLength - 1] != '\n') validLength--;
+            if (validLength < journalBytes.length) truncateJournal(validLength);
+            journal = new String(journalBytes, 0, validLength, "UTF-8");
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Unable to read %s with error %s", journalFile.getAbsolutePath(), e.getMessage()));
+            return;
+        }
+        int start = 0, end;
+        while ((end = journal.indexOf('\n', start)) != -1) {
+            String record = journal.substring(start, end);
+            start = end + 1;
+            int separator = record.indexOf('\t', 2);
+            if (record.length() < 2 || record.charAt(1) != '\t' || separator == -1) continue;
+            String key = unescape(record.substring(2, separator));
+            if (record.charAt(0) == OP_PUT) state.put(key, unescape(record.substring(separator + 1)));
+            else if (record.charAt(0) == OP_REMOVE) state.remove(key);
+            journalRecords++;
+        }
+    }
+
+    /** Reads the whole journal file. **/
+    @NonNull
+    private byte[] readJournal() throws IOException {
+        InputStream input = new FileInputStream(journalFile);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] data = new byte[4096];
+            int count;
+            while ((count = input.read(data)) != -1) {
+                buffer.write(data, 0, count);
+            }
+            return buffer.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Truncates the journal file to the given length, removing an incomplete record at its end.
+     * This is run while loading, before any record is appended.
+     * @param length The length of the complete records in bytes. **/
+    private void truncateJournal(long length) {
+        Log.w(TAG, String.format("Removing incomplete record at the end of %s", journalFile.getAbsolutePath()));
+        try {
+            RandomAccessFile output = new RandomAccessFile(journalFile, "rw");
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                output.getChannel().truncate(length);
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Unable to truncate %s with error %s", journalFile.getAbsolutePath(), e.getMessage()));
+            compactPending = true;
+        }
+    }
+
+    /** Moves the state that is stored in the shared preferences by older versions of the updater into the store.
+     * @param context The context used to get the shared preferences. **/
+    private void migrateLegacyState(@NonNull Context context) {
+        SharedPreferences sharedPref = context.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE);
+        long lastRunTime = sharedPref.getLong("lastRunTime", -1);
+        Set<String> previousApkList = sharedPref.getStringSet("previousApkList", null);
+        if (lastRunTime >= 0) putLong(LAST_RUN_TIME, lastRunTime);
+        if (previousApkList != null) {
+            for (String previousApk: previousApkList) {
+                put(PREVIOUS_APK_PREFIX + previousApk, "");
+            }
+        }
+        if (lastRunTime >= 0 || previousApkList != null) sharedPref.edit().clear().apply();
+    }
+
+    /** Encodes a record as a line in the journal.
+     * @param op The operation of the record.
+     * @param key The key that is changed.
+     * @param value The new value of the key. **/
+    @NonNull
+    private static byte[] encodeRecord(char op, @NonNull String key, @NonNull String value) throws IOException {
+        return (op + "\t" + escape(key) + "\t" + escape(value) + "\n").getBytes("UTF-8");
+    }
+
+    /** Escapes the backslashes, tabs and line breaks in the string.
+     * @param value The string that would be escaped. **/
+    @NonNull
+    private static String escape(@NonNull String value) {
+        if (value.indexOf('\\') == -1 && value.indexOf('\t') == -1 && value.indexOf('\n') == -1) return value;
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    /** Reverses escape().
+     * @param value The string that would be unescaped. **/
+    @NonNull
+    private static String unescape(@NonNull String value) {
+        if (value.indexOf('\\') == -1) return value;
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                builder.append(next == 't' ? '\t' : (next == 'n' ? '\n' : next));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}